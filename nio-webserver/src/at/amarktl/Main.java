@@ -1,34 +1,271 @@
 
 package at.amarktl;
 
-import at.amarktl.cluster.IClusterNode;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import at.amarktl.bootstrap.ContentFilter;
+import at.amarktl.cluster.BalancingStrategies;
 import at.amarktl.cluster.Node;
 import at.amarktl.cluster.Server;
 import at.amarktl.config.Config;
+import at.amarktl.config.ConfigListener;
+import at.amarktl.config.ConfigSnapshot;
+import at.amarktl.config.ConfigValidator;
+import at.amarktl.properties.Properties;
 
 public class Main {
 
   public static void main(String[] args) throws Exception {
     Config c = new Config("cfg/config.xml");
-    c.getValueForTag("server-address");
-    int portRMI = 1099;
-    String serverAddress = "127.0.0.1";
+    Settings settings = new Settings(c.getSnapshot());
+    String serverAddress = settings.getServerAddress();
+    int portRMI = settings.getRmiPort();
 
-    Server s = new Server("127.0.0.1", portRMI, 8080, 10);
+    final Server s = new Server(serverAddress, portRMI, settings.getHttpPort(), settings.getWorkerThreads(), settings.getSelectorThreads());
+    s.setFailureDetection(settings.getNodeHeartbeatInterval(), settings.getNodeFailureThreshold());
+    s.setVirtualThreads(settings.isVirtualThreads());
+    if (settings.isColocated()) {
+      s.setColocated(Properties.WEBHOME);
+    }
+    configure(s, Collections.<Node> emptyList(), null, settings);
     s.start();
 
-    IClusterNode n1 = new Node("N1", "127.0.0.1", 2099, 10);
+    long repositoryMaxBytes = settings.getRepositoryMaxBytes();
+    ContentFilter filter = new ContentFilter(settings.getRepositoryInclude(), settings.getRepositoryExclude());
+    boolean warmUp = settings.isRepositoryWarmUp();
+    boolean binaryTransport = settings.isBinaryTransport();
+    int concurrency = settings.getNodeConcurrency();
+
+    Node n1 = new Node("N1", "127.0.0.1", 2099, nodeConcurrency(0, concurrency), repositoryMaxBytes, filter, warmUp);
+    n1.setVirtualThreads(settings.isVirtualThreads());
+    n1.setQueueCapacity(settings.getRequestQueueSize());
+    if (binaryTransport) {
+      n1.setBinaryTransportPort(2100);
+    }
     n1.connect(serverAddress, portRMI);
 
-    IClusterNode n2 = new Node("N2", "127.0.0.1", 2199, 10);
+    Node n2 = new Node("N2", "127.0.0.1", 2199, nodeConcurrency(1, concurrency), repositoryMaxBytes, filter, warmUp);
+    n2.setVirtualThreads(settings.isVirtualThreads());
+    n2.setQueueCapacity(settings.getRequestQueueSize());
+    if (binaryTransport) {
+      n2.setBinaryTransportPort(2200);
+    }
     n2.connect(serverAddress, portRMI);
 
-    IClusterNode n3 = new Node("N3", "127.0.0.1", 2299, 10);
+    Node n3 = new Node("N3", "127.0.0.1", 2299, nodeConcurrency(2, concurrency), repositoryMaxBytes, filter, warmUp);
+    n3.setVirtualThreads(settings.isVirtualThreads());
+    n3.setQueueCapacity(settings.getRequestQueueSize());
+    if (binaryTransport) {
+      n3.setBinaryTransportPort(2300);
+    }
     n3.connect(serverAddress, portRMI);
 
-    IClusterNode n4 = new Node("N4", "127.0.0.1", 2399, 5);
+    Node n4 = new Node("N4", "127.0.0.1", 2399, nodeConcurrency(3, concurrency), repositoryMaxBytes, filter, warmUp);
+    n4.setVirtualThreads(settings.isVirtualThreads());
+    n4.setQueueCapacity(settings.getRequestQueueSize());
+    if (binaryTransport) {
+      n4.setBinaryTransportPort(2400);
+    }
     n4.connect(serverAddress, portRMI);
 
+    final List<Node> nodes = Arrays.asList(n1, n2, n3, n4);
+    c.setValidator(new ConfigValidator() {
+      @Override
+      public void validate(ConfigSnapshot snapshot) {
+        // out of range values throw, before the snapshot takes effect
+        new Settings(snapshot);
+      }
+    });
+    c.addConfigListener(new ConfigListener() {
+      @Override
+      public void configChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+        configure(s, nodes, new Settings(previous), new Settings(current));
+      }
+    });
+
+  }
+
+  /**
+   * @param index
+   *          the position of the node in the cluster
+   * @return the requests the node serves at once; N4 serves half as many as the others, so the
+   *         master balances nodes of different capacity
+   */
+  static int nodeConcurrency(int index, int concurrency) {
+    return index == 3 ? Math.max(1, concurrency / 2) : concurrency;
+  }
+
+  /**
+   * Applies the settings which may change while the server is running: all of them if there are no
+   * previous ones, otherwise those which differ. Changes of the other settings are only reported.
+   * The settings have been validated as a whole before, a setting the server refuses nevertheless is
+   * reported and does not keep the others from being applied.
+   */
+  static void configure(Server s, List<Node> nodes, Settings previous, Settings current) {
+    List<String> applied = new ArrayList<String>();
+    List<String> failed = new ArrayList<String>();
+    if (previous == null || previous.getWorkerThreads() != current.getWorkerThreads()) {
+      try {
+        s.setThreadPoolSize(current.getWorkerThreads());
+        applied.add("worker-threads");
+      } catch (RuntimeException e) {
+        failed.add("worker-threads");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getRequestQueueSize() != current.getRequestQueueSize()) {
+      try {
+        s.setQueueCapacity(current.getRequestQueueSize());
+        for (Node node : nodes) {
+          node.setQueueCapacity(current.getRequestQueueSize());
+        }
+        applied.add("request-queue-size");
+      } catch (RuntimeException e) {
+        failed.add("request-queue-size");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getAdmissionMinLimit() != current.getAdmissionMinLimit()
+      || previous.getAdmissionMaxLimit() != current.getAdmissionMaxLimit() || previous.getRetryAfter() != current.getRetryAfter()) {
+      try {
+        s.setAdmissionControl(current.getAdmissionMinLimit(), current.getAdmissionMaxLimit(), current.getRetryAfter());
+        applied.add("admission-control");
+      } catch (RuntimeException e) {
+        failed.add("admission-control");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getKeepAliveMaxRequests() != current.getKeepAliveMaxRequests()
+      || previous.getKeepAliveTimeout() != current.getKeepAliveTimeout()) {
+      try {
+        s.setKeepAlive(current.getKeepAliveMaxRequests(), current.getKeepAliveTimeout());
+        applied.add("keep-alive");
+      } catch (RuntimeException e) {
+        failed.add("keep-alive");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getMaxRequestLineLength() != current.getMaxRequestLineLength()
+      || previous.getMaxHeaderSize() != current.getMaxHeaderSize()) {
+      try {
+        s.setRequestLimits(current.getMaxRequestLineLength(), current.getMaxHeaderSize());
+        applied.add("request-limits");
+      } catch (RuntimeException e) {
+        failed.add("request-limits");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getSessionBufferSize() != current.getSessionBufferSize()) {
+      try {
+        s.setSessionBufferSize(current.getSessionBufferSize());
+        applied.add("session-buffer-size");
+      } catch (RuntimeException e) {
+        failed.add("session-buffer-size");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getStreamChunkSize() != current.getStreamChunkSize()) {
+      try {
+        s.setStreamChunkSize(current.getStreamChunkSize());
+        applied.add("stream-chunk-size");
+      } catch (RuntimeException e) {
+        failed.add("stream-chunk-size");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getContentCacheMaxBytes() != current.getContentCacheMaxBytes()
+      || previous.getContentCacheTtl() != current.getContentCacheTtl()) {
+      try {
+        s.setContentCache(current.getContentCacheMaxBytes(), current.getContentCacheTtl());
+        applied.add("content-cache");
+      } catch (RuntimeException e) {
+        failed.add("content-cache");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || !previous.getBalancingStrategy().equals(current.getBalancingStrategy())) {
+      try {
+        s.setBalancingStrategy(BalancingStrategies.forName(current.getBalancingStrategy()));
+        applied.add("balancing-strategy");
+      } catch (RuntimeException e) {
+        failed.add("balancing-strategy");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getHedgePercentile() != current.getHedgePercentile()
+      || previous.getHedgeBudget() != current.getHedgeBudget()) {
+      try {
+        s.setHedging(current.getHedgePercentile(), current.getHedgeBudget());
+        applied.add("hedging");
+      } catch (RuntimeException e) {
+        failed.add("hedging");
+        e.printStackTrace();
+      }
+    }
+    if (previous != null && previous.getNodeConcurrency() != current.getNodeConcurrency()) {
+      // the nodes are created with the concurrency of the settings at startup
+      try {
+        for (int i = 0; i < nodes.size(); i++) {
+          nodes.get(i).setConcurrency(nodeConcurrency(i, current.getNodeConcurrency()));
+        }
+        applied.add("node-concurrency");
+      } catch (RemoteException | RuntimeException e) {
+        failed.add("node-concurrency");
+        e.printStackTrace();
+      }
+    }
+    if (previous == null || previous.getRepositoryMaxBytes() != current.getRepositoryMaxBytes()) {
+      try {
+        for (Node node : nodes) {
+          node.setRepositoryMaxBytes(current.getRepositoryMaxBytes());
+        }
+        applied.add("repository-max-bytes");
+      } catch (RuntimeException e) {
+        failed.add("repository-max-bytes");
+        e.printStackTrace();
+      }
+    }
+    if (!failed.isEmpty()) {
+      System.out.println("Configuration of " + failed + " failed, keeping the values before");
+    }
+    if (previous == null) {
+      return;
+    }
+
+    List<String> ignored = new ArrayList<String>();
+    if (!previous.getServerAddress().equals(current.getServerAddress()) || previous.getRmiPort() != current.getRmiPort()
+      || previous.getHttpPort() != current.getHttpPort()) {
+      ignored.add("addresses");
+    }
+    if (previous.getSelectorThreads() != current.getSelectorThreads()) {
+      ignored.add("selector-threads");
+    }
+    if (previous.isVirtualThreads() != current.isVirtualThreads()) {
+      ignored.add("execution-mode");
+    }
+    if (previous.isColocated() != current.isColocated()) {
+      ignored.add("serving-mode");
+    }
+    if (previous.getNodeHeartbeatInterval() != current.getNodeHeartbeatInterval()
+      || previous.getNodeFailureThreshold() != current.getNodeFailureThreshold()) {
+      ignored.add("failure-detection");
+    }
+    if (previous.isBinaryTransport() != current.isBinaryTransport()) {
+      ignored.add("node-transport");
+    }
+    if (!previous.getRepositoryInclude().equals(current.getRepositoryInclude())
+      || !previous.getRepositoryExclude().equals(current.getRepositoryExclude())
+      || previous.isRepositoryWarmUp() != current.isRepositoryWarmUp()) {
+      ignored.add("repository-content");
+    }
+    System.out.println("Configuration changed, applied " + applied);
+    if (!ignored.isEmpty()) {
+      System.out.println("Configuration changes of " + ignored + " take effect after a restart");
+    }
   }
 
 }
@@ -0,0 +1,302 @@
+
+package at.amarktl;
+
+import at.amarktl.cluster.BalancingStrategies;
+import at.amarktl.cluster.NodeDescriptor;
+import at.amarktl.config.ConfigSnapshot;
+
+/**
+ * The tuning knobs of the web server as typed values, read from one {@link ConfigSnapshot} with the
+ * defaults applied for missing or malformed tags. Values out of range, e.g. an unknown balancing
+ * strategy, reject the whole snapshot. Settings is immutable and may be freely exchanged between
+ * Threads.
+ */
+public final class Settings {
+
+  private final String serverAddress;
+  private final int rmiPort;
+  private final int httpPort;
+  private final int selectorThreads;
+  private final int workerThreads;
+  private final boolean virtualThreads;
+  private final int nodeConcurrency;
+  private final int requestQueueSize;
+  private final int admissionMinLimit;
+  private final int admissionMaxLimit;
+  private final int retryAfter;
+  private final int sessionBufferSize;
+  private final int keepAliveMaxRequests;
+  private final long keepAliveTimeout;
+  private final int maxRequestLineLength;
+  private final int maxHeaderSize;
+  private final boolean colocated;
+  private final int streamChunkSize;
+  private final long contentCacheMaxBytes;
+  private final long contentCacheTtl;
+  private final String balancingStrategy;
+  private final long nodeHeartbeatInterval;
+  private final int nodeFailureThreshold;
+  private final int hedgePercentile;
+  private final double hedgeBudget;
+  private final boolean binaryTransport;
+  private final long repositoryMaxBytes;
+  private final String repositoryInclude;
+  private final String repositoryExclude;
+  private final boolean repositoryWarmUp;
+
+  /**
+   * @throws IllegalArgumentException
+   *           if a value is out of range
+   */
+  public Settings(ConfigSnapshot c) {
+    if (c == null) {
+      throw new NullPointerException("'c' must not be null");
+    }
+    serverAddress = c.getValueForTag("server-address", "127.0.0.1");
+    rmiPort = c.getValueForTag("rmi-port", 1099);
+    httpPort = c.getValueForTag("http-port", 8080);
+    selectorThreads = c.getValueForTag("selector-threads", Runtime.getRuntime().availableProcessors());
+    workerThreads = c.getValueForTag("worker-threads", 10);
+    virtualThreads = "virtual".equals(oneOf(c, "execution-mode", "platform", "virtual"));
+    nodeConcurrency = c.getValueForTag("node-concurrency", 10);
+    requestQueueSize = c.getValueForTag("request-queue-size", 100);
+    admissionMinLimit = c.getValueForTag("admission-min-limit", 20);
+    admissionMaxLimit = c.getValueForTag("admission-max-limit", 1000);
+    retryAfter = c.getValueForTag("retry-after", 1);
+    sessionBufferSize = c.getValueForTag("session-buffer-size", 2048);
+    keepAliveMaxRequests = c.getValueForTag("keep-alive-max-requests", 100);
+    keepAliveTimeout = c.getValueForTag("keep-alive-timeout", 15000L);
+    maxRequestLineLength = c.getValueForTag("max-request-line-length", 8 * 1024);
+    maxHeaderSize = c.getValueForTag("max-header-size", 16 * 1024);
+    colocated = "colocated".equals(oneOf(c, "serving-mode", "cluster", "colocated"));
+    streamChunkSize = c.getValueForTag("stream-chunk-size", 64 * 1024);
+    contentCacheMaxBytes = c.getValueForTag("content-cache-max-bytes", 32L * 1024 * 1024);
+    contentCacheTtl = c.getValueForTag("content-cache-ttl", 60000L);
+    balancingStrategy = c.getValueForTag("balancing-strategy", BalancingStrategies.LEAST_OUTSTANDING);
+    nodeHeartbeatInterval = c.getValueForTag("node-heartbeat-interval", 1000L);
+    nodeFailureThreshold = c.getValueForTag("node-failure-threshold", 8);
+    hedgePercentile = c.getValueForTag("hedge-percentile", 95);
+    hedgeBudget = c.getValueForTag("hedge-budget-percent", 0) / 100.0;
+    binaryTransport = NodeDescriptor.TRANSPORT_BINARY.equals(oneOf(c, "node-transport", NodeDescriptor.TRANSPORT_RMI, NodeDescriptor.TRANSPORT_BINARY));
+    repositoryMaxBytes = c.getValueForTag("repository-max-bytes", 64L * 1024 * 1024);
+    repositoryInclude = c.getValueForTag("repository-include", "");
+    repositoryExclude = c.getValueForTag("repository-exclude", "");
+    String startup = oneOf(c, "repository-startup", "", "lazy", "warm-up");
+    if (startup.isEmpty()) {
+      // each file is always served by the same node, so no node needs to hold all of them
+      startup = BalancingStrategies.CONSISTENT_HASHING.equals(balancingStrategy) ? "lazy" : "warm-up";
+    }
+    repositoryWarmUp = "warm-up".equals(startup);
+    validate();
+  }
+
+  /**
+   * @return the value of the given tag, the first of the given values if it is missing
+   */
+  private static String oneOf(ConfigSnapshot c, String tag, String... values) {
+    String value = c.getValueForTag(tag, values[0]);
+    for (String known : values) {
+      if (known.equals(value)) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Unknown " + tag + " [" + value + "]");
+  }
+
+  /**
+   * Checks the values against the ranges the server and the nodes accept, so a snapshot is either
+   * applied as a whole or not at all.
+   */
+  private void validate() {
+    port("rmi-port", rmiPort);
+    port("http-port", httpPort);
+    positive("selector-threads", selectorThreads);
+    positive("worker-threads", workerThreads);
+    positive("node-concurrency", nodeConcurrency);
+    notNegative("request-queue-size", requestQueueSize);
+    notNegative("admission-max-limit", admissionMaxLimit);
+    if (admissionMaxLimit > 0) {
+      positive("admission-min-limit", admissionMinLimit);
+      if (admissionMinLimit > admissionMaxLimit) {
+        throw new IllegalArgumentException("'admission-min-limit' must not be greater than 'admission-max-limit'");
+      }
+    }
+    notNegative("retry-after", retryAfter);
+    positive("session-buffer-size", sessionBufferSize);
+    positive("keep-alive-max-requests", keepAliveMaxRequests);
+    positive("keep-alive-timeout", keepAliveTimeout);
+    positive("max-request-line-length", maxRequestLineLength);
+    positive("max-header-size", maxHeaderSize);
+    positive("stream-chunk-size", streamChunkSize);
+    notNegative("content-cache-max-bytes", contentCacheMaxBytes);
+    notNegative("content-cache-ttl", contentCacheTtl);
+    BalancingStrategies.forName(balancingStrategy);
+    positive("node-heartbeat-interval", nodeHeartbeatInterval);
+    positive("node-failure-threshold", nodeFailureThreshold);
+    if (hedgePercentile <= 0 || hedgePercentile >= 100) {
+      throw new IllegalArgumentException("'hedge-percentile' must be greater than 0 and less than 100");
+    }
+    if (hedgeBudget < 0 || hedgeBudget > 1) {
+      throw new IllegalArgumentException("'hedge-budget-percent' must not be less than 0 or greater than 100");
+    }
+    positive("repository-max-bytes", repositoryMaxBytes);
+  }
+
+  private static void positive(String tag, long value) {
+    if (value <= 0) {
+      throw new IllegalArgumentException("'" + tag + "' must not be less or equal than 0");
+    }
+  }
+
+  private static void notNegative(String tag, long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("'" + tag + "' must not be less than 0");
+    }
+  }
+
+  private static void port(String tag, int value) {
+    if (value <= 0 || value > 65535) {
+      throw new IllegalArgumentException("'" + tag + "' must be greater than 0 and not greater than 65535");
+    }
+  }
+
+  public String getServerAddress() {
+    return serverAddress;
+  }
+
+  public int getRmiPort() {
+    return rmiPort;
+  }
+
+  public int getHttpPort() {
+    return httpPort;
+  }
+
+  public int getSelectorThreads() {
+    return selectorThreads;
+  }
+
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  /**
+   * @return <code>true</code> to run blocking work on a virtual thread per task, bounded by the
+   *         worker threads and node concurrency instead of pools of that size
+   */
+  public boolean isVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /**
+   * @return number of requests a full-sized cluster node serves at once
+   */
+  public int getNodeConcurrency() {
+    return nodeConcurrency;
+  }
+
+  /**
+   * @return number of requests waiting for a worker of the master or a cluster node at most
+   */
+  public int getRequestQueueSize() {
+    return requestQueueSize;
+  }
+
+  public int getAdmissionMinLimit() {
+    return admissionMinLimit;
+  }
+
+  /**
+   * @return number of requests the master works on at once at most; 0 disables admission control
+   */
+  public int getAdmissionMaxLimit() {
+    return admissionMaxLimit;
+  }
+
+  public int getRetryAfter() {
+    return retryAfter;
+  }
+
+  public int getSessionBufferSize() {
+    return sessionBufferSize;
+  }
+
+  public int getKeepAliveMaxRequests() {
+    return keepAliveMaxRequests;
+  }
+
+  public long getKeepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  public int getMaxRequestLineLength() {
+    return maxRequestLineLength;
+  }
+
+  public int getMaxHeaderSize() {
+    return maxHeaderSize;
+  }
+
+  public boolean isColocated() {
+    return colocated;
+  }
+
+  public int getStreamChunkSize() {
+    return streamChunkSize;
+  }
+
+  public long getContentCacheMaxBytes() {
+    return contentCacheMaxBytes;
+  }
+
+  public long getContentCacheTtl() {
+    return contentCacheTtl;
+  }
+
+  public String getBalancingStrategy() {
+    return balancingStrategy;
+  }
+
+  public long getNodeHeartbeatInterval() {
+    return nodeHeartbeatInterval;
+  }
+
+  public int getNodeFailureThreshold() {
+    return nodeFailureThreshold;
+  }
+
+  public int getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  /**
+   * @return duplicate requests allowed per request, e.g. 0.05; 0 disables hedging
+   */
+  public double getHedgeBudget() {
+    return hedgeBudget;
+  }
+
+  public boolean isBinaryTransport() {
+    return binaryTransport;
+  }
+
+  public long getRepositoryMaxBytes() {
+    return repositoryMaxBytes;
+  }
+
+  public String getRepositoryInclude() {
+    return repositoryInclude;
+  }
+
+  public String getRepositoryExclude() {
+    return repositoryExclude;
+  }
+
+  public boolean isRepositoryWarmUp() {
+    return repositoryWarmUp;
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,40 @@
+
+package at.amarktl.bootstrap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The content of a file in the {@link Repository} together with the {@link ContentInfo} of exactly
+ * this version of the file.
+ */
+public final class Content {
+
+  private final ContentInfo info;
+  private final ByteBuffer buffer;
+
+  public Content(ContentInfo info, ByteBuffer buffer) {
+    if (info == null) {
+      throw new NullPointerException("'info' must not be null");
+    }
+    if (buffer == null) {
+      throw new NullPointerException("'buffer' must not be null");
+    }
+    this.info = info;
+    this.buffer = buffer;
+  }
+
+  public ContentInfo getInfo() {
+    return info;
+  }
+
+  /**
+   * @return a read-only view on the content, backed by memory outside of the heap
+   */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,151 @@
+
+package at.amarktl.bootstrap;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides by glob patterns which files of the web home a {@link Repository} serves, e.g.
+ * <code>html/**</code> to keep sources, libraries and version control data out of memory. Paths are
+ * matched relative to the web home with <code>/</code> as separator; a file is served if it matches
+ * any include and no exclude pattern, and neither do any of its directories match an exclude
+ * pattern. Instances are immutable.
+ */
+public final class ContentFilter {
+
+  /** Serves every file. */
+  public static final ContentFilter ALL = new ContentFilter("", "");
+
+  private final List<PathMatcher> includes = new ArrayList<PathMatcher>();
+  private final List<PathMatcher> excludes = new ArrayList<PathMatcher>();
+  /** The literal directories the includes start with, <code>null</code> if one may match anywhere. */
+  private final List<String> roots = new ArrayList<String>();
+  private final String description;
+
+  /**
+   * @param includes
+   *          comma separated glob patterns of the files to serve, empty to serve all of them
+   * @param excludes
+   *          comma separated glob patterns of the files and directories not to serve
+   */
+  public ContentFilter(String includes, String excludes) {
+    if (includes == null) {
+      throw new NullPointerException("'includes' must not be null");
+    }
+    if (excludes == null) {
+      throw new NullPointerException("'excludes' must not be null");
+    }
+    for (String glob : split(includes)) {
+      this.includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+      String root = root(glob);
+      if (root.isEmpty()) {
+        this.roots.clear();
+        this.roots.add(null);
+      } else if (!this.roots.contains(null)) {
+        this.roots.add(root);
+      }
+    }
+    for (String glob : split(excludes)) {
+      this.excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+    }
+    this.description = "include [" + includes.trim() + "] exclude [" + excludes.trim() + "]";
+  }
+
+  private static List<String> split(String globs) {
+    List<String> split = new ArrayList<String>();
+    for (String glob : globs.split(",")) {
+      if (glob.trim().length() > 0) {
+        split.add(glob.trim());
+      }
+    }
+    return split;
+  }
+
+  /**
+   * @return the leading directories of the given pattern which contain no wildcard
+   */
+  private static String root(String glob) {
+    StringBuilder root = new StringBuilder();
+    for (String segment : glob.split("/")) {
+      if (segment.matches(".*[*?\\[{].*") || root.length() + segment.length() + 1 > glob.length()) {
+        // a wildcard or the file name itself
+        break;
+      }
+      root.append(segment).append('/');
+    }
+    return root.toString();
+  }
+
+  /**
+   * @param file
+   *          path of the file relative to the web home
+   * @return <code>true</code> if the file is served
+   */
+  public boolean accepts(Path file) {
+    for (Path directory = file.getParent(); directory != null; directory = directory.getParent()) {
+      if (excluded(directory)) {
+        return false;
+      }
+    }
+    if (excluded(file)) {
+      return false;
+    }
+    if (includes.isEmpty()) {
+      return true;
+    }
+    for (PathMatcher include : includes) {
+      if (include.matches(file)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param directory
+   *          path of the directory relative to the web home
+   * @return <code>false</code> if no file in the directory or below is served, so it need not be
+   *         searched
+   */
+  public boolean mayContain(Path directory) {
+    if (excluded(directory)) {
+      return false;
+    }
+    if (includes.isEmpty() || roots.contains(null)) {
+      return true;
+    }
+    String path = directory.toString().replace('\\', '/') + "/";
+    if (path.equals("/")) {
+      // the web home itself
+      return true;
+    }
+    for (String root : roots) {
+      if (root.startsWith(path) || path.startsWith(root)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean excluded(Path path) {
+    for (PathMatcher exclude : excludes) {
+      if (exclude.matches(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return description;
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
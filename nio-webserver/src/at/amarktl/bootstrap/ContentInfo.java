@@ -0,0 +1,76 @@
+
+package at.amarktl.bootstrap;
+
+import java.io.Serializable;
+
+/**
+ * Metadata of a file in the {@link Repository}, small enough to be asked for without the content.
+ * ContentInfo is immutable and may be freely exchanged between Threads.
+ */
+public final class ContentInfo implements Serializable {
+
+  /** The content coding of gzip compressed variants. */
+  public static final String ENCODING_GZIP = "gzip";
+
+  private static final long serialVersionUID = 1L;
+
+  private final long length;
+  private final long lastModified;
+  private final String etag;
+  private final String encoding;
+
+  public ContentInfo(long length, long lastModified, String etag) {
+    this(length, lastModified, etag, null);
+  }
+
+  /**
+   * @param lastModified
+   *          milliseconds since the epoch the file has been modified last
+   * @param etag
+   *          the entity tag including its quotes, changes whenever the content changes
+   * @param encoding
+   *          the content coding applied to the file, <code>null</code> if it is not encoded
+   */
+  public ContentInfo(long length, long lastModified, String etag, String encoding) {
+    if (length < 0) {
+      throw new IllegalArgumentException("'length' must not be less than 0");
+    }
+    if (etag == null) {
+      throw new NullPointerException("'etag' must not be null");
+    }
+    this.length = length;
+    this.lastModified = lastModified;
+    this.etag = etag;
+    this.encoding = encoding;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @return the content coding, e.g. {@link #ENCODING_GZIP}; <code>null</code> if the content is
+   *         not encoded
+   */
+  public String getEncoding() {
+    return encoding;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "[" + length + " bytes, modified " + lastModified + ", etag " + etag + (encoding != null ? ", " + encoding : "") + "]";
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
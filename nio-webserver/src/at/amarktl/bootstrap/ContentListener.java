@@ -0,0 +1,25 @@
+
+package at.amarktl.bootstrap;
+
+import java.util.List;
+
+/**
+ * Listener interested in files of a {@link Repository} changing on disk.
+ *
+ * @see Repository#watch(ContentListener)
+ */
+public interface ContentListener {
+
+  /**
+   * Invoked once the repository caught up with changed files, on the thread watching them.
+   *
+   * @param uris
+   *          the URIs of the files relative to the web home, e.g. <code>/html/index.html</code>
+   */
+  void contentChanged(List<String> uris);
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,159 @@
+
+package at.amarktl.bootstrap;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps file contents outside of the Java heap in direct buffers. The store never holds more than
+ * the configured number of bytes, the least recently used entries are evicted to make room for new
+ * ones. Entries are handed out as read-only views, so callers neither copy nor modify the content.
+ * Calls to methods of ContentStore are thread safe.
+ */
+public class ContentStore {
+
+  private final Map<String, ByteBuffer> entries = new LinkedHashMap<String, ByteBuffer>(64, 0.75f, true);
+  /** Guarded by this. */
+  private long maxBytes;
+  private long usedBytes = 0;
+  private long evictions = 0;
+
+  public ContentStore(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("'maxBytes' must not be less or equal than 0");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Copies the given content into a direct buffer and stores it under the given path.
+   *
+   * @return a read-only view on the stored content; if the content alone exceeds the budget it is
+   *         returned without being stored
+   */
+  public ByteBuffer put(String path, ByteBuffer content) {
+    if (path == null) {
+      throw new NullPointerException("'path' must not be null");
+    }
+    if (content == null) {
+      throw new NullPointerException("'content' must not be null");
+    }
+
+    ByteBuffer stored = ByteBuffer.allocateDirect(content.remaining());
+    stored.put(content.duplicate());
+    stored.flip();
+    return store(path, stored);
+  }
+
+  /**
+   * Stores the given direct buffer under the given path as it is, without copying it.
+   *
+   * @param content
+   *          a direct buffer with the content from position 0 up to its capacity, which must not be
+   *          modified any more
+   * @return a read-only view on the stored content; if the content alone exceeds the budget it is
+   *         returned without being stored
+   */
+  public ByteBuffer putDirect(String path, ByteBuffer content) {
+    if (path == null) {
+      throw new NullPointerException("'path' must not be null");
+    }
+    if (content == null) {
+      throw new NullPointerException("'content' must not be null");
+    }
+    if (!content.isDirect()) {
+      throw new IllegalArgumentException("'content' must be a direct buffer");
+    }
+    if (content.position() != 0 || content.limit() != content.capacity()) {
+      throw new IllegalArgumentException("'content' must span the whole buffer");
+    }
+    return store(path, content);
+  }
+
+  private ByteBuffer store(String path, ByteBuffer stored) {
+    synchronized (this) {
+      if (stored.capacity() > maxBytes) {
+        return stored.asReadOnlyBuffer();
+      }
+      ByteBuffer old = entries.remove(path);
+      if (old != null) {
+        usedBytes -= old.capacity();
+      }
+      evict(maxBytes - stored.capacity());
+      entries.put(path, stored);
+      usedBytes += stored.capacity();
+    }
+    return stored.asReadOnlyBuffer();
+  }
+
+  /**
+   * @return a read-only view on the content stored under the given path or <code>null</code> if
+   *         there is none
+   */
+  public synchronized ByteBuffer get(String path) {
+    ByteBuffer stored = entries.get(path);
+    if (stored == null) {
+      return null;
+    }
+    return stored.asReadOnlyBuffer();
+  }
+
+  public synchronized boolean remove(String path) {
+    ByteBuffer old = entries.remove(path);
+    if (old == null) {
+      return false;
+    }
+    usedBytes -= old.capacity();
+    return true;
+  }
+
+  private void evict(long limit) {
+    Iterator<ByteBuffer> i = entries.values().iterator();
+    while (usedBytes > limit && i.hasNext()) {
+      // the buffer memory is released once the last view on it got collected
+      usedBytes -= i.next().capacity();
+      i.remove();
+      evictions++;
+    }
+  }
+
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Changes the budget of the store, the least recently used entries are evicted right away if it
+   * shrinks.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("'maxBytes' must not be less or equal than 0");
+    }
+    this.maxBytes = maxBytes;
+    evict(maxBytes);
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized String toString() {
+    return "[" + entries.size() + " entries, " + usedBytes + "/" + maxBytes + " bytes, " + evictions + " evictions]";
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
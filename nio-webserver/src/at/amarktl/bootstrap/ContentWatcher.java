@@ -0,0 +1,182 @@
+
+package at.amarktl.bootstrap;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the directories of the web home a {@link Repository} may serve files from and lets it
+ * catch up with the files changing in there, one at a time instead of loading everything again.
+ * Saving a file usually shows as several events, so changes are handled in batches once the web
+ * home has been quiet for a moment. If the file system drops events, everything loaded is checked.
+ */
+public final class ContentWatcher implements Closeable {
+
+  /** Milliseconds without further changes before a batch is handled. */
+  static final long QUIET_PERIOD = 100;
+  /** Milliseconds a batch is handled after at the latest, even if changes keep coming. */
+  static final long MAX_DELAY = 1000;
+
+  private final Repository repository;
+  private final Path root;
+  private final ContentFilter filter;
+  private final ContentListener listener;
+  private final WatchService watchService;
+  /** Only touched by the watching thread once it started. */
+  private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+  private final Thread thread;
+
+  ContentWatcher(Repository repository, Path root, ContentFilter filter, ContentListener listener) throws IOException {
+    if (listener == null) {
+      throw new NullPointerException("'listener' must not be null");
+    }
+    this.repository = repository;
+    this.root = root;
+    this.filter = filter;
+    this.listener = listener;
+    this.watchService = root.getFileSystem().newWatchService();
+    register(root);
+    this.thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "[" + repository.identifier + "] content watcher");
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    System.out.println("[" + repository.identifier + "] watching " + directories.size() + " directories of [" + root + "] for changes");
+    thread.start();
+  }
+
+  /**
+   * Watches the given directory and those below it.
+   *
+   * @return the files found in there
+   */
+  private List<Path> register(Path directory) throws IOException {
+    final List<Path> files = new ArrayList<Path>();
+    Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (!filter.mayContain(root.relativize(dir))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        files.add(file);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return files;
+  }
+
+  private void watch() {
+    while (true) {
+      WatchKey key;
+      Set<Path> changed = new LinkedHashSet<Path>();
+      boolean overflow = false;
+      try {
+        key = watchService.take();
+        long deadline = System.currentTimeMillis() + MAX_DELAY;
+        while (key != null) {
+          overflow |= collect(key, changed);
+          long wait = Math.min(QUIET_PERIOD, deadline - System.currentTimeMillis());
+          key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      try {
+        List<String> uris = new ArrayList<String>();
+        if (overflow) {
+          System.out.println("[" + repository.identifier + "] missed changes of [" + root + "], checking all files loaded");
+          uris.addAll(repository.refreshAll());
+        }
+        for (Path path : changed) {
+          uris.addAll(repository.refresh(path));
+        }
+        if (!uris.isEmpty()) {
+          System.out.println("[" + repository.identifier + "] content changed " + uris);
+          listener.contentChanged(uris);
+        }
+      } catch (RuntimeException e) {
+        // must not end the watching
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * @return <code>true</code> if events have been dropped
+   */
+  private boolean collect(WatchKey key, Set<Path> changed) {
+    boolean overflow = false;
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        overflow = true;
+        continue;
+      }
+      if (directory == null) {
+        // no longer watched
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        try {
+          // files may have been put there before it was watched
+          changed.addAll(register(path));
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      } else {
+        changed.add(path);
+      }
+    }
+    if (!key.reset()) {
+      // the directory is gone
+      directories.remove(key);
+    }
+    return overflow;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+    thread.interrupt();
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
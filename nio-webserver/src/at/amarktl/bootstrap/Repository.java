@@ -1,104 +1,654 @@
 
 package at.amarktl.bootstrap;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.FileVisitResult;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
 import at.amarktl.properties.Properties;
 
 public class Repository {
 
-  CacheManager cacheManager = CacheManager.create();
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  /** Smaller files are not worth compressing, the gzip framing eats most of the savings. */
+  public static final int MIN_COMPRESSIBLE_LENGTH = 1024;
+  private static final String[] COMPRESSIBLE_TYPES = { ".html", ".htm", ".css", ".js", ".json", ".xml", ".svg", ".txt" };
+  /** Number of files loaded by the warm-up between two progress reports. */
+  private static final int WARM_UP_PROGRESS_INTERVAL = 100;
+
+  ContentStore store = null;
   String identifier = null;
+  /**
+   * Kept for every file loaded once, even if its content got evicted from the store. Compressible
+   * files have a second entry for their gzip variant, which repeats the plain info if compressing
+   * did not pay off. The store keeps the content under the path and the entity tag of the info, so
+   * a content found for an info is always the one the info describes.
+   */
+  private final Map<String, ContentInfo> infos = new ConcurrentHashMap<String, ContentInfo>();
+  private final Path root = Paths.get(Properties.WEBHOME).toAbsolutePath().normalize();
+  private final ContentFilter filter;
+  private final CompletableFuture<Void> warmUp;
+  /** Progress of the warm-up. */
+  private final AtomicInteger loadedFiles = new AtomicInteger();
+  private final AtomicLong loadedBytes = new AtomicLong();
+  private final AtomicInteger skippedFiles = new AtomicInteger();
+  /** Rebuilds evicted gzip variants off the request path. */
+  private final ExecutorService compressor;
+  /** The variants queued to be rebuilt, each one once. */
+  private final Set<String> compressing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
   public Repository(String identifier) throws IOException {
+    this(identifier, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxBytes
+   *          number of bytes of file content this repository keeps in memory at most
+   */
+  public Repository(String identifier, long maxBytes) throws IOException {
+    this(identifier, maxBytes, true);
+  }
+
+  /**
+   * @param maxBytes
+   *          number of bytes of file content this repository keeps in memory at most
+   * @param preload
+   *          <code>true</code> to warm up with all files of the web home, <code>false</code> to load
+   *          each file when it is first requested, e.g. if the master only sends this repository a
+   *          share of the files
+   */
+  public Repository(String identifier, long maxBytes, boolean preload) throws IOException {
+    this(identifier, maxBytes, ContentFilter.ALL, preload);
+  }
+
+  /**
+   * @param maxBytes
+   *          number of bytes of file content this repository keeps in memory at most
+   * @param filter
+   *          the files of the web home this repository serves
+   * @param warmUp
+   *          <code>true</code> to load the files in the background right away, as many as fit;
+   *          <code>false</code> to load each file when it is first requested, e.g. if the master
+   *          only sends this repository a share of the files. Files are served in either case
+   *          before the warm-up finished.
+   */
+  public Repository(String identifier, long maxBytes, ContentFilter filter, boolean warmUp) throws IOException {
     if (identifier == null) {
       throw new NullPointerException("'identifier' must not be null");
     }
     if (identifier.trim().length() == 0) {
       throw new IllegalArgumentException("'identifier' must not be empty");
     }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("'maxBytes' must not be less or equal than 0");
+    }
+    if (filter == null) {
+      throw new NullPointerException("'filter' must not be null");
+    }
     this.identifier = identifier;
-    cacheManager.addCache(this.identifier);
-    init0();
+    this.store = new ContentStore(maxBytes);
+    this.filter = filter;
+    this.compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, Repository.this.identifier + "-compressor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.warmUp = warmUp ? warmUp() : CompletableFuture.<Void> completedFuture(null);
   }
 
-  private void init0() throws IOException {
-    Files.walkFileTree(Paths.get(Properties.WEBHOME), new BootstrapLoader());
+  /**
+   * Walks the web home and loads the files on a pool of its own, a task per directory and file. The
+   * walk skips directories the filter rules out and files which do not fit into the store any
+   * more, so neither the size of the web home nor of its unserved parts delay a node.
+   */
+  private CompletableFuture<Void> warmUp() {
+    final CompletableFuture<Void> done = new CompletableFuture<Void>();
+    final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    System.out.println("[" + identifier + "] warming up with the files of [" + root + "], " + filter);
+    pool.execute(new Runnable() {
+      @Override
+      public void run() {
+        long start = System.currentTimeMillis();
+        try {
+          new WarmUpDirectory(root).invoke();
+          System.out.println("[" + identifier + "] warm-up finished in " + (System.currentTimeMillis() - start) + " ms: " + loadedFiles + " files, "
+            + loadedBytes + " bytes, " + skippedFiles + " files left to load on request");
+          done.complete(null);
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+          done.completeExceptionally(e);
+        } finally {
+          pool.shutdown();
+        }
+      }
+    });
+    return done;
+  }
+
+  private final class WarmUpDirectory extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private final Path directory;
+
+    public WarmUpDirectory(Path directory) {
+      this.directory = directory;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void compute() {
+      List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          // links are not followed, like a walk of the file tree would not
+          BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          Path relative = root.relativize(entry);
+          if (attrs.isDirectory() && filter.mayContain(relative)) {
+            tasks.add(new WarmUpDirectory(entry));
+          } else if (attrs.isRegularFile() && filter.accepts(relative)) {
+            tasks.add(new WarmUpFile(entry, attrs.size()));
+          }
+        }
+      } catch (IOException e) {
+        // the files of the directory are loaded on request
+        e.printStackTrace();
+      }
+      invokeAll(tasks);
+    }
+
   }
 
-  private final class BootstrapLoader extends SimpleFileVisitor<Path> {
+  private final class WarmUpFile extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private final Path file;
+    private final long size;
 
-    public BootstrapLoader() {
+    public WarmUpFile(Path file, long size) {
+      this.file = file;
+      this.size = size;
     }
 
     /** {@inheritDoc} */
     @Override
-    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-      System.out.println("[" + identifier + "] loading file from URI [" + file + "]");
+    protected void compute() {
+      if (size > store.getMaxBytes() - store.getUsedBytes()) {
+        // would only evict files loaded before
+        skippedFiles.incrementAndGet();
+        return;
+      }
+      try {
+        load(file);
+      } catch (IOException e) {
+        e.printStackTrace();
+        skippedFiles.incrementAndGet();
+        return;
+      }
+      long bytes = loadedBytes.addAndGet(size);
+      int files = loadedFiles.incrementAndGet();
+      if (files % WARM_UP_PROGRESS_INTERVAL == 0) {
+        System.out.println("[" + identifier + "] warm-up loaded " + files + " files, " + bytes + " bytes so far");
+      }
+    }
+
+  }
+
+  /**
+   * Watches the web home and keeps this repository up to date with the files changing in it.
+   * 
+   * @param listener
+   *          told which files changed once this repository caught up with them
+   * @return the watcher, to be closed once the repository is not used any more
+   */
+  public ContentWatcher watch(ContentListener listener) throws IOException {
+    ContentWatcher watcher = new ContentWatcher(this, root, filter, listener);
+    watcher.start();
+    return watcher;
+  }
+
+  /**
+   * Catches up with a change of the given file or directory on disk. A changed file whose content is
+   * kept is loaded again right away, so the next request does not wait for it; whatever is kept of
+   * deleted files is dropped.
+   * 
+   * @return the URIs of the files relative to the web home, e.g. <code>/html/index.html</code>, whose
+   *         content may have changed
+   */
+  public List<String> refresh(Path path) {
+    List<String> uris = new ArrayList<String>();
+    Path absolute = path.toAbsolutePath().normalize();
+    if (!absolute.startsWith(root) || Files.isDirectory(absolute, LinkOption.NOFOLLOW_LINKS)) {
+      // a directory changes with its files, which are reported on their own
+      return uris;
+    }
+    String key = key(absolute);
+
+    if (Files.isRegularFile(absolute, LinkOption.NOFOLLOW_LINKS)) {
+      if (!filter.accepts(root.relativize(absolute))) {
+        return uris;
+      }
+      uris.add(uri(absolute));
+      ContentInfo info = infos.get(key);
+      boolean cached = info != null && store.get(version(key, info)) != null;
+      drop(key);
+      if (cached) {
+        try {
+          load(absolute);
+        } catch (IOException e) {
+          // changed again in the meantime, loaded on request
+          e.printStackTrace();
+        }
+      }
+      return uris;
+    }
+
+    // deleted, take along whatever was loaded below in case it was a directory
+    String prefix = key + "/";
+    for (String loaded : new ArrayList<String>(infos.keySet())) {
+      if ((loaded.equals(key) || loaded.startsWith(prefix)) && !loaded.endsWith(variant("", ContentInfo.ENCODING_GZIP))) {
+        drop(loaded);
+        uris.add(uri(Paths.get(loaded)));
+      }
+    }
+    if (uris.isEmpty() && filter.accepts(root.relativize(absolute))) {
+      uris.add(uri(absolute));
+    }
+    return uris;
+  }
+
+  /**
+   * Catches up with any changes of the files loaded so far, e.g. after changes have been missed.
+   * 
+   * @return the URIs of the files relative to the web home whose content may have changed
+   */
+  public List<String> refreshAll() {
+    List<String> uris = new ArrayList<String>();
+    for (String loaded : new ArrayList<String>(infos.keySet())) {
+      if (!loaded.endsWith(variant("", ContentInfo.ENCODING_GZIP))) {
+        uris.addAll(refresh(Paths.get(loaded)));
+      }
+    }
+    return uris;
+  }
+
+  private void drop(String path) {
+    String variant = variant(path, ContentInfo.ENCODING_GZIP);
+    ContentInfo info = infos.remove(path);
+    ContentInfo compressed = infos.remove(variant);
+    if (info != null) {
+      store.remove(version(path, info));
+    }
+    if (compressed != null) {
+      store.remove(version(variant, compressed));
+    }
+    if (info != null) {
+      System.out.println("[" + identifier + "] dropped changed file [" + path + "] from cache " + store);
+    }
+  }
+
+  private String uri(Path absolute) {
+    return "/" + root.relativize(absolute).toString().replace('\\', '/');
+  }
+
+  /**
+   * Changes the number of bytes of file content kept in memory, the least recently used files are
+   * dropped right away if it shrinks.
+   */
+  public void setMaxBytes(long maxBytes) {
+    store.setMaxBytes(maxBytes);
+    System.out.println("[" + identifier + "] resized cache " + store);
+  }
 
-      if (!attrs.isRegularFile()) {
-        return FileVisitResult.CONTINUE;
+  /**
+   * @return completes once the warm-up finished, right away if the files are loaded on request only
+   */
+  public CompletableFuture<Void> getWarmUp() {
+    return warmUp;
+  }
+
+  public ByteBuffer load(Path file) throws FileNotFoundException, IOException {
+    return loadContent(file).getBuffer();
+  }
+
+  private Content loadContent(Path file) throws FileNotFoundException, IOException {
+    Path absolute = file.toAbsolutePath().normalize();
+    if (!absolute.startsWith(root) || !filter.accepts(root.relativize(absolute))) {
+      throw new FileNotFoundException("[" + file + "] is not served");
+    }
+    System.out.println("[" + identifier + "] loading file from URI [" + file + "]");
+    long lastModified = Files.getLastModifiedTime(absolute).toMillis();
+    ByteBuffer b = read(absolute);
+    System.out.println("[" + identifier + "] finished loading file from URI [" + file + "]");
+
+    String path = key(absolute);
+    ContentInfo info = info(b, lastModified);
+    // stored before the info is published, whoever finds the info finds its content as well
+    ByteBuffer content = store.putDirect(version(path, info), b);
+    replace(path, info);
+    if (isCompressible(path) && b.capacity() >= MIN_COMPRESSIBLE_LENGTH) {
+      ContentInfo variant = infos.get(variant(path, ContentInfo.ENCODING_GZIP));
+      if (variant == null || !isVariantOf(variant, info)) {
+        compress(path, content, info);
+      } else if (variant.getEncoding() != null && store.get(version(variant(path, ContentInfo.ENCODING_GZIP), variant)) == null) {
+        compressLater(path, content, info);
       }
+      // otherwise the variant of this version is still kept, e.g. if only the plain content got evicted
+    }
 
-      load(file);
+    System.out.println("[" + identifier + "] added file [" + path + "] to cache " + store);
+    return new Content(info, content);
+  }
 
-      return FileVisitResult.CONTINUE;
+  /**
+   * Publishes the info of a file loaded and drops the content of the version it replaces.
+   */
+  private void replace(String path, ContentInfo info) {
+    ContentInfo previous = infos.put(path, info);
+    if (previous != null && !previous.getEtag().equals(info.getEtag())) {
+      store.remove(version(path, previous));
     }
+  }
+
+  /**
+   * @return the key the content of the given version of a file is stored under
+   */
+  private static String version(String path, ContentInfo info) {
+    return path + " " + info.getEtag();
+  }
 
+  /**
+   * @return the key the info of the given file is kept under, the same for every alias of its path
+   */
+  private static String key(Path path) {
+    return path.toAbsolutePath().normalize().toString().replaceAll(Pattern.quote("\\"), "/");
   }
 
-  public byte[] load(Path file) throws FileNotFoundException, IOException {
-    BufferedReader reader = null;
-    try {
-      reader = new BufferedReader(new FileReader(file.toFile()));
-      StringBuilder response = new StringBuilder();
-      String line = null;
-      while ((line = reader.readLine()) != null) {
-        response.append(line);
+  /**
+   * Reads the bytes of a file as they are into a direct buffer of exactly the size of the file. The
+   * content does not pass the heap, the channel transfers it right into the buffer the store keeps.
+   * 
+   * @return the buffer, from position 0 up to its capacity
+   */
+  public static ByteBuffer read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("[" + file + "] exceeds the " + Integer.MAX_VALUE + " bytes a buffer may hold");
       }
+      ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+      while (content.hasRemaining()) {
+        if (channel.read(content) < 0) {
+          break;
+        }
+      }
+      content.flip();
+      if (content.limit() < content.capacity()) {
+        // truncated while it was read
+        ByteBuffer exact = ByteBuffer.allocateDirect(content.limit());
+        exact.put(content);
+        exact.flip();
+        return exact;
+      }
+      return content;
+    }
+  }
 
-      byte[] b = response.toString().getBytes(Charset.forName("UTF-8"));
-      System.out.println("[" + identifier + "] finished loading file from URI [" + file + "]");
-      String path = file.toAbsolutePath().toString().replaceAll(Pattern.quote("\\"), "/");
-      Element cached = new Element(path, b);
-      Cache cache = cacheManager.getCache(identifier);
-      cache.put(cached);
+  private static ContentInfo info(ByteBuffer content, long lastModified) {
+    CRC32 crc = new CRC32();
+    crc.update(content.duplicate());
+    long length = content.remaining();
+    return new ContentInfo(length, lastModified, "\"" + Long.toHexString(length) + "-" + Long.toHexString(crc.getValue()) + "\"");
+  }
 
-      System.out.println("[" + identifier + "] added file [" + path + "] to cache");
-      return b;
-    } finally {
-      if (reader != null) {
-        reader.close();
+  /**
+   * Builds the gzip variant of a file and stores it next to the plain content. The variant is only
+   * kept if it saves at least a tenth of the bytes.
+   * 
+   * @return the compressed content or <code>null</code> if it is not kept
+   */
+  private Content compress(String path, ByteBuffer content, ContentInfo info) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.remaining() / 2);
+    GZIPOutputStream gzip = new GZIPOutputStream(out, 8 * 1024) {
+      {
+        // every file is compressed once only, so spend the CPU on the best ratio
+        def.setLevel(Deflater.BEST_COMPRESSION);
       }
+    };
+    ByteBuffer source = content.duplicate();
+    byte[] chunk = new byte[8 * 1024];
+    while (source.hasRemaining()) {
+      int count = Math.min(chunk.length, source.remaining());
+      source.get(chunk, 0, count);
+      gzip.write(chunk, 0, count);
+    }
+    gzip.close();
+
+    String variant = variant(path, ContentInfo.ENCODING_GZIP);
+    if (out.size() * 10L > info.getLength() * 9L) {
+      infos.put(variant, info);
+      return null;
+    }
+    ContentInfo compressed = new ContentInfo(out.size(), info.getLastModified(), compressedEtag(info), ContentInfo.ENCODING_GZIP);
+    ByteBuffer stored = store.put(version(variant, compressed), ByteBuffer.wrap(out.toByteArray()));
+    replace(variant, compressed);
+    System.out.println("[" + identifier + "] compressed file [" + path + "] from " + info.getLength() + " to " + out.size() + " bytes");
+    return new Content(compressed, stored);
+  }
+
+  /**
+   * Rebuilds an evicted gzip variant in the background, once however often it is asked for in the
+   * meantime. Compressing at the best ratio on every request would cost more than sending the plain
+   * content, which is served until the variant is back.
+   */
+  private void compressLater(final String path, final ByteBuffer content, final ContentInfo info) {
+    final String task = version(path, info);
+    if (!compressing.add(task)) {
+      return;
     }
+    compressor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ContentInfo current = infos.get(path);
+          if (current != null && current.getEtag().equals(info.getEtag())) {
+            // not if the file changed in the meantime, its new version has been compressed already
+            compress(path, content, info);
+          }
+        } catch (IOException | RuntimeException e) {
+          e.printStackTrace();
+        } finally {
+          compressing.remove(task);
+        }
+      }
+    });
+  }
+
+  /**
+   * @return <code>true</code> if the given info of a gzip variant belongs to the given version of the
+   *         plain file, including the marker that compressing it did not pay off
+   */
+  private static boolean isVariantOf(ContentInfo variant, ContentInfo plain) {
+    return variant.getEncoding() != null ? variant.getEtag().equals(compressedEtag(plain)) : variant.getEtag().equals(plain.getEtag());
   }
 
-  public byte[] get(String path) throws IOException {
+  /**
+   * @return the entity tag of the gzip variant of the given version of a file
+   */
+  private static String compressedEtag(ContentInfo plain) {
+    return plain.getEtag().substring(0, plain.getEtag().length() - 1) + "-" + ContentInfo.ENCODING_GZIP + "\"";
+  }
+
+  /**
+   * @return <code>true</code> if the type of the given file is text-like and compresses well
+   */
+  public static boolean isCompressible(String path) {
+    if (path == null) {
+      throw new NullPointerException("'path' must not be null");
+    }
+    String lower = path.toLowerCase();
+    for (String type : COMPRESSIBLE_TYPES) {
+      if (lower.endsWith(type)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String variant(String path, String encoding) {
+    return path + ";" + encoding;
+  }
+
+  /**
+   * @return length, modification time and entity tag of the given file; the content is only loaded
+   *         if the file has not been loaded before
+   */
+  public ContentInfo getInfo(String path) throws IOException {
+    ContentInfo info = infos.get(key(Paths.get(path)));
+    if (info == null) {
+      info = loadContent(Paths.get(path)).getInfo();
+    }
+    return info;
+  }
+
+  /**
+   * @return a read-only view on the content of the given file, the view is backed by memory outside
+   *         of the heap
+   */
+  public ByteBuffer get(String path) throws IOException {
+    return getContent(path).getBuffer();
+  }
+
+  /**
+   * @return the content of the given file along with the info of the very same version
+   */
+  public Content getContent(String path) throws IOException {
     //check if file is already in cache
-    path = path.replaceAll(Pattern.quote("\\"), "/");
+    String key = key(Paths.get(path));
 
-    Cache cache = cacheManager.getCache(identifier);
-    System.out.println("[" + identifier + "] lookup file [" + path + "] in cache");
-    Element element = cache.get(path);
-    if (element != null) {
-      System.out.println("[" + identifier + "] loaded file [" + path + "] from cache.");
-      return (byte[]) element.getObjectValue();
+    System.out.println("[" + identifier + "] lookup file [" + key + "] in cache");
+    ContentInfo info = infos.get(key);
+    ByteBuffer content = info != null ? store.get(version(key, info)) : null;
+    if (content != null) {
+      System.out.println("[" + identifier + "] loaded file [" + key + "] from cache.");
+      return new Content(info, content);
+    }
+    return loadContent(Paths.get(key));
+  }
+
+  /**
+   * Looks up the variant of a file in the given content coding.
+   * 
+   * @param encoding
+   *          the content coding the client accepts, <code>null</code> for the plain content
+   * @return the metadata of the variant, which is the plain one if the file has no such variant
+   */
+  public ContentInfo getInfo(String path, String encoding) throws IOException {
+    ContentInfo plain = getInfo(path);
+    if (!ContentInfo.ENCODING_GZIP.equals(encoding)) {
+      return plain;
+    }
+    ContentInfo info = infos.get(variant(key(Paths.get(path)), encoding));
+    return info != null && info.getEtag().equals(compressedEtag(plain)) ? info : plain;
+  }
+
+  /**
+   * @param encoding
+   *          the content coding the client accepts, <code>null</code> for the plain content
+   * @return a read-only view on the variant described by {@link #getInfo(String, String)}
+   */
+  public ByteBuffer get(String path, String encoding) throws IOException {
+    return getContent(path, encoding).getBuffer();
+  }
+
+  /**
+   * Looks up the variant of a file in the given content coding along with its info. Unlike separate
+   * calls of {@link #getInfo(String, String)} and {@link #get(String, String)}, the info always
+   * describes the content returned, even if the file is loaded again in between.
+   * 
+   * @param encoding
+   *          the content coding the client accepts, <code>null</code> for the plain content
+   * @return the variant, which is the plain one if the file has no such variant
+   */
+  public Content getContent(String path, String encoding) throws IOException {
+    Content plain = getContent(path);
+    if (!ContentInfo.ENCODING_GZIP.equals(encoding)) {
+      return plain;
+    }
+    String key = key(Paths.get(path));
+    String variant = variant(key, encoding);
+    ContentInfo info = infos.get(variant);
+    if (info == null || info.getEncoding() == null || !info.getEtag().equals(compressedEtag(plain.getInfo()))) {
+      // not worth compressing, or the variant of another version of the file
+      return plain;
+    }
+    ByteBuffer content = store.get(version(variant, info));
+    if (content != null) {
+      return new Content(info, content);
+    }
+    // evicted, which the store only does when it is under pressure
+    compressLater(key, plain.getBuffer(), plain.getInfo());
+    return plain;
+  }
+
+  /**
+   * Reads a range of the variant described by {@link #getInfo(String, String)}.
+   * 
+   * @return a read-only view on the given number of bytes from the offset on
+   */
+  public ByteBuffer get(String path, String encoding, long offset, long length) throws IOException {
+    return getContent(path, encoding, offset, length).getBuffer();
+  }
+
+  /**
+   * Reads a range of the variant described by {@link #getContent(String, String)}.
+   * 
+   * @return the given number of bytes from the offset on along with the info of the whole variant
+   */
+  public Content getContent(String path, String encoding, long offset, long length) throws IOException {
+    if (offset < 0) {
+      throw new IllegalArgumentException("'offset' must not be less than 0");
+    }
+    if (length < 0) {
+      throw new IllegalArgumentException("'length' must not be less than 0");
+    }
+    Content whole = getContent(path, encoding);
+    ByteBuffer content = whole.getBuffer();
+    if (offset + length > content.remaining()) {
+      throw new IllegalArgumentException("Range [" + offset + ", " + (offset + length) + ") exceeds the " + content.remaining() + " bytes of [" + path + "]");
     }
-    return load(Paths.get(path));
+    content.position((int) offset);
+    content.limit((int) (offset + length));
+    return new Content(whole.getInfo(), content.slice());
   }
 }
 
@@ -0,0 +1,139 @@
+
+package at.amarktl.cluster;
+
+/**
+ * Bounds the requests the master works on at once by a limit which follows their latency, in the
+ * manner of the gradient limiters derived from TCP Vegas: each latency is compared with a long term
+ * average of the latencies. As long as requests do not take longer than usual, the limit grows by
+ * the square root of itself; once they do because they queue up somewhere, it shrinks in proportion.
+ * A node refusing a request because its queue is full shrinks the limit as well. Requests beyond the
+ * limit are not admitted, so they can be answered right away instead of waiting in line. Calls to
+ * methods of AdaptiveConcurrencyLimit are thread safe.
+ */
+public final class AdaptiveConcurrencyLimit {
+
+  /** Weight of the limit computed from the latest latency. */
+  static final double SMOOTHING = 0.2;
+  /** Factor the latency may exceed its long term average by before the limit shrinks. */
+  static final double TOLERANCE = 1.5;
+  /** Number of latencies the long term average spans about. */
+  static final int LONG_TERM_WINDOW = 500;
+  /** Share of the limit kept if a node refused a request. */
+  static final double BACKOFF = 0.9;
+
+  private int minLimit;
+  private int maxLimit;
+  private double limit;
+  private int inFlight = 0;
+  /** Long term average of the latencies in nanoseconds, 0 as long as none completed. */
+  private double longTermLatency = 0;
+
+  /**
+   * @param minLimit
+   *          number of requests admitted at once at least, the limit starts there
+   * @param maxLimit
+   *          number of requests admitted at once at most
+   */
+  public AdaptiveConcurrencyLimit(int minLimit, int maxLimit) {
+    setLimits(minLimit, maxLimit);
+    this.limit = minLimit;
+  }
+
+  /**
+   * Changes the bounds of the limit, the limit reached so far is kept as far as it is within them.
+   */
+  public synchronized void setLimits(int minLimit, int maxLimit) {
+    if (minLimit <= 0) {
+      throw new IllegalArgumentException("'minLimit' must not be less or equal than 0");
+    }
+    if (maxLimit < minLimit) {
+      throw new IllegalArgumentException("'maxLimit' must not be less than 'minLimit'");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = bound(limit);
+  }
+
+  /**
+   * @return the number of requests admitted at once currently
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * @return the number of requests admitted which have not been released yet
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * Admits a request if less than the limit are in flight. Each request admitted has to be
+   * {@link #release(long) released} once it has been answered.
+   *
+   * @return <code>true</code> if the request has been admitted
+   */
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= (int) limit) {
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  /**
+   * Releases a request admitted before and adapts the limit to its latency.
+   *
+   * @param latency
+   *          nanoseconds from admitting the request until it has been answered
+   */
+  public synchronized void release(long latency) {
+    if (inFlight == 0) {
+      throw new IllegalStateException("No request in flight");
+    }
+    boolean limited = inFlight >= limit / 2;
+    inFlight--;
+    if (latency <= 0) {
+      return;
+    }
+    if (longTermLatency == 0) {
+      longTermLatency = latency;
+      return;
+    }
+    longTermLatency += (latency - longTermLatency) / LONG_TERM_WINDOW;
+    if (longTermLatency > 2 * latency) {
+      // the latency dropped for good, e.g. after an overload cleared, let the average follow faster
+      longTermLatency *= 0.95;
+    }
+    if (!limited) {
+      // far below the limit the latency tells nothing about it
+      return;
+    }
+    double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longTermLatency / latency));
+    double next = limit * gradient + Math.sqrt(limit);
+    limit = bound(limit * (1 - SMOOTHING) + next * SMOOTHING);
+  }
+
+  /**
+   * Shrinks the limit because a node refused a request admitted before. The request still has to be
+   * {@link #release(long) released}.
+   */
+  public synchronized void overloaded() {
+    limit = bound(limit * BACKOFF);
+  }
+
+  private double bound(double limit) {
+    return Math.max(minLimit, Math.min(maxLimit, limit));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized String toString() {
+    return String.format("[limit %d, %d in flight, %.2f ms]", (int) limit, inFlight, longTermLatency / 1000000);
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,333 @@
+
+package at.amarktl.cluster;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@link BalancingStrategy}s the master ships with. All of them decide without taking a lock.
+ */
+public final class BalancingStrategies {
+
+  public static final String ROUND_ROBIN = "round-robin";
+  public static final String LEAST_OUTSTANDING = "least-outstanding";
+  public static final String POWER_OF_TWO_CHOICES = "power-of-two-choices";
+  public static final String WEIGHTED_ROUND_ROBIN = "weighted-round-robin";
+  public static final String CONSISTENT_HASHING = "consistent-hashing";
+
+  private BalancingStrategies() {
+  }
+
+  /**
+   * @return a new instance of the strategy with the given name
+   */
+  public static BalancingStrategy forName(String name) {
+    if (name == null) {
+      throw new NullPointerException("'name' must not be null");
+    }
+    switch (name) {
+      case ROUND_ROBIN:
+        return new RoundRobin();
+      case LEAST_OUTSTANDING:
+        return new LeastOutstanding();
+      case POWER_OF_TWO_CHOICES:
+        return new PowerOfTwoChoices();
+      case WEIGHTED_ROUND_ROBIN:
+        return new WeightedRoundRobin();
+      case CONSISTENT_HASHING:
+        return new ConsistentHashing(ConsistentHashing.DEFAULT_VIRTUAL_NODES, ConsistentHashing.DEFAULT_LOAD_FACTOR);
+      default:
+        throw new IllegalArgumentException("Unknown balancing strategy [" + name + "]");
+    }
+  }
+
+  /**
+   * Routes every file to the same node, so each node only caches its share of the content instead of
+   * all of it.
+   * 
+   * @param virtualNodes
+   *          number of points each node gets on the hash ring, more points spread the files more evenly
+   * @param loadFactor
+   *          how far above its fair share of the calls in flight a node may get before requests for
+   *          its files go to the next node on the ring, must be greater than 1
+   * @see #CONSISTENT_HASHING
+   */
+  public static BalancingStrategy consistentHashing(int virtualNodes, double loadFactor) {
+    return new ConsistentHashing(virtualNodes, loadFactor);
+  }
+
+  /**
+   * Takes turns, regardless of load and capacity.
+   */
+  static final class RoundRobin implements BalancingStrategy {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** {@inheritDoc} */
+    @Override
+    public MeteredNodeClient select(MeteredNodeClient[] nodes, String uri) {
+      return nodes[Math.floorMod(next.getAndIncrement(), nodes.length)];
+    }
+  }
+
+  /**
+   * Picks the node with the fewest calls in flight relative to its capacity. The scan starts at a
+   * random node, so ties do not always favor the same one.
+   */
+  static final class LeastOutstanding implements BalancingStrategy {
+
+    /** {@inheritDoc} */
+    @Override
+    public MeteredNodeClient select(MeteredNodeClient[] nodes, String uri) {
+      int start = ThreadLocalRandom.current().nextInt(nodes.length);
+      MeteredNodeClient best = nodes[start];
+      for (int i = 1; i < nodes.length; i++) {
+        MeteredNodeClient node = nodes[(start + i) % nodes.length];
+        // a / capacity(a) < b / capacity(b) without dividing
+        if ((long) node.getOutstanding() * best.getCapacity() < (long) best.getOutstanding() * node.getCapacity()) {
+          best = node;
+        }
+      }
+      return best;
+    }
+  }
+
+  /**
+   * Compares two nodes chosen at random and takes the cheaper one, the cost being the latency average
+   * times the calls in flight. Unlike always taking the least loaded node, this does not send a burst
+   * of requests to the same node before its figures catch up.
+   */
+  static final class PowerOfTwoChoices implements BalancingStrategy {
+
+    /** {@inheritDoc} */
+    @Override
+    public MeteredNodeClient select(MeteredNodeClient[] nodes, String uri) {
+      if (nodes.length == 1) {
+        return nodes[0];
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int a = random.nextInt(nodes.length);
+      int b = random.nextInt(nodes.length - 1);
+      if (b >= a) {
+        b++;
+      }
+      return cost(nodes[a]) <= cost(nodes[b]) ? nodes[a] : nodes[b];
+    }
+
+    static double cost(MeteredNodeClient node) {
+      // nodes not measured yet are cheap, so they get measured
+      return (node.getLatency() + 1) * (node.getOutstanding() + 1);
+    }
+  }
+
+  /**
+   * Smooth weighted round robin by the capacity the nodes advertised: a node with twice the capacity
+   * gets twice the requests, interleaved with those of the others instead of in a row. The order is
+   * computed once per set of nodes, selecting is a lookup in it.
+   */
+  static final class WeightedRoundRobin implements BalancingStrategy {
+
+    /** Bounds the length of the schedule, weights are scaled down beyond it. */
+    static final int MAX_SCHEDULE_LENGTH = 1024;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile Schedule schedule;
+
+    /** {@inheritDoc} */
+    @Override
+    public MeteredNodeClient select(MeteredNodeClient[] nodes, String uri) {
+      Schedule current = schedule;
+      if (current == null || current.nodes != nodes) {
+        // racing threads compute the same schedule, whichever wins does not matter
+        current = new Schedule(nodes);
+        schedule = current;
+      }
+      return current.order[Math.floorMod(next.getAndIncrement(), current.order.length)];
+    }
+
+    private static final class Schedule {
+
+      final MeteredNodeClient[] nodes;
+      final MeteredNodeClient[] order;
+
+      Schedule(MeteredNodeClient[] nodes) {
+        this.nodes = nodes;
+
+        int[] weights = new int[nodes.length];
+        long total = 0;
+        for (int i = 0; i < nodes.length; i++) {
+          weights[i] = nodes[i].getCapacity();
+          total += weights[i];
+        }
+        int divisor = weights[0];
+        for (int weight : weights) {
+          divisor = gcd(divisor, weight);
+        }
+        int length = 0;
+        for (int i = 0; i < weights.length; i++) {
+          weights[i] /= divisor;
+          if (total / divisor > MAX_SCHEDULE_LENGTH) {
+            weights[i] = (int) Math.max(1, weights[i] * (long) MAX_SCHEDULE_LENGTH * divisor / total);
+          }
+          length += weights[i];
+        }
+
+        // the smooth variant as known from nginx: raise all by their weight, take the highest and
+        // lower it by the sum of all weights
+        order = new MeteredNodeClient[length];
+        int[] current = new int[weights.length];
+        for (int n = 0; n < length; n++) {
+          int best = 0;
+          for (int i = 0; i < weights.length; i++) {
+            current[i] += weights[i];
+            if (current[i] > current[best]) {
+              best = i;
+            }
+          }
+          current[best] -= length;
+          order[n] = nodes[best];
+        }
+      }
+
+      private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+      }
+    }
+  }
+
+  /**
+   * Consistent hashing with bounded loads. Every node is placed on a ring of 64 bit hashes at a number
+   * of points derived from its identifier, a file belongs to the first point at or after the hash of
+   * its uri. Nodes joining or leaving therefore only move the files next to their own points, about
+   * 1/N of all. A node whose calls in flight exceed the load factor times its share by capacity is
+   * passed over for the next one on the ring, so hot files do not overload their owner.
+   */
+  static final class ConsistentHashing implements BalancingStrategy {
+
+    static final int DEFAULT_VIRTUAL_NODES = 128;
+    static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+    private final int virtualNodes;
+    private final double loadFactor;
+    private volatile Ring ring;
+
+    ConsistentHashing(int virtualNodes, double loadFactor) {
+      if (virtualNodes <= 0) {
+        throw new IllegalArgumentException("'virtualNodes' must not be less or equal than 0");
+      }
+      if (loadFactor <= 1) {
+        throw new IllegalArgumentException("'loadFactor' must be greater than 1");
+      }
+      this.virtualNodes = virtualNodes;
+      this.loadFactor = loadFactor;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public MeteredNodeClient select(MeteredNodeClient[] nodes, String uri) {
+      Ring current = ring;
+      if (current == null || current.nodes != nodes) {
+        // racing threads compute the same ring, whichever wins does not matter
+        current = new Ring(nodes, virtualNodes);
+        ring = current;
+      }
+
+      long outstanding = 0;
+      for (MeteredNodeClient node : nodes) {
+        outstanding += node.getOutstanding();
+      }
+
+      int point = current.indexOf(hash(uri));
+      boolean[] passed = new boolean[nodes.length];
+      for (int i = 0, tried = 0; i < current.points.length && tried < nodes.length; i++) {
+        int owner = current.owners[(point + i) % current.points.length];
+        if (passed[owner]) {
+          continue;
+        }
+        MeteredNodeClient node = nodes[owner];
+        // the bounds add up to more than all calls in flight plus this one, so some node is below
+        double bound = Math.ceil(loadFactor * (outstanding + 1) * node.getCapacity() / current.capacity);
+        if (node.getOutstanding() < bound) {
+          return node;
+        }
+        passed[owner] = true;
+        tried++;
+      }
+      return nodes[current.owners[point]];
+    }
+
+    /**
+     * FNV-1a followed by the finalizer of MurmurHash3, String.hashCode alone clusters similar uris.
+     */
+    static long hash(String key) {
+      long h = 0xcbf29ce484222325L;
+      for (int i = 0; i < key.length(); i++) {
+        h ^= key.charAt(i);
+        h *= 0x100000001b3L;
+      }
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+    }
+
+    private static final class Ring {
+
+      final MeteredNodeClient[] nodes;
+      final long[] points;
+      /** Index into {@link #nodes} of the node at each point. */
+      final int[] owners;
+      final long capacity;
+
+      Ring(MeteredNodeClient[] nodes, int virtualNodes) {
+        this.nodes = nodes;
+
+        long[][] entries = new long[nodes.length * virtualNodes][];
+        long capacity = 0;
+        for (int n = 0; n < nodes.length; n++) {
+          // placed by identifier, so a node keeps its points when others come and go
+          String identifier = nodes[n].getDescriptor().getIdentifier();
+          for (int v = 0; v < virtualNodes; v++) {
+            entries[n * virtualNodes + v] = new long[] { hash(identifier + "#" + v), n };
+          }
+          capacity += nodes[n].getCapacity();
+        }
+        Arrays.sort(entries, new Comparator<long[]>() {
+          @Override
+          public int compare(long[] a, long[] b) {
+            int order = Long.compare(a[0], b[0]);
+            // equal hashes are unlikely but must not depend on the order the nodes registered in
+            return order != 0 ? order : nodes[(int) a[1]].getDescriptor().getIdentifier().compareTo(nodes[(int) b[1]].getDescriptor().getIdentifier());
+          }
+        });
+
+        this.points = new long[entries.length];
+        this.owners = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+          points[i] = entries[i][0];
+          owners[i] = (int) entries[i][1];
+        }
+        this.capacity = capacity;
+      }
+
+      /**
+       * @return the index of the first point at or after the given hash, wrapping around
+       */
+      int indexOf(long hash) {
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+          index = -index - 1;
+        }
+        return index == points.length ? 0 : index;
+      }
+    }
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,26 @@
+
+package at.amarktl.cluster;
+
+/**
+ * Picks the node a request is sent to. Implementations are called concurrently by all selector
+ * threads and must not block; they get an immutable snapshot of the nodes and decide by the load
+ * figures of {@link MeteredNodeClient}.
+ *
+ * @see BalancingStrategies
+ */
+public interface BalancingStrategy {
+
+  /**
+   * @param nodes
+   *          the connected nodes, never empty; the same array is passed until the set of nodes
+   *          changes, so implementations may derive state from it
+   * @param uri
+   *          the file requested, strategies which do not route by content ignore it
+   */
+  MeteredNodeClient select(MeteredNodeClient[] nodes, String uri);
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,201 @@
+
+package at.amarktl.cluster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import at.amarktl.cluster.transport.NodeClient;
+
+/**
+ * Keeps track of which registered nodes are alive. The master sends every node a heartbeat in a
+ * fixed interval; a node whose heartbeats are overdue by the {@link PhiAccrualFailureDetector}, or
+ * which could not be reached by a request, is taken out of rotation. Evicted nodes keep getting
+ * heartbeats and are put back into rotation as soon as one is answered.
+ */
+class ClusterMembership {
+
+  static final long DEFAULT_HEARTBEAT_INTERVAL = 1000;
+  static final double DEFAULT_PHI_THRESHOLD = 8;
+  /** The variation of the heartbeat intervals assumed at least. */
+  private static final long MIN_STD_DEVIATION = 100;
+
+  private final ClusterNodeList nodes;
+  private final Map<NodeDescriptor, Member> members = new ConcurrentHashMap<NodeDescriptor, Member>();
+  private long heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
+  private double phiThreshold = DEFAULT_PHI_THRESHOLD;
+  private ScheduledExecutorService heartbeats;
+
+  public ClusterMembership(ClusterNodeList nodes) {
+    if (nodes == null) {
+      throw new NullPointerException("'nodes' must not be null");
+    }
+    this.nodes = nodes;
+  }
+
+  /**
+   * Must be called before {@link #start()}.
+   *
+   * @param heartbeatInterval
+   *          milliseconds between two heartbeats to each node
+   * @param phiThreshold
+   *          suspicion level a node is evicted at, 8 means a chance of 1e-8 that it is alive after all
+   */
+  public void setFailureDetection(long heartbeatInterval, double phiThreshold) {
+    if (heartbeatInterval <= 0) {
+      throw new IllegalArgumentException("'heartbeatInterval' must not be less or equal than 0");
+    }
+    if (phiThreshold <= 0) {
+      throw new IllegalArgumentException("'phiThreshold' must not be less or equal than 0");
+    }
+    this.heartbeatInterval = heartbeatInterval;
+    this.phiThreshold = phiThreshold;
+  }
+
+  public synchronized void start() {
+    if (heartbeats != null) {
+      throw new IllegalStateException("Cluster membership already started");
+    }
+    heartbeats = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "cluster-heartbeats");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    heartbeats.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          heartbeat();
+        } catch (RuntimeException e) {
+          // must not end the schedule
+          e.printStackTrace();
+        }
+      }
+    }, heartbeatInterval, heartbeatInterval, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void shutdown() {
+    if (heartbeats != null) {
+      heartbeats.shutdownNow();
+      heartbeats = null;
+    }
+  }
+
+  /**
+   * Admits a node which registered, replacing an earlier registration of the same node.
+   */
+  public synchronized void join(NodeClient client) {
+    if (client == null) {
+      throw new NullPointerException("'client' must not be null");
+    }
+    Member member = new Member(nodes.add(client));
+    member.detector.heartbeat(System.currentTimeMillis());
+    Member previous = members.put(client.getDescriptor(), member);
+    if (previous != null && !previous.alive) {
+      // the list only closes nodes in rotation
+      previous.client.close();
+    }
+  }
+
+  /**
+   * Evicts the given node right away, e.g. because it could not be reached by a request. It is
+   * admitted again once it answers a heartbeat.
+   */
+  public void suspect(NodeClient client) {
+    Member member = members.get(client.getDescriptor());
+    // not if the node registered again since the request was sent
+    if (member != null && member.client == client) {
+      evict(member, "unreachable");
+    }
+  }
+
+  private void heartbeat() {
+    long now = System.currentTimeMillis();
+    for (final Member member : members.values()) {
+      if (member.alive) {
+        double phi = member.detector.phi(now);
+        if (phi > phiThreshold) {
+          evict(member, String.format("phi %.1f", phi));
+        }
+      }
+      // a node which does not answer is not asked again until it did
+      if (!member.pinging.compareAndSet(false, true)) {
+        continue;
+      }
+      try {
+        member.client.ping().whenComplete(new BiConsumer<Void, Throwable>() {
+          @Override
+          public void accept(Void result, Throwable error) {
+            member.pinging.set(false);
+            if (error == null) {
+              alive(member);
+            }
+          }
+        });
+      } catch (RuntimeException e) {
+        member.pinging.set(false);
+        throw e;
+      }
+    }
+  }
+
+  private void alive(Member member) {
+    long now = System.currentTimeMillis();
+    // membership changes are rare, one lock keeps a late answer from undoing a new registration
+    synchronized (this) {
+      if (members.get(member.client.getDescriptor()) != member) {
+        // registered again in the meantime
+        return;
+      }
+      if (!member.alive) {
+        // the outage says nothing about the intervals to expect from now on
+        member.detector = detector();
+        nodes.add(member.client);
+        member.alive = true;
+        System.out.println("Readmitted Cluster Node [" + member.client.getDescriptor() + "]");
+      }
+      member.detector.heartbeat(now);
+    }
+  }
+
+  private void evict(Member member, String reason) {
+    synchronized (this) {
+      if (!member.alive) {
+        return;
+      }
+      member.alive = false;
+      nodes.remove(member.client);
+    }
+    System.out.println("Evicted Cluster Node [" + member.client.getDescriptor() + "]: " + reason);
+  }
+
+  private PhiAccrualFailureDetector detector() {
+    // a single late heartbeat must not evict a node
+    return new PhiAccrualFailureDetector(heartbeatInterval, MIN_STD_DEVIATION, heartbeatInterval);
+  }
+
+  private class Member {
+
+    final MeteredNodeClient client;
+    final AtomicBoolean pinging = new AtomicBoolean();
+    volatile PhiAccrualFailureDetector detector = detector();
+    volatile boolean alive = true;
+
+    Member(MeteredNodeClient client) {
+      this.client = client;
+    }
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
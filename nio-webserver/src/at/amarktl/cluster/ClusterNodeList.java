@@ -2,39 +2,113 @@
 package at.amarktl.cluster;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import at.amarktl.cluster.transport.NodeClient;
+
+/**
+ * The nodes connected to the master. Every change publishes a new immutable snapshot, so selecting
+ * a node for a request neither locks nor sees a list in the middle of a change.
+ */
 class ClusterNodeList {
 
-  private List<IClusterNode> nodes = new ArrayList<IClusterNode>();
-  private int idx = 0;
+  private static final MeteredNodeClient[] NONE = new MeteredNodeClient[0];
+
+  private volatile MeteredNodeClient[] nodes = NONE;
+  private volatile BalancingStrategy strategy = BalancingStrategies.forName(BalancingStrategies.LEAST_OUTSTANDING);
+
+  public void setStrategy(BalancingStrategy strategy) {
+    if (strategy == null) {
+      throw new NullPointerException("'strategy' must not be null");
+    }
+    this.strategy = strategy;
+  }
+
+  public BalancingStrategy getStrategy() {
+    return strategy;
+  }
 
-  public synchronized void add(IClusterNode node) {
+  /**
+   * Puts the given node into rotation, replacing any node with the same descriptor.
+   *
+   * @return the node as it is put into rotation
+   */
+  public synchronized MeteredNodeClient add(NodeClient node) {
     if (node == null) {
       throw new NullPointerException("'node' must not be null");
     }
+    MeteredNodeClient metered = node instanceof MeteredNodeClient ? (MeteredNodeClient) node : new MeteredNodeClient(node);
 
     //remove any old reference first
-    nodes.remove(node);
+    List<MeteredNodeClient> changed = new ArrayList<MeteredNodeClient>(Arrays.asList(nodes));
+    for (int i = changed.size() - 1; i >= 0; i--) {
+      MeteredNodeClient old = changed.get(i);
+      if (old.getDescriptor().equals(node.getDescriptor())) {
+        changed.remove(i);
+        if (old != metered) {
+          old.close();
+        }
+      }
+    }
+
+    changed.add(metered);
+    nodes = changed.toArray(new MeteredNodeClient[changed.size()]);
+    return metered;
+  }
 
-    nodes.add(node);
+  /**
+   * Takes the given node out of rotation without closing it, so it may be added again.
+   *
+   * @return <code>false</code> if the node was not in rotation
+   */
+  public synchronized boolean remove(MeteredNodeClient node) {
+    List<MeteredNodeClient> changed = new ArrayList<MeteredNodeClient>(Arrays.asList(nodes));
+    if (!changed.remove(node)) {
+      return false;
+    }
+    nodes = changed.toArray(new MeteredNodeClient[changed.size()]);
+    return true;
+  }
+
+  /**
+   * @param uri
+   *          the file requested
+   * @return the node to send the request to, <code>null</code> if no node is connected
+   */
+  public MeteredNodeClient next(String uri) {
+    MeteredNodeClient[] snapshot = nodes;
+    if (snapshot.length == 0) {
+      return null;
+    }
+    return strategy.select(snapshot, uri);
   }
 
-  public synchronized IClusterNode next() {
-    idx++;
-    if (idx == nodes.size()) {
-      idx = 0;
+  /**
+   * @param node
+   *          the node to find an alternative to
+   * @return the least loaded other node which has spare capacity, <code>null</code> if there is none
+   */
+  public MeteredNodeClient alternative(NodeClient node) {
+    MeteredNodeClient best = null;
+    double bestLoad = 1;
+    for (MeteredNodeClient candidate : nodes) {
+      double load = (double) candidate.getOutstanding() / Math.max(1, candidate.getCapacity());
+      if (candidate != node && load < bestLoad) {
+        best = candidate;
+        bestLoad = load;
+      }
     }
-    return nodes.get(idx);
+    return best;
   }
 
-  public synchronized boolean isEmpty() {
-    return nodes.isEmpty();
+  public boolean isEmpty() {
+    return nodes.length == 0;
   }
 
-  public synchronized List<IClusterNode> getClusterNodes() {
-    return Collections.unmodifiableList(nodes);
+  public List<NodeClient> getClusterNodes() {
+    return Collections.<NodeClient> unmodifiableList(Arrays.asList(nodes));
   }
 
 }
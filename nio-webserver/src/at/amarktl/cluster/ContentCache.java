@@ -0,0 +1,445 @@
+
+package at.amarktl.cluster;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import at.amarktl.bootstrap.ContentInfo;
+
+/**
+ * Keeps the content of frequently requested files on the master, so hits need neither a worker
+ * thread nor a round trip to a cluster node. The cache is bounded by bytes and follows the TinyLFU
+ * idea: the access frequency of every requested key, cached or not, is estimated by a count-min
+ * sketch which ages by halving its counters periodically. A new entry is only admitted if it is
+ * requested more often than the entries it would displace, so a scan over rarely used files cannot
+ * flush the hot ones. As in W-TinyLFU, the entries to displace are the least frequently used of a
+ * small random sample, so making room costs the same however many entries are cached. Entries
+ * expire after a time to live and can be invalidated explicitly; content of a key fetched before the
+ * key has been invalidated is not admitted, as it may be the outdated one. Lookups are lock free,
+ * calls to methods of ContentCache are thread safe.
+ */
+public class ContentCache {
+
+  /** Entries larger than this fraction of the budget are not cached. */
+  static final int MAX_ENTRY_FRACTION = 16;
+  /** Number of entries sampled to find the least frequently used one. */
+  static final int SAMPLE_SIZE = 5;
+  /** Number of invalidation counters, keys sharing one are invalidated together. */
+  private static final int INVALIDATION_STRIPES = 1024;
+
+  /** Written while holding the lock on this. */
+  private volatile long maxBytes;
+  /** Written while holding the lock on this. */
+  private volatile long timeToLive;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  /** The entries again, to sample eviction victims from; guarded by this. */
+  private final List<Entry> sample = new ArrayList<Entry>();
+  private final FrequencySketch sketch;
+  private long usedBytes = 0;
+  /** Counts the invalidations of the keys per stripe, guarded by this. */
+  private final long[] generations = new long[INVALIDATION_STRIPES];
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder rejections = new LongAdder();
+
+  /**
+   * @param timeToLive
+   *          milliseconds an entry is served before it has to be fetched again
+   */
+  public ContentCache(long maxBytes, long timeToLive) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("'maxBytes' must not be less or equal than 0");
+    }
+    if (timeToLive <= 0) {
+      throw new IllegalArgumentException("'timeToLive' must not be less or equal than 0");
+    }
+    this.maxBytes = maxBytes;
+    this.timeToLive = timeToLive;
+    // roughly one counter per 4 KB of budget
+    this.sketch = new FrequencySketch((int) Math.max(1024, Math.min(1 << 20, maxBytes / 4096)));
+  }
+
+  /**
+   * Looks up the content cached for the given key and records the access.
+   *
+   * @return the cached content along with its metadata or <code>null</code> on a miss
+   */
+  public Entry get(String key) {
+    if (key == null) {
+      throw new NullPointerException("'key' must not be null");
+    }
+    sketch.increment(key);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    if (System.currentTimeMillis() > entry.expires) {
+      remove(key, entry);
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry;
+  }
+
+  /**
+   * Offers the given content for the key. It is copied into a direct buffer if it is admitted.
+   *
+   * @return <code>true</code> if the content has been cached
+   */
+  public boolean put(String key, ByteBuffer content, ContentInfo info) {
+    return put(key, content, info, getGeneration(key));
+  }
+
+  /**
+   * @return the generation to pass to {@link #put(String, ByteBuffer, ContentInfo, long)} along with
+   *         content of the given key fetched from now on
+   */
+  public synchronized long getGeneration(String key) {
+    if (key == null) {
+      throw new NullPointerException("'key' must not be null");
+    }
+    return generations[stripe(key)];
+  }
+
+  private static int stripe(String key) {
+    int h = key.hashCode() * 0x9e3779b9;
+    return (h ^ h >>> 16) & (INVALIDATION_STRIPES - 1);
+  }
+
+  /**
+   * Offers the given content for the key unless the key has been invalidated since the content was
+   * fetched. It is copied into a direct buffer if it is admitted.
+   *
+   * @param generation
+   *          the {@link #getGeneration(String) generation} of the key when the content was fetched
+   * @return <code>true</code> if the content has been cached
+   */
+  public boolean put(String key, ByteBuffer content, ContentInfo info, long generation) {
+    if (key == null) {
+      throw new NullPointerException("'key' must not be null");
+    }
+    if (content == null) {
+      throw new NullPointerException("'content' must not be null");
+    }
+    if (info == null) {
+      throw new NullPointerException("'info' must not be null");
+    }
+    int size = content.remaining();
+    if (size > maxBytes / MAX_ENTRY_FRACTION) {
+      rejections.increment();
+      return false;
+    }
+
+    synchronized (this) {
+      if (generation != generations[stripe(key)]) {
+        rejections.increment();
+        return false;
+      }
+      Entry old = entries.get(key);
+      if (old != null) {
+        unlink(old);
+      }
+      if (usedBytes + size > maxBytes && !evictFor(key, size)) {
+        rejections.increment();
+        return false;
+      }
+
+      ByteBuffer stored = ByteBuffer.allocateDirect(size);
+      stored.put(content.duplicate());
+      stored.flip();
+      link(new Entry(key, stored.asReadOnlyBuffer(), info, System.currentTimeMillis() + timeToLive));
+    }
+    return true;
+  }
+
+  /**
+   * Adds an entry to the map and the sample, while holding the lock on this.
+   */
+  private void link(Entry entry) {
+    entry.index = sample.size();
+    sample.add(entry);
+    entries.put(entry.key, entry);
+    usedBytes += entry.size();
+  }
+
+  /**
+   * Removes an entry from the map and the sample, while holding the lock on this. The last entry of
+   * the sample takes its place, so removing never shifts the others.
+   */
+  private void unlink(Entry entry) {
+    entries.remove(entry.key, entry);
+    Entry last = sample.remove(sample.size() - 1);
+    if (last != entry) {
+      last.index = entry.index;
+      sample.set(entry.index, last);
+    }
+    usedBytes -= entry.size();
+  }
+
+  /**
+   * Changes the budget and the time to live of the cache. If the budget shrinks, sampled victims are
+   * evicted right away until the entries fit; entries cached before keep their time to live.
+   * The frequency sketch keeps the size it got for the initial budget.
+   */
+  public synchronized void resize(long maxBytes, long timeToLive) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("'maxBytes' must not be less or equal than 0");
+    }
+    if (timeToLive <= 0) {
+      throw new IllegalArgumentException("'timeToLive' must not be less or equal than 0");
+    }
+    this.maxBytes = maxBytes;
+    this.timeToLive = timeToLive;
+    Set<Entry> none = new HashSet<Entry>();
+    while (usedBytes > maxBytes) {
+      unlink(sampleVictim(none));
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Picks the least frequently used of {@link #SAMPLE_SIZE} entries drawn at random, of all entries
+   * if there are not more left.
+   *
+   * @param excluded
+   *          entries not to pick, e.g. those picked before
+   * @return the victim or <code>null</code> if there is no other entry
+   */
+  private Entry sampleVictim(Set<Entry> excluded) {
+    int count = sample.size();
+    if (excluded.size() >= count) {
+      return null;
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    boolean all = count - excluded.size() <= SAMPLE_SIZE;
+    Entry victim = null;
+    int victimFrequency = Integer.MAX_VALUE;
+    int sampled = 0;
+    for (int i = 0; all ? i < count : sampled < SAMPLE_SIZE; i++) {
+      Entry entry = sample.get(all ? i : random.nextInt(count));
+      if (excluded.contains(entry)) {
+        continue;
+      }
+      sampled++;
+      int frequency = sketch.frequency(entry.key);
+      if (frequency < victimFrequency) {
+        victim = entry;
+        victimFrequency = frequency;
+      }
+    }
+    return victim;
+  }
+
+  /**
+   * Makes room for a candidate by evicting sampled victims, unless one of them is used more
+   * frequently than the candidate itself. Nothing is evicted then.
+   */
+  private boolean evictFor(String candidate, int size) {
+    int candidateFrequency = sketch.frequency(candidate);
+    long needed = usedBytes + size - maxBytes;
+    Set<Entry> victims = new HashSet<Entry>();
+    while (needed > 0) {
+      Entry victim = sampleVictim(victims);
+      if (victim == null || sketch.frequency(victim.key) > candidateFrequency) {
+        return false;
+      }
+      victims.add(victim);
+      needed -= victim.size();
+    }
+
+    for (Entry victim : victims) {
+      unlink(victim);
+      evictions.increment();
+    }
+    return true;
+  }
+
+  public boolean invalidate(String key) {
+    if (key == null) {
+      throw new NullPointerException("'key' must not be null");
+    }
+    synchronized (this) {
+      generations[stripe(key)]++;
+      Entry old = entries.get(key);
+      if (old == null) {
+        return false;
+      }
+      unlink(old);
+      return true;
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    for (int i = 0; i < generations.length; i++) {
+      generations[i]++;
+    }
+    entries.clear();
+    sample.clear();
+    usedBytes = 0;
+  }
+
+  private synchronized void remove(String key, Entry entry) {
+    if (entries.get(key) == entry) {
+      unlink(entry);
+    }
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized long getUsedBytes() {
+    return usedBytes;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return the share of lookups served from the cache, 0 if there have not been any yet
+   */
+  public double getHitRatio() {
+    long h = hits.sum();
+    long total = h + misses.sum();
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * @return the number of entries which have not been admitted
+   */
+  public long getRejections() {
+    return rejections.sum();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return String.format("[%d entries, %d/%d bytes, hit ratio %.3f, %d evictions, %d rejections]", size(), getUsedBytes(), maxBytes, getHitRatio(),
+      getEvictions(), getRejections());
+  }
+
+  public static final class Entry {
+
+    private final String key;
+    private final ByteBuffer content;
+    private final ContentInfo info;
+    private final long expires;
+    /** Position in the sample, guarded by the cache. */
+    private int index;
+
+    Entry(String key, ByteBuffer content, ContentInfo info, long expires) {
+      this.key = key;
+      this.content = content;
+      this.info = info;
+      this.expires = expires;
+    }
+
+    /**
+     * @return a read-only view on the content
+     */
+    public ByteBuffer getContent() {
+      return content.duplicate();
+    }
+
+    public ContentInfo getInfo() {
+      return info;
+    }
+
+    int size() {
+      return content.capacity();
+    }
+  }
+
+  /**
+   * Count-min sketch with four rows of counters saturating at 15. Once as many increments as ten
+   * times the width have been recorded, all counters are halved, so the estimates follow changes in
+   * popularity. Concurrent increments may get lost, which only makes the estimate a bit less exact.
+   */
+  static final class FrequencySketch {
+
+    private static final int[] SEEDS = { 0x97cb3127, 0xb4b82e11, 0x9e3779b9, 0x7f4a7c15 };
+    private static final int MAX_COUNT = 15;
+
+    private final int[][] rows = new int[SEEDS.length][];
+    private final int mask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    FrequencySketch(int width) {
+      int size = Integer.highestOneBit(width - 1) << 1;
+      for (int i = 0; i < rows.length; i++) {
+        rows[i] = new int[size];
+      }
+      this.mask = size - 1;
+      this.sampleSize = 10 * size;
+    }
+
+    int frequency(String key) {
+      int hash = key.hashCode();
+      int frequency = MAX_COUNT;
+      for (int i = 0; i < rows.length; i++) {
+        frequency = Math.min(frequency, rows[i][index(hash, i)]);
+      }
+      return frequency;
+    }
+
+    void increment(String key) {
+      int hash = key.hashCode();
+      for (int i = 0; i < rows.length; i++) {
+        int index = index(hash, i);
+        if (rows[i][index] < MAX_COUNT) {
+          rows[i][index]++;
+        }
+      }
+      if (additions.incrementAndGet() >= sampleSize) {
+        age();
+      }
+    }
+
+    private synchronized void age() {
+      if (additions.get() < sampleSize) {
+        return;
+      }
+      for (int[] row : rows) {
+        for (int i = 0; i < row.length; i++) {
+          row[i] >>>= 1;
+        }
+      }
+      additions.set(0);
+    }
+
+    private int index(int hash, int row) {
+      int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+      h ^= h >>> 16;
+      return h & mask;
+    }
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
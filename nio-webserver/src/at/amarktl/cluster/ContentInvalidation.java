@@ -0,0 +1,67 @@
+
+package at.amarktl.cluster;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tells the master which files changed on a cluster node, so it drops what it cached of them. The
+ * events of a node are numbered: the first one after the node registered has version 1, and a gap
+ * tells the master that it missed an event. ContentInvalidation is immutable and may be freely
+ * exchanged between Threads.
+ */
+public final class ContentInvalidation implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String node;
+  private final long version;
+  private final List<String> uris;
+
+  /**
+   * @param node
+   *          the identifier of the node the files changed on
+   * @param version
+   *          the number of this event among those the node sent since it registered, starting at 1
+   * @param uris
+   *          the URIs of the files relative to the web home, e.g. <code>/html/index.html</code>
+   */
+  public ContentInvalidation(String node, long version, List<String> uris) {
+    if (node == null) {
+      throw new NullPointerException("'node' must not be null");
+    }
+    if (version <= 0) {
+      throw new IllegalArgumentException("'version' must not be less or equal than 0");
+    }
+    if (uris == null) {
+      throw new NullPointerException("'uris' must not be null");
+    }
+    this.node = node;
+    this.version = version;
+    this.uris = Collections.unmodifiableList(new ArrayList<String>(uris));
+  }
+
+  public String getNode() {
+    return node;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public List<String> getUris() {
+    return uris;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "#" + version + " of [" + node + "] " + uris;
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
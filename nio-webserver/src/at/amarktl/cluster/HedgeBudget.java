@@ -0,0 +1,75 @@
+
+package at.amarktl.cluster;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the duplicate requests sent to hide a slow node to a share of the requests. Every request
+ * earns that share of a token, every duplicate spends a whole one; the tokens saved up are capped,
+ * so a burst of duplicates is bounded as well. Once the cluster as a whole gets slow, e.g. because
+ * it is overloaded, duplicates thus stop instead of adding to the load. Calls to methods of
+ * HedgeBudget are thread safe.
+ */
+public final class HedgeBudget {
+
+  /** Tokens are counted in thousandths. */
+  private static final long TOKEN = 1000;
+
+  private final long deposit;
+  private final long capacity;
+  private final AtomicLong balance = new AtomicLong();
+
+  /**
+   * @param ratio
+   *          duplicates allowed per request, e.g. 0.05 for at most 5% more requests
+   * @param burst
+   *          number of duplicates which may be sent in a row at most
+   */
+  public HedgeBudget(double ratio, int burst) {
+    if (ratio <= 0 || ratio > 1) {
+      throw new IllegalArgumentException("'ratio' must be greater than 0 and not greater than 1");
+    }
+    if (burst <= 0) {
+      throw new IllegalArgumentException("'burst' must not be less or equal than 0");
+    }
+    this.deposit = Math.max(1, Math.round(ratio * TOKEN));
+    this.capacity = burst * TOKEN;
+  }
+
+  /**
+   * Records a request, earning the share of a duplicate.
+   */
+  public void request() {
+    long current;
+    do {
+      current = balance.get();
+      if (current >= capacity) {
+        return;
+      }
+    } while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+  }
+
+  /**
+   * @return <code>true</code> if a duplicate may be sent, it is then accounted for
+   */
+  public boolean tryAcquire() {
+    long current;
+    do {
+      current = balance.get();
+      if (current < TOKEN) {
+        return false;
+      }
+    } while (!balance.compareAndSet(current, current - TOKEN));
+    return true;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return String.format("%.2f of %d duplicates available", (double) balance.get() / TOKEN, capacity / TOKEN);
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -4,6 +4,8 @@ package at.amarktl.cluster;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
+import at.amarktl.bootstrap.ContentInfo;
+
 /**
  * Copyright 2013 SSI Schaefer PEEM GmbH. All Rights reserved. <br />
  * <br />
@@ -23,6 +25,51 @@ public interface IClusterNode extends Remote {
 
   byte[] loadFile(String uri) throws RemoteException;
 
+  /**
+   * @param encoding
+   *          the content coding the client accepts, <code>null</code> for the plain content
+   * @return length, modification time and entity tag of the variant of the given file the node
+   *         would serve, without its content
+   */
+  ContentInfo getContentInfo(String uri, String encoding) throws RemoteException;
+
+  /**
+   * Opens the given file for a chunked transfer, so neither side has to hold the whole file at
+   * once. Unless the returned handle is complete, the remaining chunks are fetched with
+   * {@link #readChunk(long)} and the stream has to be released with {@link #closeStream(long)}.
+   * 
+   * @param encoding
+   *          the content coding the client accepts, <code>null</code> for the plain content; the
+   *          info of the handle tells which variant is sent
+   * @param chunkSize
+   *          the preferred chunk size in bytes, the node may grant a different one
+   */
+  StreamHandle openStream(String uri, String encoding, int chunkSize) throws RemoteException;
+
+  /**
+   * Opens a range of the given file for a chunked transfer, like
+   * {@link #openStream(String, String, int)}. Only the bytes of the range are transferred, the
+   * length of the handle is the one of the range while its info describes the whole file.
+   * 
+   * @param offset
+   *          position of the first byte of the range in the variant
+   * @param length
+   *          number of bytes of the range
+   */
+  StreamHandle openRange(String uri, String encoding, long offset, long length, int chunkSize) throws RemoteException;
+
+  /**
+   * @return the next chunk of the stream, an empty array once the end has been reached
+   */
+  byte[] readChunk(long streamId) throws RemoteException;
+
+  void closeStream(long streamId) throws RemoteException;
+
+  /**
+   * Does nothing but answer, the master sends it as heartbeat to tell whether the node is alive.
+   */
+  void ping() throws RemoteException;
+
   void connect(String server, int serverport) throws RemoteException;
 
 }
@@ -6,8 +6,22 @@ import java.rmi.RemoteException;
 
 public interface IServer extends Remote {
 
+  /**
+   * Registers a node reachable by RMI at the given registry.
+   */
   boolean register(String host, int port) throws RemoteException;
 
+  /**
+   * Registers a node which the master talks to by the transport named in the descriptor, or by RMI
+   * if that transport is not available.
+   */
+  boolean register(NodeDescriptor node) throws RemoteException;
+
+  /**
+   * Tells the master that files changed on a registered node, which has already caught up with them.
+   */
+  void invalidate(ContentInvalidation invalidation) throws RemoteException;
+
 }
 
 //---------------------------- Revision History ----------------------------
@@ -0,0 +1,70 @@
+
+package at.amarktl.cluster;
+
+import java.util.Arrays;
+
+/**
+ * The latencies of the latest calls to a node, to tell e.g. how long nineteen out of twenty calls
+ * take at most. Unlike a moving average this shows the tail a slow node produces. Percentiles are
+ * computed from a sorted copy of the window, which is only sorted again once a sixteenth of it has
+ * been replaced. Calls to methods of LatencyWindow are thread safe.
+ */
+public final class LatencyWindow {
+
+  /** Number of samples a percentile is computed from at least. */
+  public static final int MIN_SAMPLES = 20;
+
+  private final long[] samples;
+  private final long[] sorted;
+  private int count;
+  private int next;
+  /** Number of samples recorded since the window has been sorted. */
+  private int unsorted;
+
+  /**
+   * @param size
+   *          number of latest samples kept
+   */
+  public LatencyWindow(int size) {
+    if (size < MIN_SAMPLES) {
+      throw new IllegalArgumentException("'size' must not be less than " + MIN_SAMPLES);
+    }
+    this.samples = new long[size];
+    this.sorted = new long[size];
+  }
+
+  public synchronized void record(long nanos) {
+    samples[next] = nanos;
+    next = (next + 1) % samples.length;
+    if (count < samples.length) {
+      count++;
+    }
+    unsorted++;
+  }
+
+  /**
+   * @param percentile
+   *          e.g. 95 for the latency 95% of the calls did not exceed
+   * @return the latency in nanoseconds, -1 as long as less than {@link #MIN_SAMPLES} have been
+   *         recorded
+   */
+  public synchronized long percentile(double percentile) {
+    if (percentile <= 0 || percentile > 100) {
+      throw new IllegalArgumentException("'percentile' must be greater than 0 and not greater than 100");
+    }
+    if (count < MIN_SAMPLES) {
+      return -1;
+    }
+    if (unsorted > 0 && (unsorted >= samples.length / 16 || count < samples.length)) {
+      System.arraycopy(samples, 0, sorted, 0, count);
+      Arrays.sort(sorted, 0, count);
+      unsorted = 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100 * count) - 1;
+    return sorted[Math.max(0, rank)];
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
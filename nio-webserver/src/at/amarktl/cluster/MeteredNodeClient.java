@@ -0,0 +1,197 @@
+
+package at.amarktl.cluster;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.transport.NodeClient;
+
+/**
+ * Wraps the client of a node and measures the load the master puts on it: the number of calls in
+ * flight and an exponentially weighted moving average of their latency. {@link BalancingStrategy}s
+ * decide by these figures. The latencies of the calls which open a file are kept as well, their
+ * percentiles tell when a call takes unusually long. Calls to methods of MeteredNodeClient are
+ * thread safe.
+ */
+public final class MeteredNodeClient implements NodeClient {
+
+  /** Weight of the latest sample in the moving average. */
+  static final double LATENCY_DECAY = 0.2;
+  /** Number of calls opening a file the percentiles are computed from. */
+  static final int LATENCY_WINDOW_SIZE = 256;
+
+  private final NodeClient client;
+  private final AtomicInteger outstanding = new AtomicInteger();
+  /** Updated without synchronization, a lost sample only makes the average a bit less exact. */
+  private volatile double latency = 0;
+  private final LatencyWindow openLatencies = new LatencyWindow(LATENCY_WINDOW_SIZE);
+
+  public MeteredNodeClient(NodeClient client) {
+    if (client == null) {
+      throw new NullPointerException("'client' must not be null");
+    }
+    this.client = client;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public NodeDescriptor getDescriptor() {
+    return client.getDescriptor();
+  }
+
+  /**
+   * @return the number of calls to the node which have not completed yet
+   */
+  public int getOutstanding() {
+    return outstanding.get();
+  }
+
+  /**
+   * @return the moving average of the latency of the calls to the node in nanoseconds, 0 as long as
+   *         none completed
+   */
+  public double getLatency() {
+    return latency;
+  }
+
+  /**
+   * @param percentile
+   *          e.g. 95 for the latency 95% of the latest calls did not exceed
+   * @return the latency of the calls which load or open a file in nanoseconds, -1 as long as too few
+   *         completed
+   */
+  public long getLatencyPercentile(double percentile) {
+    return openLatencies.percentile(percentile);
+  }
+
+  /**
+   * @return the capacity the node advertised when it registered
+   */
+  public int getCapacity() {
+    return client.getDescriptor().getCapacity();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<byte[]> loadFile(String uri) {
+    long start = begin();
+    try {
+      return end(client.loadFile(uri), start, true);
+    } catch (RuntimeException e) {
+      outstanding.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<ContentInfo> getContentInfo(String uri, String encoding) {
+    long start = begin();
+    try {
+      return end(client.getContentInfo(uri, encoding), start, false);
+    } catch (RuntimeException e) {
+      outstanding.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<StreamHandle> openStream(String uri, String encoding, int chunkSize) {
+    long start = begin();
+    try {
+      return end(client.openStream(uri, encoding, chunkSize), start, true);
+    } catch (RuntimeException e) {
+      outstanding.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<StreamHandle> openRange(String uri, String encoding, long offset, long length, int chunkSize) {
+    long start = begin();
+    try {
+      return end(client.openRange(uri, encoding, offset, length, chunkSize), start, true);
+    } catch (RuntimeException e) {
+      outstanding.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<byte[]> readChunk(long streamId) {
+    long start = begin();
+    try {
+      return end(client.readChunk(streamId), start, false);
+    } catch (RuntimeException e) {
+      outstanding.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<Void> closeStream(long streamId) {
+    long start = begin();
+    try {
+      return end(client.closeStream(streamId), start, false);
+    } catch (RuntimeException e) {
+      outstanding.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Heartbeats do not count as load, they pass unmetered.
+   */
+  @Override
+  public CompletableFuture<Void> ping() {
+    return client.ping();
+  }
+
+  private long begin() {
+    outstanding.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  private <T> CompletableFuture<T> end(CompletableFuture<T> call, final long start, final boolean opening) {
+    call.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable error) {
+        outstanding.decrementAndGet();
+        // failed calls count as well, a node timing out has to look slow
+        long nanos = System.nanoTime() - start;
+        record(nanos);
+        if (opening) {
+          openLatencies.record(nanos);
+        }
+      }
+    });
+    return call;
+  }
+
+  void record(long nanos) {
+    double current = latency;
+    latency = current == 0 ? nanos : current + LATENCY_DECAY * (nanos - current);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void close() {
+    client.close();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return client + String.format(" [%d outstanding, %.2f ms]", outstanding.get(), latency / 1000000);
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
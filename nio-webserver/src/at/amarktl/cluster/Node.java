@@ -2,22 +2,36 @@
 package at.amarktl.cluster;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import at.amarktl.bootstrap.Content;
+import at.amarktl.bootstrap.ContentFilter;
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.bootstrap.ContentListener;
+import at.amarktl.bootstrap.ContentWatcher;
 import at.amarktl.bootstrap.Repository;
+import at.amarktl.cluster.transport.BinaryTransportServer;
+import at.amarktl.cluster.transport.Futures;
+import at.amarktl.cluster.transport.NodeService;
+import at.amarktl.cluster.transport.RMITransport;
 import at.amarktl.properties.Properties;
 
 public class Node extends UnicastRemoteObject implements IClusterNode {
 
-  private static final String RMI_IDENTIFIER_NODE = "cluster-node";
   private static final String RMI_IDENTIFIER_MASTER = "web-srv-master";
   Repository repository = null;
   private static final long serialVersionUID = 1L;
@@ -25,7 +39,24 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
   String address;
   String name;
 
-  private ExecutorService handles = null;
+  /** Bounds for the chunk size granted to {@link #openStream(String, String, int)}. */
+  static final int MIN_CHUNK_SIZE = 4 * 1024;
+  static final int MAX_CHUNK_SIZE = 1024 * 1024;
+  /** Streams not touched for this many milliseconds are considered abandoned. */
+  static final long STREAM_TIMEOUT = 60 * 1000;
+
+  private WorkerPool handles = null;
+  private volatile int capacity;
+  private int binaryTransportPort = 0;
+  private BinaryTransportServer binaryTransport = null;
+  private final Map<Long, Stream> streams = new ConcurrentHashMap<Long, Stream>();
+  private final AtomicLong streamIds = new AtomicLong();
+  private final NodeService service = new LocalService();
+  /** The master this node registered at, <code>null</code> before. */
+  private volatile IServer master = null;
+  /** Numbers the content invalidations sent since the registration. */
+  private final AtomicLong invalidations = new AtomicLong();
+  private ContentWatcher contentWatcher = null;
 
   /** {@inheritDoc} */
   @Override
@@ -33,30 +64,78 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
     return name + "@" + address + ":" + port;
   }
 
+  /**
+   * Lets the master talk to this node by the binary transport on the given port instead of RMI. Must
+   * be called before {@link #connect(String, int)}.
+   */
+  public void setBinaryTransportPort(int binaryTransportPort) {
+    if (binaryTransportPort <= 0) {
+      throw new IllegalArgumentException("'binaryTransportPort' must not be less or equal than 0");
+    }
+    this.binaryTransportPort = binaryTransportPort;
+  }
+
+  /**
+   * Changes the number of bytes of file content the node keeps in memory at most, may be called
+   * while the node is serving.
+   */
+  public void setRepositoryMaxBytes(long repositoryMaxBytes) {
+    if (repositoryMaxBytes <= 0) {
+      throw new IllegalArgumentException("'repositoryMaxBytes' must not be less or equal than 0");
+    }
+    repository.setMaxBytes(repositoryMaxBytes);
+  }
+
   @Override
   public void connect(String server, int serverport) throws RemoteException {
     initRMI();
+    initBinaryTransport();
 
     System.out.println("Cluster Node [" + getIdentifier() + "] initialized");
 
     register(server, serverport);
+
+    watchContent();
   }
 
   private void initRMI() {
     try {
       Registry registry = LocateRegistry.createRegistry(port);
-      registry.rebind(RMI_IDENTIFIER_NODE, this);
+      registry.rebind(RMITransport.RMI_IDENTIFIER_NODE, this);
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
+  private void initBinaryTransport() {
+    if (binaryTransportPort <= 0) {
+      return;
+    }
+    try {
+      binaryTransport = new BinaryTransportServer(service, new InetSocketAddress(address, binaryTransportPort));
+      binaryTransport.start();
+    } catch (IOException e) {
+      // the master falls back to RMI
+      e.printStackTrace();
+      binaryTransport = null;
+    }
+  }
+
+  private NodeDescriptor getDescriptor() throws RemoteException {
+    if (binaryTransport != null) {
+      return new NodeDescriptor(getIdentifier(), address, port, NodeDescriptor.TRANSPORT_BINARY, binaryTransportPort, capacity);
+    }
+    return NodeDescriptor.rmi(getIdentifier(), address, port, capacity);
+  }
+
   private void register(String host, int port) {
     try {
       System.out.println("Trying to register Cluster Node [" + name + "@" + address + ":" + this.port + "]  @ server [" + host + ":" + port + "]");
       Registry myRegistry = LocateRegistry.getRegistry(host, port);
       IServer master = (IServer) myRegistry.lookup(RMI_IDENTIFIER_MASTER);
-      boolean registered = master.register(address, this.port);
+      invalidations.set(0);
+      boolean registered = master.register(getDescriptor());
+      this.master = master;
       System.out.println("Finished to register Cluster Node [" + name + "@" + address + ":" + this.port + "]  @ server [" + host + ":" + port + "]: "
         + registered);
     } catch (Exception e) {
@@ -64,7 +143,71 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
     }
   }
 
+  /**
+   * Keeps the repository up to date with the web home and tells the master which files changed, so
+   * content is deployed without restarting the cluster.
+   */
+  private void watchContent() {
+    if (contentWatcher != null) {
+      return;
+    }
+    try {
+      contentWatcher = repository.watch(new ContentListener() {
+        @Override
+        public void contentChanged(List<String> uris) {
+          IServer master = Node.this.master;
+          if (master == null) {
+            return;
+          }
+          try {
+            master.invalidate(new ContentInvalidation(getIdentifier(), invalidations.incrementAndGet(), uris));
+          } catch (RemoteException e) {
+            // the master notices the gap with the next invalidation
+            e.printStackTrace();
+          }
+        }
+      });
+    } catch (IOException e) {
+      // files are served as they have been loaded
+      e.printStackTrace();
+    }
+  }
+
   public Node(String name, String address, int port, int threadPoolSize) throws RemoteException {
+    this(name, address, port, threadPoolSize, Repository.DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param repositoryMaxBytes
+   *          number of bytes of file content the node keeps in memory at most
+   */
+  public Node(String name, String address, int port, int threadPoolSize, long repositoryMaxBytes) throws RemoteException {
+    this(name, address, port, threadPoolSize, repositoryMaxBytes, true);
+  }
+
+  /**
+   * @param repositoryMaxBytes
+   *          number of bytes of file content the node keeps in memory at most
+   * @param preload
+   *          <code>false</code> to load files on their first request only, for masters which route
+   *          each file to the same node so that every node caches just its share
+   */
+  public Node(String name, String address, int port, int threadPoolSize, long repositoryMaxBytes, boolean preload) throws RemoteException {
+    this(name, address, port, threadPoolSize, repositoryMaxBytes, ContentFilter.ALL, preload);
+  }
+
+  /**
+   * @param repositoryMaxBytes
+   *          number of bytes of file content the node keeps in memory at most
+   * @param filter
+   *          the files of the web home the node serves
+   * @param warmUp
+   *          <code>true</code> to load the files in the background while the node already serves,
+   *          <code>false</code> to load files on their first request only, for masters which route
+   *          each file to the same node so that every node caches just its share
+   */
+  public Node(String name, String address, int port, int threadPoolSize, long repositoryMaxBytes, ContentFilter filter, boolean warmUp)
+    throws RemoteException {
     super();
 
     if (address == null) {
@@ -89,6 +232,10 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
       throw new IllegalArgumentException("'threadPoolSize' must not be less or equal than 0");
     }
 
+    if (repositoryMaxBytes <= 0) {
+      throw new IllegalArgumentException("'repositoryMaxBytes' must not be less or equal than 0");
+    }
+
     System.setProperty("java.rmi.server.hostname", address);
 
     this.name = name;
@@ -96,17 +243,55 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
     this.port = port;
 
     try {
-      this.repository = new Repository(getIdentifier());
+      this.repository = new Repository(getIdentifier(), repositoryMaxBytes, filter, warmUp);
     } catch (IOException e) {
       throw new RemoteException(e.getMessage());
     }
 
-    this.handles = Executors.newFixedThreadPool(threadPoolSize, new ThreadFactory() {
-      @Override
-      public Thread newThread(Runnable r) {
-        return new Thread(r);
-      }
-    });
+    // the master balances the load by the number of requests we serve at once
+    this.capacity = threadPoolSize;
+    this.handles = new WorkerPool(name + "-handle", threadPoolSize, false);
+    handles.setQueueCapacity(WorkerPool.DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * Serves each request on a virtual thread, with the thread pool size bounding how many are served
+   * at once; falls back to platform threads on JVMs without virtual threads. Must be called before
+   * {@link #connect(String, int)}.
+   */
+  public void setVirtualThreads(boolean virtualThreads) {
+    if (virtualThreads != handles.isVirtual()) {
+      WorkerPool previous = handles;
+      handles = new WorkerPool(name + "-handle", capacity, virtualThreads);
+      handles.setQueueCapacity(previous.getQueueCapacity());
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Sets the number of requests served at once. May be called while the node is serving; a node
+   * registered already registers again, so the master balances the load by the new capacity.
+   */
+  public void setConcurrency(int concurrency) throws RemoteException {
+    handles.setConcurrency(concurrency);
+    if (concurrency == capacity) {
+      return;
+    }
+    capacity = concurrency;
+    IServer master = this.master;
+    if (master != null) {
+      invalidations.set(0);
+      master.register(getDescriptor());
+    }
+  }
+
+  /**
+   * Bounds the requests waiting for their turn, further ones are refused right away, so the master
+   * sends them to another node or sheds them instead of letting them wait longer and longer. May be
+   * called while the node is serving.
+   */
+  public void setQueueCapacity(int queueCapacity) {
+    handles.setQueueCapacity(queueCapacity);
   }
 
   /** {@inheritDoc} */
@@ -129,6 +314,299 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
     }
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public ContentInfo getContentInfo(String uri, String encoding) throws RemoteException {
+    if (uri == null) {
+      Exception e = new NullPointerException("'uri' must not be null");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    if (uri.trim().length() == 0) {
+      Exception e = new IllegalArgumentException("'uri' must not be empty");
+      throw new RemoteException(e.getMessage(), e);
+    }
+
+    try {
+      return handles.submit(new InfoLookup(uri, encoding)).get();
+    } catch (Exception e) {
+      throw new RemoteException(e.getMessage(), e);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public StreamHandle openStream(String uri, String encoding, int chunkSize) throws RemoteException {
+    if (uri == null) {
+      Exception e = new NullPointerException("'uri' must not be null");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    if (uri.trim().length() == 0) {
+      Exception e = new IllegalArgumentException("'uri' must not be empty");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    if (chunkSize <= 0) {
+      Exception e = new IllegalArgumentException("'chunkSize' must not be less or equal than 0");
+      throw new RemoteException(e.getMessage(), e);
+    }
+
+    try {
+      return open(handles.submit(new Lookup(uri, encoding)).get(), chunkSize);
+    } catch (Exception e) {
+      throw new RemoteException(e.getMessage(), e);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public StreamHandle openRange(String uri, String encoding, long offset, long length, int chunkSize) throws RemoteException {
+    if (uri == null) {
+      Exception e = new NullPointerException("'uri' must not be null");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    if (uri.trim().length() == 0) {
+      Exception e = new IllegalArgumentException("'uri' must not be empty");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    if (offset < 0) {
+      Exception e = new IllegalArgumentException("'offset' must not be less than 0");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    if (length < 0) {
+      Exception e = new IllegalArgumentException("'length' must not be less than 0");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    if (chunkSize <= 0) {
+      Exception e = new IllegalArgumentException("'chunkSize' must not be less or equal than 0");
+      throw new RemoteException(e.getMessage(), e);
+    }
+
+    try {
+      return open(handles.submit(new Lookup(uri, encoding, offset, length)).get(), chunkSize);
+    } catch (Exception e) {
+      throw new RemoteException(e.getMessage(), e);
+    }
+  }
+
+  private StreamHandle open(Content lookup, int chunkSize) {
+    releaseAbandonedStreams();
+
+    ByteBuffer content = lookup.getBuffer();
+    Stream stream = new Stream(content, Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize)));
+    long length = content.remaining();
+    byte[] firstChunk = stream.next();
+    if (firstChunk.length == length) {
+      // everything fits into the handle, nothing to keep track of
+      return new StreamHandle(-1, length, stream.chunkSize, firstChunk, lookup.getInfo());
+    }
+
+    long id = streamIds.incrementAndGet();
+    streams.put(id, stream);
+    return new StreamHandle(id, length, stream.chunkSize, firstChunk, lookup.getInfo());
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public byte[] readChunk(long streamId) throws RemoteException {
+    Stream stream = streams.get(streamId);
+    if (stream == null) {
+      Exception e = new IllegalStateException("Stream [" + streamId + "] is not open");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    return stream.next();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void closeStream(long streamId) throws RemoteException {
+    streams.remove(streamId);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void ping() throws RemoteException {
+  }
+
+  /**
+   * @return the operations of this node as non-blocking calls; only lookups in the repository
+   *         occupy a thread of the node's pool, no thread waits for another one
+   */
+  public NodeService getService() {
+    return service;
+  }
+
+  private class LocalService implements NodeService {
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<byte[]> loadFile(String uri) {
+      return Futures.submit(new Handle(uri), handles);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<ContentInfo> getContentInfo(String uri, String encoding) {
+      if (uri == null) {
+        throw new NullPointerException("'uri' must not be null");
+      }
+      if (uri.trim().length() == 0) {
+        throw new IllegalArgumentException("'uri' must not be empty");
+      }
+      return Futures.submit(new InfoLookup(uri, encoding), handles);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<StreamHandle> openStream(String uri, String encoding, final int chunkSize) {
+      if (uri == null) {
+        throw new NullPointerException("'uri' must not be null");
+      }
+      if (uri.trim().length() == 0) {
+        throw new IllegalArgumentException("'uri' must not be empty");
+      }
+      if (chunkSize <= 0) {
+        throw new IllegalArgumentException("'chunkSize' must not be less or equal than 0");
+      }
+      return Futures.submit(new Lookup(uri, encoding), handles).thenApply(new Function<Content, StreamHandle>() {
+        @Override
+        public StreamHandle apply(Content lookup) {
+          return open(lookup, chunkSize);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<StreamHandle> openRange(String uri, String encoding, long offset, long length, final int chunkSize) {
+      if (uri == null) {
+        throw new NullPointerException("'uri' must not be null");
+      }
+      if (uri.trim().length() == 0) {
+        throw new IllegalArgumentException("'uri' must not be empty");
+      }
+      if (offset < 0) {
+        throw new IllegalArgumentException("'offset' must not be less than 0");
+      }
+      if (length < 0) {
+        throw new IllegalArgumentException("'length' must not be less than 0");
+      }
+      if (chunkSize <= 0) {
+        throw new IllegalArgumentException("'chunkSize' must not be less or equal than 0");
+      }
+      return Futures.submit(new Lookup(uri, encoding, offset, length), handles).thenApply(new Function<Content, StreamHandle>() {
+        @Override
+        public StreamHandle apply(Content lookup) {
+          return open(lookup, chunkSize);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<byte[]> readChunk(long streamId) {
+      try {
+        // copying a chunk is cheap enough to be done right away
+        return CompletableFuture.completedFuture(Node.this.readChunk(streamId));
+      } catch (RemoteException e) {
+        return Futures.failed(e.getCause());
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> closeStream(long streamId) {
+      streams.remove(streamId);
+      return CompletableFuture.completedFuture(null);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> ping() {
+      return CompletableFuture.completedFuture(null);
+    }
+
+  }
+
+  private void releaseAbandonedStreams() {
+    long now = System.currentTimeMillis();
+    Iterator<Stream> i = streams.values().iterator();
+    while (i.hasNext()) {
+      if (now - i.next().lastAccess > STREAM_TIMEOUT) {
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * Read position of an open stream. The chunks are copied from the read-only view on the repository
+   * content, so the node never holds more than one chunk per stream on the heap.
+   */
+  private static class Stream {
+
+    private final ByteBuffer content;
+    private final int chunkSize;
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    public Stream(ByteBuffer content, int chunkSize) {
+      this.content = content;
+      this.chunkSize = chunkSize;
+    }
+
+    public synchronized byte[] next() {
+      lastAccess = System.currentTimeMillis();
+      byte[] chunk = new byte[Math.min(chunkSize, content.remaining())];
+      content.get(chunk);
+      return chunk;
+    }
+
+  }
+
+  private class Lookup implements Callable<Content> {
+
+    private String uri;
+    private String encoding;
+    private long offset;
+    /** Number of bytes to read from the offset on, -1 for the whole file. */
+    private long length;
+
+    public Lookup(String uri, String encoding) {
+      this(uri, encoding, 0, -1);
+    }
+
+    public Lookup(String uri, String encoding, long offset, long length) {
+      this.uri = uri;
+      this.encoding = encoding;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Content call() throws Exception {
+      String path = Properties.WEBHOME + uri;
+      // content and info in one go, a reload in between must not pair old bytes with a new entity tag
+      return length < 0 ? repository.getContent(path, encoding) : repository.getContent(path, encoding, offset, length);
+    }
+
+  }
+
+  private class InfoLookup implements Callable<ContentInfo> {
+
+    private String uri;
+    private String encoding;
+
+    public InfoLookup(String uri, String encoding) {
+      this.uri = uri;
+      this.encoding = encoding;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ContentInfo call() throws Exception {
+      return repository.getInfo(Properties.WEBHOME + uri, encoding);
+    }
+
+  }
+
   private class Handle implements Callable<byte[]> {
 
     private String uri;
@@ -146,7 +624,11 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
     /** {@inheritDoc} */
     @Override
     public byte[] call() throws Exception {
-      return repository.get(Properties.WEBHOME + uri);
+      ByteBuffer content = repository.get(Properties.WEBHOME + uri);
+      // RMI needs a heap copy to serialize
+      byte[] b = new byte[content.remaining()];
+      content.get(b);
+      return b;
     }
 
   }
@@ -154,29 +636,18 @@ public class Node extends UnicastRemoteObject implements IClusterNode {
   /** {@inheritDoc} */
   @Override
   public boolean equals(Object obj) {
-    if (obj == null) {
-      throw new NullPointerException("'obj' must not be null");
-    }
-
     if (obj == this) {
       return true;
     }
 
-    if (!(obj instanceof IClusterNode)) {
+    // compared by the fields the identifier is made of, asking a remote node for its identifier
+    // would be a call over the network
+    if (!(obj instanceof Node)) {
       return false;
     }
 
-    IClusterNode n = (IClusterNode) obj;
-
-    try {
-      if (!n.getIdentifier().equals(getIdentifier())) {
-        return false;
-      }
-    } catch (RemoteException e) {
-      throw new IllegalStateException(e);
-    }
-
-    return true;
+    Node n = (Node) obj;
+    return name.equals(n.name) && address.equals(n.address) && port == n.port;
   }
 
   /** {@inheritDoc} */
@@ -0,0 +1,129 @@
+
+package at.amarktl.cluster;
+
+import java.io.Serializable;
+
+/**
+ * Describes a cluster node registering at the master: who it is and how the master reaches it.
+ * NodeDescriptor is immutable and may be freely exchanged between Threads.
+ */
+public final class NodeDescriptor implements Serializable {
+
+  public static final String TRANSPORT_RMI = "rmi";
+  public static final String TRANSPORT_BINARY = "binary";
+
+  private static final long serialVersionUID = 1L;
+
+  private final String identifier;
+  private final String host;
+  private final int rmiPort;
+  private final String transport;
+  private final int transportPort;
+  private final int capacity;
+
+  public NodeDescriptor(String identifier, String host, int rmiPort, String transport, int transportPort) {
+    this(identifier, host, rmiPort, transport, transportPort, 1);
+  }
+
+  /**
+   * @param transport
+   *          the name of the transport the master should use to talk to the node
+   * @param transportPort
+   *          the port the transport listens on, ignored for {@link #TRANSPORT_RMI}
+   * @param capacity
+   *          the relative number of requests the node is able to serve at once, e.g. the size of its
+   *          thread pool
+   */
+  public NodeDescriptor(String identifier, String host, int rmiPort, String transport, int transportPort, int capacity) {
+    if (identifier == null) {
+      throw new NullPointerException("'identifier' must not be null");
+    }
+    if (identifier.trim().length() == 0) {
+      throw new IllegalArgumentException("'identifier' must not be empty");
+    }
+    if (host == null) {
+      throw new NullPointerException("'host' must not be null");
+    }
+    if (host.trim().length() == 0) {
+      throw new IllegalArgumentException("'host' must not be empty");
+    }
+    if (rmiPort <= 0) {
+      throw new IllegalArgumentException("'rmiPort' must not be less or equal than 0");
+    }
+    if (transport == null) {
+      throw new NullPointerException("'transport' must not be null");
+    }
+    if (!TRANSPORT_RMI.equals(transport) && transportPort <= 0) {
+      throw new IllegalArgumentException("'transportPort' must not be less or equal than 0");
+    }
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("'capacity' must not be less or equal than 0");
+    }
+    this.identifier = identifier;
+    this.host = host;
+    this.rmiPort = rmiPort;
+    this.transport = transport;
+    this.transportPort = transportPort;
+    this.capacity = capacity;
+  }
+
+  public static NodeDescriptor rmi(String identifier, String host, int rmiPort) {
+    return rmi(identifier, host, rmiPort, 1);
+  }
+
+  public static NodeDescriptor rmi(String identifier, String host, int rmiPort, int capacity) {
+    return new NodeDescriptor(identifier, host, rmiPort, TRANSPORT_RMI, rmiPort, capacity);
+  }
+
+  public String getIdentifier() {
+    return identifier;
+  }
+
+  public String getHost() {
+    return host;
+  }
+
+  public int getRmiPort() {
+    return rmiPort;
+  }
+
+  public String getTransport() {
+    return transport;
+  }
+
+  public int getTransportPort() {
+    return transportPort;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof NodeDescriptor)) {
+      return false;
+    }
+    return identifier.equals(((NodeDescriptor) obj).identifier);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return identifier.hashCode();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return identifier + " (" + transport + "://" + host + ":" + transportPort + ")";
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
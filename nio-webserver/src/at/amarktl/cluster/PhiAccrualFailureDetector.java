@@ -0,0 +1,108 @@
+
+package at.amarktl.cluster;
+
+/**
+ * Tells how likely it is that a node failed by how overdue its next heartbeat is, measured against
+ * the intervals its heartbeats arrived in so far (Hayashibara et al., "The phi accrual failure
+ * detector"). Rather than a yes or no after a fixed timeout, phi grows continuously: phi = 1 means a
+ * 10% chance of a false suspicion, phi = 2 a 1% chance and so on. A node answering slowly but
+ * steadily thus gets more slack than one which always answers right away. Calls to methods of
+ * PhiAccrualFailureDetector are thread safe.
+ */
+public final class PhiAccrualFailureDetector {
+
+  /** Number of heartbeat intervals the distribution is estimated from. */
+  static final int WINDOW_SIZE = 100;
+
+  private final long minStdDeviation;
+  private final long acceptablePause;
+  private final long[] intervals = new long[WINDOW_SIZE];
+  private int count;
+  private int next;
+  private long sum;
+  private long sumOfSquares;
+  private long lastHeartbeat = -1;
+
+  /**
+   * @param heartbeatInterval
+   *          milliseconds between two heartbeats, the estimate until real intervals are measured
+   * @param minStdDeviation
+   *          milliseconds the intervals are assumed to vary at least, keeps very regular heartbeats
+   *          from making the detector too eager
+   * @param acceptablePause
+   *          milliseconds a heartbeat may be late without raising phi much, e.g. for a garbage
+   *          collection on the node
+   */
+  public PhiAccrualFailureDetector(long heartbeatInterval, long minStdDeviation, long acceptablePause) {
+    if (heartbeatInterval <= 0) {
+      throw new IllegalArgumentException("'heartbeatInterval' must not be less or equal than 0");
+    }
+    if (minStdDeviation <= 0) {
+      throw new IllegalArgumentException("'minStdDeviation' must not be less or equal than 0");
+    }
+    if (acceptablePause < 0) {
+      throw new IllegalArgumentException("'acceptablePause' must not be less than 0");
+    }
+    this.minStdDeviation = minStdDeviation;
+    this.acceptablePause = acceptablePause;
+    // two samples around the expected interval, so the first estimate is not a point
+    add(heartbeatInterval - heartbeatInterval / 4);
+    add(heartbeatInterval + heartbeatInterval / 4);
+  }
+
+  /**
+   * Records a heartbeat of the node.
+   *
+   * @param now
+   *          the current time in milliseconds
+   */
+  public synchronized void heartbeat(long now) {
+    if (lastHeartbeat >= 0) {
+      add(Math.max(0, now - lastHeartbeat));
+    }
+    lastHeartbeat = now;
+  }
+
+  private void add(long interval) {
+    if (count == WINDOW_SIZE) {
+      sum -= intervals[next];
+      sumOfSquares -= intervals[next] * intervals[next];
+    } else {
+      count++;
+    }
+    intervals[next] = interval;
+    sum += interval;
+    sumOfSquares += interval * interval;
+    next = (next + 1) % WINDOW_SIZE;
+  }
+
+  /**
+   * @param now
+   *          the current time in milliseconds
+   * @return the suspicion level of the node, 0 as long as it did not send a heartbeat yet
+   */
+  public synchronized double phi(long now) {
+    if (lastHeartbeat < 0) {
+      return 0;
+    }
+    double mean = (double) sum / count;
+    double variance = (double) sumOfSquares / count - mean * mean;
+    double stdDeviation = Math.max(minStdDeviation, Math.sqrt(Math.max(0, variance)));
+
+    // logistic approximation of the cumulative normal distribution, accurate to 0.0002
+    double y = (now - lastHeartbeat - mean - acceptablePause) / stdDeviation;
+    double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+    double later = y > 0 ? e / (1 + e) : 1 - 1 / (1 + e);
+    return -Math.log10(Math.max(later, Double.MIN_VALUE));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public synchronized String toString() {
+    return String.format("%.1f ms mean heartbeat interval of %d", (double) sum / count, count);
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
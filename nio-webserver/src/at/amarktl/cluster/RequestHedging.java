@@ -0,0 +1,125 @@
+
+package at.amarktl.cluster;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a request a node has not answered yet is sent to a second node as well. A request
+ * is hedged once it took longer than a percentile of the latest requests to its node, so only the
+ * tail gets duplicated; the {@link HedgeBudget} keeps the duplicates to a share of all requests.
+ * Hedging is disabled unless {@link #setHedging(double, double)} is called.
+ */
+class RequestHedging {
+
+  static final double DEFAULT_PERCENTILE = 95;
+  /** Number of duplicates which may be sent in a row at most. */
+  static final int BURST = 10;
+  /** Requests are not hedged earlier, below this the timer is not exact enough. */
+  private static final long MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private volatile double percentile = DEFAULT_PERCENTILE;
+  private volatile HedgeBudget budget;
+  private volatile ScheduledThreadPoolExecutor timer;
+  /** Guarded by this. */
+  private boolean started = false;
+
+  /**
+   * May be called after {@link #start()} as well, the budget starts over then.
+   *
+   * @param percentile
+   *          a request is hedged once it took longer than this percentile of the latest requests to
+   *          its node, e.g. 95
+   * @param ratio
+   *          duplicates allowed per request, e.g. 0.05 for at most 5% more requests; 0 disables
+   *          hedging
+   */
+  public synchronized void setHedging(double percentile, double ratio) {
+    if (percentile <= 0 || percentile >= 100) {
+      throw new IllegalArgumentException("'percentile' must be greater than 0 and less than 100");
+    }
+    if (ratio < 0) {
+      throw new IllegalArgumentException("'ratio' must not be less than 0");
+    }
+    this.percentile = percentile;
+    this.budget = ratio == 0 ? null : new HedgeBudget(ratio, BURST);
+    if (started && budget != null && timer == null) {
+      startTimer();
+    }
+  }
+
+  public synchronized void start() {
+    if (started) {
+      throw new IllegalStateException("Request hedging already started");
+    }
+    started = true;
+    if (budget != null) {
+      startTimer();
+    }
+  }
+
+  private void startTimer() {
+    timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "request-hedging");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    // nearly all requests are answered in time, their hedges must not pile up in the queue
+    timer.setRemoveOnCancelPolicy(true);
+  }
+
+  public synchronized void shutdown() {
+    started = false;
+    if (timer != null) {
+      timer.shutdownNow();
+      timer = null;
+    }
+    if (budget != null) {
+      System.out.println("Request hedging " + budget);
+    }
+  }
+
+  /**
+   * Records a request and schedules its hedge.
+   *
+   * @param node
+   *          the node the request has been sent to
+   * @param hedge
+   *          run if the request took unusually long; it has to check whether the request has been
+   *          answered in the meantime and to call {@link #tryAcquire()} before it sends a duplicate
+   * @return the scheduled hedge to cancel once the request is answered, <code>null</code> if the
+   *         request is not hedged
+   */
+  public ScheduledFuture<?> schedule(MeteredNodeClient node, Runnable hedge) {
+    ScheduledThreadPoolExecutor timer = this.timer;
+    HedgeBudget budget = this.budget;
+    if (budget == null || timer == null) {
+      return null;
+    }
+    budget.request();
+    long delay = node.getLatencyPercentile(percentile);
+    if (delay < 0) {
+      // too little known about the node to tell what takes unusually long
+      return null;
+    }
+    return timer.schedule(hedge, Math.max(MIN_DELAY, delay), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return <code>true</code> if a duplicate request may be sent
+   */
+  public boolean tryAcquire() {
+    HedgeBudget budget = this.budget;
+    return budget != null && budget.tryAcquire();
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -1,26 +1,56 @@
 
 package at.amarktl.cluster;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
-
+import java.util.function.BiConsumer;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.bootstrap.Repository;
+import at.amarktl.cluster.transport.BinaryTransport;
+import at.amarktl.cluster.transport.Futures;
+import at.amarktl.cluster.transport.NodeClient;
+import at.amarktl.cluster.transport.NodeOverloadedException;
+import at.amarktl.cluster.transport.NodeUnavailableException;
+import at.amarktl.cluster.transport.RMITransport;
+import at.amarktl.cluster.transport.Transport;
+import at.amarktl.http.ByteRange;
+import at.amarktl.http.EncodedResponse;
+import at.amarktl.http.HTTPDate;
 import at.amarktl.http.HTTPRequest;
+import at.amarktl.http.HTTPRequestHandler;
+import at.amarktl.http.HTTPRequestParser;
 import at.amarktl.http.HTTPResponse;
 import at.amarktl.http.HTTPSession;
+import at.amarktl.http.MultipartByteRanges;
+import at.amarktl.http.Reactor;
 
 public class Server extends UnicastRemoteObject implements IServer {
 
@@ -29,19 +59,28 @@ public class Server extends UnicastRemoteObject implements IServer {
    */
   private static final String RMI_IDENTIFIER = "web-srv-master";
 
-  private class HTTPServer {
-    private ExecutorService service = Executors.newSingleThreadExecutor();
+  private class HTTPServer implements HTTPRequestHandler, Runnable {
 
     volatile boolean isRunning = true;
-    Selector selector = null;
-    ServerSocketChannel server = null;
+    final Selector selector;
+    final ServerSocketChannel server;
+    Thread acceptor = null;
+    final Reactor[] reactors;
+    int nextReactor = 0;
 
-    public HTTPServer(InetSocketAddress address) throws IOException {
+    public HTTPServer(InetSocketAddress address, int selectorThreads) throws IOException {
       server = ServerSocketChannel.open();
       selector = Selector.open();
       server.socket().bind(address);
       server.configureBlocking(false);
       server.register(selector, SelectionKey.OP_ACCEPT);
+
+      reactors = new Reactor[selectorThreads];
+      for (int i = 0; i < reactors.length; i++) {
+        reactors[i] = new Reactor("http-reactor-" + i, this, maxRequestsPerConnection, keepAliveTimeout);
+        reactors[i].setRequestLimits(maxRequestLineLength, maxHeaderSize);
+        reactors[i].setSessionBufferSize(sessionBufferSize);
+      }
     }
 
     public void shutdown() {
@@ -49,19 +88,19 @@ public class Server extends UnicastRemoteObject implements IServer {
 
       try {
         server.close();
-        server = null;
       } catch (IOException e) {
         e.printStackTrace();
       }
 
       try {
         selector.close();
-        selector = null;
       } catch (IOException e) {
         e.printStackTrace();
       }
 
-      service.shutdownNow();
+      for (Reactor reactor : reactors) {
+        reactor.shutdown();
+      }
 
     }
 
@@ -70,127 +109,104 @@ public class Server extends UnicastRemoteObject implements IServer {
         throw new IllegalStateException("Server Instance already started");
       }
 
-      service.execute(new Runnable() {
-        @Override
-        public void run() {
-          while (isRunning) {
-            int readyCount;
-            try {
-              readyCount = selector.selectNow();
-              if (readyCount <= 0) {
-                continue;
-              }
+      for (Reactor reactor : reactors) {
+        reactor.start();
+      }
 
-              Iterator<SelectionKey> i = selector.selectedKeys().iterator();
-              while (i.hasNext()) {
-                SelectionKey key = i.next();
-                i.remove();
-                if (!key.isValid()) {
-                  continue;
-                }
-
-                // get a new connection
-                if (key.isAcceptable()) {
-                  // accept them
-                  SocketChannel client = server.accept();
-                  // non blocking please
-                  client.configureBlocking(false);
-                  // show out intentions
-                  client.register(selector, SelectionKey.OP_READ);
-                  // report an error immediatly if there are no cluster nodes
-
-                  System.out.println("Accepted new Client [" + client.getRemoteAddress() + "]");
-
-                  if (nodes.isEmpty()) {
-                    HTTPSession session = (HTTPSession) key.attachment();
-                    // create it if it doesnt exist
-                    if (session == null) {
-                      session = new HTTPSession(client);
-                      key.attach(session);
-                    }
-                    try {
-                      HTTPResponse error = new HTTPResponse();
-                      IllegalStateException e = new IllegalStateException("No Cluster Nodes connected");
-                      e.printStackTrace();
-                      error.setContent(getSevereErrorPage(e));
-                      session.sendResponse(error);
-                      continue;
-                    } finally {
-                      session.close();
-                    }
-                  }
-
-                } else if (key.isReadable()) {
-                  // get the client
-                  SocketChannel client = (SocketChannel) key.channel();
-
-                  // get the session
-                  HTTPSession session = (HTTPSession) key.attachment();
-                  // create it if it doesnt exist
-                  if (session == null) {
-                    session = new HTTPSession(client);
-                    key.attach(session);
-                  }
-                  // get more data
-                  session.readData();
-                  // decode the message
-                  String line;
-                  while ((line = session.readLine()) != null) {
-                    // check if we have got everything
-                    if (line.isEmpty()) {
-                      HTTPRequest request = new HTTPRequest(session.getContent());
-                      if (!request.getMethod().equals("GET")) {
-                        try {
-                          HTTPResponse error = new HTTPResponse();
-                          UnsupportedOperationException e = new UnsupportedOperationException("Unsupported Operation: " + request.getMethod());
-                          e.printStackTrace();
-                          error.setContent(getSevereErrorPage(e));
-                          session.sendResponse(error);
-                          continue;
-                        } finally {
-                          session.close();
-                        }
-                      }
-                      handle(session, request);
-                    }
-                  }
-
-                }
-              }
+      acceptor = new Thread(this, "http-acceptor");
+      acceptor.start();
+    }
 
-            } catch (IOException e) {
-              e.printStackTrace();
-              shutdown();
-            } finally {
-              synchronized (lock) {
-                try {
-                  if (isRunning) {
-                    lock.wait(timeout);
-                  }
-                } catch (InterruptedException e) {
-                  System.err.println("Interrupted while waiting due to [" + e.getMessage() + "]");
-                  e.printStackTrace();
-                }
-              }
+    /** {@inheritDoc} */
+    @Override
+    public void run() {
+      while (isRunning) {
+        try {
+          // block until a client connects, shutdown() closes the selector to get us out of here
+          selector.select();
+
+          Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+          while (i.hasNext()) {
+            SelectionKey key = i.next();
+            i.remove();
+            if (!key.isValid() || !key.isAcceptable()) {
+              continue;
+            }
+
+            // accept everything that is pending and spread it across the reactors
+            SocketChannel client;
+            while ((client = server.accept()) != null) {
+              System.out.println("Accepted new Client [" + client.getRemoteAddress() + "]");
+              reactors[nextReactor].register(client);
+              nextReactor = (nextReactor + 1) % reactors.length;
             }
           }
+
+        } catch (ClosedSelectorException e) {
+          // shutdown in progress
+        } catch (IOException e) {
+          if (isRunning) {
+            e.printStackTrace();
+            shutdown();
+          }
         }
-      });
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void handle(HTTPSession session, HTTPRequest request) {
+      if (!request.getMethod().equals("GET")) {
+        HTTPResponse error = new HTTPResponse();
+        UnsupportedOperationException e = new UnsupportedOperationException("Unsupported Operation: " + request.getMethod());
+        e.printStackTrace();
+        error.setContent(getSevereErrorPage(e));
+        // a request body might follow which we do not read, so the connection can not be reused
+        error.setHeader("Connection", "close");
+        session.sendResponse(error);
+        return;
+      }
+      Server.this.handle(session, request);
     }
 
   }
 
-  final Object lock = new Object();
   private static final long serialVersionUID = 1L;
-  long timeout = 50;
+  /** Number of nodes a request is sent to at most if they can not be reached. */
+  private static final int MAX_NODE_ATTEMPTS = 3;
+  /** Bounds of the number of requests admitted at once unless configured otherwise. */
+  static final int DEFAULT_MIN_ADMISSION_LIMIT = 20;
+  static final int DEFAULT_MAX_ADMISSION_LIMIT = 1000;
+  /** Seconds clients are asked to wait before retrying a request shed unless configured otherwise. */
+  static final int DEFAULT_RETRY_AFTER = 1;
   final ClusterNodeList nodes = new ClusterNodeList();
+  private final ClusterMembership membership = new ClusterMembership(nodes);
+  private final RequestHedging hedging = new RequestHedging();
   private int portHTTP;
   private int portRMI;
-  private final ExecutorService service;
+  private final int selectorThreads;
+  private volatile int maxRequestsPerConnection = 100;
+  private volatile long keepAliveTimeout = 15000;
+  private volatile int maxRequestLineLength = HTTPRequestParser.DEFAULT_MAX_REQUEST_LINE_LENGTH;
+  private volatile int maxHeaderSize = HTTPRequestParser.DEFAULT_MAX_HEADER_SIZE;
+  private volatile int sessionBufferSize = HTTPSession.DEFAULT_BUFFER_SIZE;
+  private Path contentRoot = null;
+  private volatile int streamChunkSize = 64 * 1024;
+  private long nodeCallTimeout = 30 * 1000;
+  /** Replaced as a whole by {@link #setContentCache(long, long)}, read it once per use. */
+  private volatile ContentCache contentCache = new ContentCache(32 * 1024 * 1024, 60 * 1000);
+  private final Map<String, Transport> transports = new ConcurrentHashMap<String, Transport>();
+  /** The version of the latest content invalidation by node identifier. */
+  private final Map<String, Long> invalidationVersions = new ConcurrentHashMap<String, Long>();
+  private WorkerPool service;
+  /** Bounds the requests which need a node or a worker, <code>null</code> if all are admitted. */
+  private volatile AdaptiveConcurrencyLimit admission = new AdaptiveConcurrencyLimit(DEFAULT_MIN_ADMISSION_LIMIT, DEFAULT_MAX_ADMISSION_LIMIT);
+  /** The answer to requests shed, encoded once. */
+  private volatile EncodedResponse serviceUnavailable = serviceUnavailable(DEFAULT_RETRY_AFTER);
   AtomicBoolean isStarted = new AtomicBoolean(false);
   AtomicBoolean isShutdownInProgress = new AtomicBoolean(false);
   private Registry registry;
-  private HTTPServer httpServer;
+  private volatile HTTPServer httpServer;
 
   static final byte[] getSevereErrorPage(Exception e) {
     /** @formatter:off*/
@@ -210,6 +226,10 @@ public class Server extends UnicastRemoteObject implements IServer {
   }
 
   public Server(String externalAddress, int portRMI, int portHTTP, int threadPoolSize) throws RemoteException {
+    this(externalAddress, portRMI, portHTTP, threadPoolSize, Runtime.getRuntime().availableProcessors());
+  }
+
+  public Server(String externalAddress, int portRMI, int portHTTP, int threadPoolSize, int selectorThreads) throws RemoteException {
     super();
     if (externalAddress == null) {
       throw new NullPointerException("'externalAddress' must not be null");
@@ -226,12 +246,17 @@ public class Server extends UnicastRemoteObject implements IServer {
     if (threadPoolSize <= 0) {
       throw new IllegalArgumentException("'threadPoolSize' must not be less or equal than 0");
     }
+    if (selectorThreads <= 0) {
+      throw new IllegalArgumentException("'selectorThreads' must not be less or equal than 0");
+    }
 
     System.setProperty("java.rmi.server.hostname", externalAddress);
 
     this.portRMI = portRMI;
     this.portHTTP = portHTTP;
-    this.service = Executors.newFixedThreadPool(threadPoolSize);
+    this.selectorThreads = selectorThreads;
+    this.service = new WorkerPool("http-worker", threadPoolSize, false);
+    service.setQueueCapacity(WorkerPool.DEFAULT_QUEUE_CAPACITY);
   }
 
   /** {@inheritDoc} */
@@ -260,7 +285,7 @@ public class Server extends UnicastRemoteObject implements IServer {
     IClusterNode nodeImpl = null;
 
     try {
-      nodeImpl = (IClusterNode) node.lookup("cluster-node");
+      nodeImpl = (IClusterNode) node.lookup(RMITransport.RMI_IDENTIFIER_NODE);
     } catch (NotBoundException e) {
       throw new RemoteException(e.getMessage(), e);
     }
@@ -271,19 +296,335 @@ public class Server extends UnicastRemoteObject implements IServer {
       throw new RemoteException(e.getMessage(), e);
     }
 
-    String id = nodeImpl.getIdentifier() + "@" + address;
+    return register(NodeDescriptor.rmi(nodeImpl.getIdentifier(), host, port));
+  }
 
-    System.out.println("Added Cluster Node [" + id + "]");
+  /** {@inheritDoc} */
+  @Override
+  public boolean register(NodeDescriptor node) throws RemoteException {
+    if (node == null) {
+      throw new NullPointerException("'node' must not be null");
+    }
 
-    nodes.add(nodeImpl);
+    if (!isStarted.get()) {
+      throw new IllegalStateException("Server Instance not started");
+    }
+
+    if (isShutdownInProgress.get()) {
+      throw new IllegalStateException("Server Instance is performing Shutdown");
+    }
+
+    NodeClient client = null;
+    Transport transport = transports.get(node.getTransport());
+    if (transport == null) {
+      System.err.println("Unknown transport [" + node.getTransport() + "] requested by Cluster Node [" + node + "]");
+    } else {
+      try {
+        client = transport.connect(node);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+
+    if (client == null && !NodeDescriptor.TRANSPORT_RMI.equals(node.getTransport())) {
+      // every node speaks RMI
+      System.out.println("Falling back to RMI for Cluster Node [" + node + "]");
+      try {
+        client = transports.get(NodeDescriptor.TRANSPORT_RMI).connect(node);
+      } catch (IOException e) {
+        throw new RemoteException(e.getMessage(), e);
+      }
+    }
+
+    if (client == null) {
+      Exception e = new IllegalStateException("Failed to connect to Cluster Node [" + node + "]");
+      throw new RemoteException(e.getMessage(), e);
+    }
+
+    System.out.println("Added Cluster Node [" + client + "]");
+
+    // a node numbers its invalidations from its registration on
+    invalidationVersions.remove(node.getIdentifier());
+    membership.join(client);
 
     return true;
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public void invalidate(ContentInvalidation invalidation) throws RemoteException {
+    if (invalidation == null) {
+      throw new NullPointerException("'invalidation' must not be null");
+    }
+
+    System.out.println("Content changed " + invalidation);
+    Long last = invalidationVersions.put(invalidation.getNode(), invalidation.getVersion());
+    ContentCache contentCache = this.contentCache;
+    if (contentCache == null) {
+      return;
+    }
+    if (invalidation.getVersion() != (last != null ? last : 0) + 1) {
+      // an invalidation got lost, there is no telling what else changed
+      System.out.println("Missed content changes of Cluster Node [" + invalidation.getNode() + "], dropping the content cache");
+      contentCache.invalidateAll();
+      return;
+    }
+    for (String uri : invalidation.getUris()) {
+      contentCache.invalidate(cacheKey(uri, null));
+      contentCache.invalidate(cacheKey(uri, ContentInfo.ENCODING_GZIP));
+    }
+  }
+
+  /**
+   * Limits persistent connections, may be changed while the server is running.
+   * 
+   * @param maxRequestsPerConnection
+   *          number of requests served on one connection before it gets closed
+   * @param keepAliveTimeout
+   *          milliseconds an idle connection is kept open
+   */
+  public void setKeepAlive(int maxRequestsPerConnection, long keepAliveTimeout) {
+    if (maxRequestsPerConnection <= 0) {
+      throw new IllegalArgumentException("'maxRequestsPerConnection' must not be less or equal than 0");
+    }
+    if (keepAliveTimeout <= 0) {
+      throw new IllegalArgumentException("'keepAliveTimeout' must not be less or equal than 0");
+    }
+    this.maxRequestsPerConnection = maxRequestsPerConnection;
+    this.keepAliveTimeout = keepAliveTimeout;
+    HTTPServer httpServer = this.httpServer;
+    if (httpServer != null) {
+      for (Reactor reactor : httpServer.reactors) {
+        reactor.setKeepAlive(maxRequestsPerConnection, keepAliveTimeout);
+      }
+    }
+  }
+
+  /**
+   * Limits the size of the requests accepted, may be changed while the server is running; the
+   * limits apply to connections accepted afterwards.
+   * 
+   * @param maxRequestLineLength
+   *          number of bytes the request line may have at most
+   * @param maxHeaderSize
+   *          number of bytes all header lines of a request may have together at most
+   */
+  public void setRequestLimits(int maxRequestLineLength, int maxHeaderSize) {
+    if (maxRequestLineLength <= 0) {
+      throw new IllegalArgumentException("'maxRequestLineLength' must not be less or equal than 0");
+    }
+    if (maxHeaderSize <= 0) {
+      throw new IllegalArgumentException("'maxHeaderSize' must not be less or equal than 0");
+    }
+    this.maxRequestLineLength = maxRequestLineLength;
+    this.maxHeaderSize = maxHeaderSize;
+    HTTPServer httpServer = this.httpServer;
+    if (httpServer != null) {
+      for (Reactor reactor : httpServer.reactors) {
+        reactor.setRequestLimits(maxRequestLineLength, maxHeaderSize);
+      }
+    }
+  }
+
+  /**
+   * Sets the number of bytes of a request read at once; the request line and header of a request
+   * must fit in there. May be changed while the server is running, the size applies to connections
+   * accepted afterwards.
+   */
+  public void setSessionBufferSize(int sessionBufferSize) {
+    if (sessionBufferSize <= 0) {
+      throw new IllegalArgumentException("'sessionBufferSize' must not be less or equal than 0");
+    }
+    this.sessionBufferSize = sessionBufferSize;
+    HTTPServer httpServer = this.httpServer;
+    if (httpServer != null) {
+      for (Reactor reactor : httpServer.reactors) {
+        reactor.setSessionBufferSize(sessionBufferSize);
+      }
+    }
+  }
+
+  /**
+   * Sets the number of files served at once in co-located mode, see {@link #setColocated(String)}.
+   * May be changed while the server is running.
+   */
+  public void setThreadPoolSize(int threadPoolSize) {
+    service.setConcurrency(threadPoolSize);
+  }
+
+  /**
+   * Serves files in co-located mode on a virtual thread each, with the thread pool size bounding
+   * how many are served at once; falls back to platform threads on JVMs without virtual threads.
+   * Must be called before {@link #start()}.
+   */
+  public void setVirtualThreads(boolean virtualThreads) {
+    if (isStarted.get()) {
+      throw new IllegalStateException("Server Instance already started");
+    }
+    if (virtualThreads != service.isVirtual()) {
+      WorkerPool previous = service;
+      service = new WorkerPool("http-worker", previous.getConcurrency(), virtualThreads);
+      service.setQueueCapacity(previous.getQueueCapacity());
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Bounds the files waiting for a worker in co-located mode, see {@link #setColocated(String)};
+   * requests beyond are answered with 503 Service Unavailable right away. May be changed while the
+   * server is running.
+   */
+  public void setQueueCapacity(int queueCapacity) {
+    service.setQueueCapacity(queueCapacity);
+  }
+
+  /**
+   * Bounds the requests which need a node or a worker by a limit adapting to their latency, see
+   * {@link AdaptiveConcurrencyLimit}. Requests beyond the limit are answered with 503 Service
+   * Unavailable on the selector thread right away; requests served from the content cache are always
+   * admitted. May be changed while the server is running.
+   * 
+   * @param minLimit
+   *          number of requests admitted at once at least
+   * @param maxLimit
+   *          number of requests admitted at once at most, 0 disables admission control
+   * @param retryAfter
+   *          seconds clients are asked to wait before retrying a request shed
+   */
+  public synchronized void setAdmissionControl(int minLimit, int maxLimit, int retryAfter) {
+    if (retryAfter < 0) {
+      throw new IllegalArgumentException("'retryAfter' must not be less than 0");
+    }
+    if (maxLimit == 0) {
+      admission = null;
+    } else if (admission == null) {
+      admission = new AdaptiveConcurrencyLimit(minLimit, maxLimit);
+    } else {
+      admission.setLimits(minLimit, maxLimit);
+    }
+    serviceUnavailable = serviceUnavailable(retryAfter);
+  }
+
+  /**
+   * @return the limit requests are admitted by, e.g. to read its state; <code>null</code> if
+   *         admission control is disabled
+   */
+  public AdaptiveConcurrencyLimit getAdmission() {
+    return admission;
+  }
+
+  /**
+   * Lets the master serve files from the given directory itself instead of loading them from the
+   * cluster nodes. Use this if the master runs on the same host as the nodes or can see their web
+   * home. Must be called before {@link #start()}.
+   */
+  public void setColocated(String contentRoot) {
+    if (contentRoot == null) {
+      throw new NullPointerException("'contentRoot' must not be null");
+    }
+    if (contentRoot.trim().length() == 0) {
+      throw new IllegalArgumentException("'contentRoot' must not be empty");
+    }
+    if (isStarted.get()) {
+      throw new IllegalStateException("Server Instance already started");
+    }
+    Path root = Paths.get(contentRoot).toAbsolutePath().normalize();
+    if (!Files.isDirectory(root)) {
+      throw new IllegalArgumentException("'contentRoot' must be a directory: " + root);
+    }
+    this.contentRoot = root;
+  }
+
+  /**
+   * Sets the chunk size files are requested from the cluster nodes with, may be changed while the
+   * server is running.
+   */
+  public void setStreamChunkSize(int streamChunkSize) {
+    if (streamChunkSize <= 0) {
+      throw new IllegalArgumentException("'streamChunkSize' must not be less or equal than 0");
+    }
+    this.streamChunkSize = streamChunkSize;
+  }
+
+  /**
+   * Tunes how fast nodes which stopped answering are taken out of rotation, must be called before
+   * {@link #start()}.
+   * 
+   * @param heartbeatInterval
+   *          milliseconds between two heartbeats to each node
+   * @param phiThreshold
+   *          suspicion level of the phi accrual failure detector a node is evicted at
+   */
+  public void setFailureDetection(long heartbeatInterval, double phiThreshold) {
+    if (isStarted.get()) {
+      throw new IllegalStateException("Server Instance already started");
+    }
+    membership.setFailureDetection(heartbeatInterval, phiThreshold);
+  }
+
+  /**
+   * Enables sending a request a node is slow to answer to a second node as well, the first answer
+   * is served. May be changed while the server is running.
+   * 
+   * @param percentile
+   *          a request is duplicated once it took longer than this percentile of the latest
+   *          requests to its node, e.g. 95
+   * @param budget
+   *          duplicates allowed per request, e.g. 0.05 for at most 5% more requests; 0 disables
+   *          hedging
+   */
+  public void setHedging(double percentile, double budget) {
+    hedging.setHedging(percentile, budget);
+  }
+
+  /**
+   * Sets how the node a request is sent to gets chosen, see {@link BalancingStrategies}. May be
+   * changed while the server is running.
+   */
+  public void setBalancingStrategy(BalancingStrategy strategy) {
+    nodes.setStrategy(strategy);
+  }
+
+  /**
+   * Sizes the cache the master keeps hot content in, may be changed while the server is running.
+   * Resizing keeps the content cached as far as it fits; disabling the cache drops it.
+   * 
+   * @param maxBytes
+   *          number of bytes of content cached at most, 0 disables the cache
+   * @param timeToLive
+   *          milliseconds cached content is served before it is fetched from a node again
+   */
+  public synchronized void setContentCache(long maxBytes, long timeToLive) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("'maxBytes' must not be less than 0");
+    }
+    if (maxBytes == 0) {
+      contentCache = null;
+    } else if (contentCache == null) {
+      contentCache = new ContentCache(maxBytes, timeToLive);
+    } else {
+      contentCache.resize(maxBytes, timeToLive);
+    }
+  }
+
+  /**
+   * @return the cache of hot content, e.g. to invalidate entries or to read its statistics;
+   *         <code>null</code> if disabled
+   */
+  public ContentCache getContentCache() {
+    return contentCache;
+  }
+
   public void start() throws IOException {
 
     Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownInstanceShutdownHook(this)));
 
+    startTransports();
+
+    membership.start();
+
+    hedging.start();
+
     startRMIServer();
 
     startSocketServer();
@@ -310,7 +651,7 @@ public class Server extends UnicastRemoteObject implements IServer {
 
   }
 
-  void handle(HTTPSession session, HTTPRequest request) {
+  void handle(final HTTPSession session, HTTPRequest request) {
     if (session == null) {
       throw new NullPointerException("'session' must not be null");
     }
@@ -318,24 +659,147 @@ public class Server extends UnicastRemoteObject implements IServer {
       throw new NullPointerException("'request' must not be null");
     }
 
-    if (nodes.isEmpty()) {
+    if (contentRoot != null) {
+      // co-located, no need to bother any node
+      if (!admit(session)) {
+        return;
+      }
       try {
-        HTTPResponse error = new HTTPResponse();
-        IllegalStateException e = new IllegalStateException("No Cluster Nodes connected");
-        e.printStackTrace();
-        error.setContent(getSevereErrorPage(e));
-        session.sendResponse(error);
+        service.execute(new LocalHandle(session, request));
+      } catch (RejectedExecutionException e) {
+        shed(session);
+      }
+      return;
+    }
+
+    if (nodes.isEmpty()) {
+      noClusterNodes(session);
+      return;
+    }
+
+    final String uri = resolve(request.getLocation());
+    final String ifNoneMatch = request.getHead("If-None-Match");
+    final String ifModifiedSince = request.getHead("If-Modified-Since");
+    final String range = request.getHead("Range");
+    final String ifRange = request.getHead("If-Range");
+    // the nodes keep a compressed variant of compressible files, the client picks one
+    final String encoding = Repository.isCompressible(uri) && request.acceptsEncoding(ContentInfo.ENCODING_GZIP) ? ContentInfo.ENCODING_GZIP : null;
+
+    ContentCache contentCache = this.contentCache;
+    ContentCache.Entry cached = contentCache != null ? contentCache.get(cacheKey(uri, encoding)) : null;
+    if (cached != null) {
+      // served right here on the selector thread
+      if (isNotModified(ifNoneMatch, ifModifiedSince, cached.getInfo())) {
+        session.sendResponse(notModified(uri, cached.getInfo()));
+        return;
+      }
+      ContentInfo info = cached.getInfo();
+      List<ByteRange> ranges = request.getRanges(info.getLength(), info.getEtag(), info.getLastModified());
+      if (ranges != null) {
+        sendRanges(session, uri, info, cached.getContent(), ranges);
         return;
-      } finally {
-        session.close();
       }
+      HTTPResponse response = new HTTPResponse();
+      response.setContent(cached.getContent());
+      setRepresentation(response, uri, cached.getInfo());
+      session.sendResponse(response);
+      return;
     }
 
-    System.out.println("****************************************************************************************");
-    System.out.println("Handling Request: " + request);
-    System.out.println("****************************************************************************************");
+    if (!admit(session)) {
+      return;
+    }
+
+    // nothing blocks until the node answered, the worker pool is left to co-located serving
+    final MeteredNodeClient node = nodes.next(uri);
+    if (node == null) {
+      noClusterNodes(session);
+      return;
+    }
+    if (ifNoneMatch == null && ifModifiedSince == null && range == null) {
+      new Handle(session, uri, encoding, node).start();
+      return;
+    }
 
-    service.execute(new Handle(session, request, nodes.next()));
+    // revalidation or ranges, ask for the metadata first so only what is needed gets transferred
+    new Conditional(session, uri, encoding, ifNoneMatch, ifModifiedSince, range, ifRange).start(node);
+  }
+
+  /**
+   * Answers a conditional or range request: looks up the metadata of the requested file on a node
+   * first, then sends 304 Not Modified, the ranges or the whole file. A lookup which could not reach
+   * its node or was refused by it is sent to another node, like a {@link Handle} fails over, so the
+   * request keeps its conditions and ranges.
+   */
+  private class Conditional {
+
+    private final HTTPSession session;
+    private final String uri;
+    private final String encoding;
+    private final String ifNoneMatch;
+    private final String ifModifiedSince;
+    private final String range;
+    private final String ifRange;
+    private int attempts;
+
+    public Conditional(HTTPSession session, String uri, String encoding, String ifNoneMatch, String ifModifiedSince, String range, String ifRange) {
+      this.session = session;
+      this.uri = uri;
+      this.encoding = encoding;
+      this.ifNoneMatch = ifNoneMatch;
+      this.ifModifiedSince = ifModifiedSince;
+      this.range = range;
+      this.ifRange = ifRange;
+    }
+
+    public void start(final MeteredNodeClient node) {
+      node.getContentInfo(uri, encoding).whenComplete(new BiConsumer<ContentInfo, Throwable>() {
+        @Override
+        public void accept(final ContentInfo info, final Throwable error) {
+          session.execute(new Runnable() {
+            @Override
+            public void run() {
+              if (info == null) {
+                failed(node, error);
+              } else {
+                answer(node, info);
+              }
+            }
+          });
+        }
+      });
+    }
+
+    private void failed(MeteredNodeClient node, Throwable error) {
+      MeteredNodeClient other = failover(node, uri, error);
+      if (other != node && ++attempts < MAX_NODE_ATTEMPTS) {
+        System.out.println("Retrying [" + uri + "] on Cluster Node [" + other + "]");
+        start(other);
+        return;
+      }
+      // e.g. the file does not exist, the full request answers with the error
+      new Handle(session, uri, encoding, other).start();
+    }
+
+    private void answer(MeteredNodeClient node, ContentInfo info) {
+      if (isNotModified(ifNoneMatch, ifModifiedSince, info)) {
+        session.sendResponse(notModified(uri, info));
+        return;
+      }
+      List<ByteRange> ranges = null;
+      if (range != null && ByteRange.isIfRangeSatisfied(ifRange, info.getEtag(), info.getLastModified())) {
+        ranges = ByteRange.parse(range, info.getLength());
+      }
+      if (ranges == null) {
+        new Handle(session, uri, encoding, node).start();
+      } else if (ranges.isEmpty()) {
+        HTTPResponse response = rangeNotSatisfiable(info.getLength());
+        setValidators(response, uri, info);
+        session.sendResponse(response);
+      } else {
+        new Handle(session, uri, encoding, node, info, ranges).start();
+      }
+    }
   }
 
   public void shutdown() {
@@ -359,6 +823,23 @@ public class Server extends UnicastRemoteObject implements IServer {
         httpServer = null;
       }
 
+      ContentCache contentCache = this.contentCache;
+      if (contentCache != null) {
+        System.out.println("Content cache " + contentCache);
+      }
+      AdaptiveConcurrencyLimit admission = this.admission;
+      if (admission != null) {
+        System.out.println("Admission " + admission);
+      }
+
+      membership.shutdown();
+      hedging.shutdown();
+
+      for (Transport transport : transports.values()) {
+        transport.shutdown();
+      }
+      transports.clear();
+
       isStarted.getAndSet(false);
     } finally {
       isShutdownInProgress.getAndSet(false);
@@ -366,56 +847,691 @@ public class Server extends UnicastRemoteObject implements IServer {
 
   }
 
-  private class Handle implements Runnable {
+  /**
+   * Forwards a file from a node to the client without blocking any thread: the calls to the node
+   * complete asynchronously and each result is handed to the selector thread of the session, which
+   * queues it and asks the node for the next chunk once the client caught up. Ranges are read from
+   * the node one after the other, so only the requested bytes are transferred. A node which takes
+   * unusually long to open the stream is raced by a second one, the stream opened first is served
+   * and the other one closed.
+   */
+  private class Handle {
 
-    private IClusterNode node;
+    private MeteredNodeClient node;
     private HTTPSession session;
-    private HTTPRequest request;
+    private String uri;
+    private String encoding;
+    /** The version of the file the ranges have been resolved against. */
+    private ContentInfo info;
+    /** The ranges to send, <code>null</code> to send the whole file. */
+    private List<ByteRange> ranges;
+    private MultipartByteRanges multipart;
+    private int part;
+    private boolean begun;
+    private int attempts;
+    /** Counts the streams opened, tells answers to an earlier one apart. */
+    private int opening;
+    /** Number of nodes asked to open the current stream which did not answer yet. */
+    private int pending;
+    private boolean answered;
+    private ScheduledFuture<?> hedge;
+    private StreamHandle stream;
+    private long remaining;
+    /** Collects the chunks of content small enough to be cached. */
+    private ByteBuffer cacheable;
+    /** The generation of the cache key when the stream was opened. */
+    private long generation;
+    /** The content cache when the stream was opened, <code>null</code> if disabled. */
+    private ContentCache cache;
+
+    /**
+     * @param encoding
+     *          the content coding the client accepts, <code>null</code> for the plain content
+     */
+    public Handle(HTTPSession session, String uri, String encoding, MeteredNodeClient node) {
+      this(session, uri, encoding, node, null, null);
+    }
 
-    public Handle(HTTPSession session, HTTPRequest request, IClusterNode node) {
+    /**
+     * @param info
+     *          the metadata of the file the ranges have been resolved against
+     * @param ranges
+     *          the satisfiable ranges to send, <code>null</code> to send the whole file
+     */
+    public Handle(HTTPSession session, String uri, String encoding, MeteredNodeClient node, ContentInfo info, List<ByteRange> ranges) {
       if (session == null) {
         throw new NullPointerException("'session' must not be null");
       }
-      if (request == null) {
-        throw new NullPointerException("'request' must not be null");
+      if (uri == null) {
+        throw new NullPointerException("'uri' must not be null");
       }
       if (node == null) {
         throw new NullPointerException("'node' must not be null");
       }
       this.session = session;
-      this.request = request;
+      if (ranges != null && info == null) {
+        throw new NullPointerException("'info' must not be null");
+      }
+      this.uri = uri;
+      this.encoding = encoding;
       this.node = node;
+      this.info = info;
+      this.ranges = ranges;
+      if (ranges != null && ranges.size() > 1) {
+        this.multipart = new MultipartByteRanges(ranges, info.getLength());
+      }
+    }
+
+    public void start() {
+      cache = contentCache;
+      if (cache != null) {
+        // content opened before an invalidation of its key may be outdated, it must not be cached
+        generation = cache.getGeneration(cacheKey(uri, encoding));
+      }
+      final int opening = ++this.opening;
+      pending = 0;
+      answered = false;
+      open(node);
+      hedge = hedging.schedule(node, new Runnable() {
+        @Override
+        public void run() {
+          session.execute(new Runnable() {
+            @Override
+            public void run() {
+              hedge(opening);
+            }
+          });
+        }
+      });
+    }
+
+    private void open(final MeteredNodeClient node) {
+      final int opening = this.opening;
+      BiConsumer<StreamHandle, Throwable> answer = new BiConsumer<StreamHandle, Throwable>() {
+        @Override
+        public void accept(final StreamHandle stream, final Throwable error) {
+          session.execute(new Runnable() {
+            @Override
+            public void run() {
+              opened(node, opening, stream, error);
+            }
+          });
+        }
+      };
+      pending++;
+      try {
+        if (ranges == null) {
+          node.openStream(uri, encoding, streamChunkSize).whenComplete(answer);
+        } else {
+          ByteRange range = ranges.get(part);
+          node.openRange(uri, encoding, range.getOffset(), range.getLength(), streamChunkSize).whenComplete(answer);
+        }
+      } catch (RuntimeException e) {
+        answer.accept(null, e);
+      }
+    }
+
+    /**
+     * Asks a second node to open the stream, if the first one did not answer yet.
+     */
+    private void hedge(int opening) {
+      if (opening != this.opening || answered) {
+        return;
+      }
+      MeteredNodeClient other = nodes.alternative(node);
+      // only if the budget allows, otherwise hedging would add to an overload
+      if (other == null || !hedging.tryAcquire()) {
+        return;
+      }
+      System.out.println("Hedging [" + uri + "] on Cluster Node [" + other + "]");
+      open(other);
+    }
+
+    private void opened(MeteredNodeClient from, int opening, StreamHandle stream, Throwable error) {
+      if (opening != this.opening || answered) {
+        // the other node has been faster
+        close(from, stream);
+        return;
+      }
+      pending--;
+      if (error != null && pending > 0) {
+        // the other node may still open it
+        error = Futures.unwrap(error);
+        if (error instanceof NodeUnavailableException) {
+          membership.suspect(from);
+        }
+        error.printStackTrace();
+        return;
+      }
+      answered = true;
+      if (hedge != null) {
+        hedge.cancel(false);
+        hedge = null;
+      }
+      node = from;
+
+      if (error != null) {
+        error = Futures.unwrap(error);
+        boolean overloaded = NodeOverloadedException.isOverload(error);
+        if ((error instanceof NodeUnavailableException || overloaded) && ++attempts < MAX_NODE_ATTEMPTS) {
+          // nothing of this stream has been sent yet, another node can serve it just as well
+          MeteredNodeClient other = failover(node, uri, error);
+          if (other != node) {
+            System.out.println("Retrying [" + uri + "] on Cluster Node [" + other + "]");
+            node = other;
+            start();
+            return;
+          }
+        }
+        if (begun) {
+          abort(error);
+          return;
+        }
+        if (overloaded) {
+          shed(session);
+          return;
+        }
+        error.printStackTrace();
+        HTTPResponse response = new HTTPResponse();
+        response.setContent(getSevereErrorPage(new IllegalStateException(error)));
+        session.sendResponse(response);
+        return;
+      }
+
+      if (ranges != null && !stream.getInfo().getEtag().equals(info.getEtag())) {
+        // the file changed since the ranges have been resolved, they do not fit any more
+        this.stream = stream;
+        if (begun) {
+          abort(new IOException("[" + uri + "] changed while its ranges were sent"));
+          return;
+        }
+        release();
+        new Handle(session, uri, encoding, node).start();
+        return;
+      }
+
+      if (ranges == null && stream.isComplete()) {
+        HTTPResponse response = new HTTPResponse();
+        response.setContent(stream.getFirstChunk());
+        setRepresentation(response, uri, stream.getInfo());
+        session.sendResponse(response);
+        if (cache != null) {
+          cache.put(cacheKey(uri, encoding), ByteBuffer.wrap(stream.getFirstChunk()), stream.getInfo(), generation);
+        }
+        return;
+      }
+
+      // forward the file chunk by chunk as it arrives, so only one chunk is held at a time
+      this.stream = stream;
+      this.remaining = stream.getLength();
+      try {
+        if (!begun) {
+          begin();
+        }
+        if (multipart != null) {
+          session.sendContent(multipart.getPartHeader(part));
+        }
+      } catch (IOException | RuntimeException e) {
+        abort(e);
+        return;
+      }
+      forward(stream.getFirstChunk(), null);
+    }
+
+    private void begin() throws IOException {
+      HTTPResponse response;
+      if (ranges == null) {
+        if (cache != null && stream.getLength() <= cache.getMaxBytes() / ContentCache.MAX_ENTRY_FRACTION) {
+          cacheable = ByteBuffer.allocate((int) stream.getLength());
+        }
+        response = new HTTPResponse();
+        response.setContentLength(stream.getLength());
+        setRepresentation(response, uri, stream.getInfo());
+      } else {
+        response = partialContent(uri, info, ranges, multipart);
+      }
+      session.beginResponse(response);
+      begun = true;
+    }
+
+    private void forward(byte[] chunk, Throwable error) {
+      try {
+        if (error != null) {
+          throw error;
+        }
+        if (chunk.length == 0) {
+          throw new IOException("Stream " + stream + " ended " + remaining + " bytes early");
+        }
+        session.sendContent(ByteBuffer.wrap(chunk));
+      } catch (Throwable t) {
+        abort(t);
+        return;
+      }
+
+      if (cacheable != null) {
+        cacheable.put(chunk);
+      }
+      remaining -= chunk.length;
+      if (remaining <= 0) {
+        release();
+        if (ranges != null && ++part < ranges.size()) {
+          start();
+          return;
+        }
+        if (multipart != null) {
+          try {
+            session.sendContent(multipart.getClosingDelimiter());
+          } catch (IOException e) {
+            abort(e);
+            return;
+          }
+        }
+        session.endResponse();
+        if (cacheable != null) {
+          cacheable.flip();
+          cache.put(cacheKey(uri, encoding), cacheable, stream.getInfo(), generation);
+        }
+        return;
+      }
+
+      // do not fetch faster than the client reads
+      session.whenWritable(new Runnable() {
+        @Override
+        public void run() {
+          fetch();
+        }
+      });
+    }
+
+    private void fetch() {
+      node.readChunk(stream.getId()).whenComplete(new BiConsumer<byte[], Throwable>() {
+        @Override
+        public void accept(final byte[] chunk, final Throwable error) {
+          session.execute(new Runnable() {
+            @Override
+            public void run() {
+              forward(chunk, Futures.unwrap(error));
+            }
+          });
+        }
+      });
+    }
+
+    private void abort(Throwable error) {
+      if (error instanceof NodeUnavailableException) {
+        membership.suspect(node);
+      }
+      error.printStackTrace();
+      session.abortResponse();
+      release();
+    }
+
+    private void release() {
+      close(node, stream);
+    }
+
+    private void close(NodeClient node, StreamHandle stream) {
+      if (stream == null || stream.isComplete()) {
+        // nothing opened or already released by the node
+        return;
+      }
+      node.closeStream(stream.getId()).whenComplete(new BiConsumer<Void, Throwable>() {
+        @Override
+        public void accept(Void result, Throwable error) {
+          if (error != null) {
+            Futures.unwrap(error).printStackTrace();
+          }
+        }
+      });
+    }
+
+  }
+
+  /**
+   * Serves the request straight from the local file system, the payload is transferred to the
+   * socket by the kernel and never enters the heap.
+   */
+  private class LocalHandle implements Runnable {
+
+    private HTTPSession session;
+    private HTTPRequest request;
+
+    public LocalHandle(HTTPSession session, HTTPRequest request) {
+      if (session == null) {
+        throw new NullPointerException("'session' must not be null");
+      }
+      if (request == null) {
+        throw new NullPointerException("'request' must not be null");
+      }
+      this.session = session;
+      this.request = request;
     }
 
     /** {@inheritDoc} */
     @Override
     public void run() {
       try {
-        String uri = request.getLocation();
-        System.out.println("Requested Location [" + uri + "]");
-
-        if (uri.equals("/")) {
-          uri = uri + "html/index.html";
-        } else {
-          uri = "/html" + uri;
+        String uri = resolve(request.getLocation());
+        Path file = contentRoot.resolve(uri.substring(1)).normalize();
+        // do not let '..' escape the document root
+        if (!file.startsWith(contentRoot.resolve("html")) || !Files.isRegularFile(file)) {
+          HTTPResponse notFound = new HTTPResponse();
+          notFound.setResponseCode(404);
+          notFound.setResponseReason("Not Found");
+          notFound.setContent(getSevereErrorPage(new FileNotFoundException(request.getLocation())));
+          session.sendResponse(notFound);
+          return;
         }
 
-        byte[] b = node.loadFile(uri);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
         HTTPResponse response = new HTTPResponse();
-        response.setContent(b);
+        try {
+          long size = channel.size();
+          ContentInfo info = localInfo(size, Files.getLastModifiedTime(file).toMillis());
+          if (isNotModified(request.getHead("If-None-Match"), request.getHead("If-Modified-Since"), info)) {
+            channel.close();
+            session.sendResponse(notModified(uri, info));
+            return;
+          }
+          // the entity tag is weak, so only the date validates If-Range
+          List<ByteRange> ranges = request.getRanges(size, info.getEtag(), info.getLastModified());
+          if (ranges != null && ranges.isEmpty()) {
+            channel.close();
+            HTTPResponse notSatisfiable = rangeNotSatisfiable(size);
+            setValidators(notSatisfiable, uri, info);
+            session.sendResponse(notSatisfiable);
+            return;
+          }
+          setRepresentation(response, uri, info);
+          if (ranges != null && ranges.size() == 1) {
+            // several ranges are answered with the whole file, a file region can not be framed
+            ByteRange range = ranges.get(0);
+            response.setResponseCode(206);
+            response.setResponseReason("Partial Content");
+            response.setHeader("Content-Range", range.toContentRange(size));
+            response.setContent(channel, range.getOffset(), range.getLength());
+          } else {
+            response.setContent(channel, 0, size);
+          }
+        } catch (IOException | RuntimeException e) {
+          channel.close();
+          throw e;
+        }
         session.sendResponse(response);
       } catch (Exception e) {
         e.printStackTrace();
         HTTPResponse error = new HTTPResponse();
         error.setContent(getSevereErrorPage(new IllegalStateException(e)));
         session.sendResponse(error);
-      } finally {
-        session.close();
       }
     }
 
   }
 
+  /**
+   * Describes a file served without a repository. Nobody computed a checksum of its content, so the
+   * entity tag is a weak one made of its length and modification time.
+   */
+  static ContentInfo localInfo(long length, long lastModified) {
+    return new ContentInfo(length, lastModified, "W/\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"");
+  }
+
+  /**
+   * Evaluates the conditional headers of a request against the current metadata of the file. As
+   * demanded by RFC 7232, If-Modified-Since is ignored if If-None-Match is present.
+   */
+  static boolean isNotModified(String ifNoneMatch, String ifModifiedSince, ContentInfo info) {
+    if (ifNoneMatch != null) {
+      // weak comparison is good enough for GET
+      String etag = opaqueTag(info.getEtag());
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = opaqueTag(tag.trim());
+        if (tag.equals("*") || tag.equals(etag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    long since = HTTPDate.parse(ifModifiedSince);
+    // HTTP dates have a resolution of seconds
+    return since >= 0 && info.getLastModified() / 1000 <= since / 1000;
+  }
+
+  /**
+   * @return the given entity tag without the weakness indicator
+   */
+  private static String opaqueTag(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+
+  private static void setValidators(HTTPResponse response, String uri, ContentInfo info) {
+    response.setHeader("ETag", info.getEtag());
+    response.setHeader("Last-Modified", HTTPDate.format(info.getLastModified()));
+    if (Repository.isCompressible(uri)) {
+      // shared caches must not hand the compressed variant to clients which do not accept it
+      response.setHeader("Vary", "Accept-Encoding");
+    }
+  }
+
+  /**
+   * Describes the variant of the file sent in the response.
+   */
+  private static void setRepresentation(HTTPResponse response, String uri, ContentInfo info) {
+    setValidators(response, uri, info);
+    response.setHeader("Accept-Ranges", "bytes");
+    if (info.getEncoding() != null) {
+      response.setHeader("Content-Encoding", info.getEncoding());
+    }
+  }
+
+  /**
+   * @param multipart
+   *          the framing of the parts, <code>null</code> if there is a single range only
+   */
+  private static HTTPResponse partialContent(String uri, ContentInfo info, List<ByteRange> ranges, MultipartByteRanges multipart) {
+    HTTPResponse response = new HTTPResponse();
+    response.setResponseCode(206);
+    response.setResponseReason("Partial Content");
+    setRepresentation(response, uri, info);
+    if (multipart == null) {
+      response.setHeader("Content-Range", ranges.get(0).toContentRange(info.getLength()));
+      response.setContentLength(ranges.get(0).getLength());
+    } else {
+      response.setHeader("Content-Type", multipart.getContentType());
+      response.setContentLength(multipart.getContentLength());
+    }
+    return response;
+  }
+
+  /**
+   * Sends ranges of cached content, the parts are views on the cached buffer and never copied.
+   */
+  private static void sendRanges(HTTPSession session, String uri, ContentInfo info, ByteBuffer content, List<ByteRange> ranges) {
+    if (ranges.isEmpty()) {
+      HTTPResponse response = rangeNotSatisfiable(info.getLength());
+      setValidators(response, uri, info);
+      session.sendResponse(response);
+      return;
+    }
+    if (ranges.size() == 1) {
+      HTTPResponse response = partialContent(uri, info, ranges, null);
+      response.setContent(slice(content, ranges.get(0)));
+      session.sendResponse(response);
+      return;
+    }
+
+    MultipartByteRanges multipart = new MultipartByteRanges(ranges, info.getLength());
+    try {
+      session.beginResponse(partialContent(uri, info, ranges, multipart));
+      for (int i = 0; i < ranges.size(); i++) {
+        session.sendContent(multipart.getPartHeader(i));
+        session.sendContent(slice(content, ranges.get(i)));
+      }
+      session.sendContent(multipart.getClosingDelimiter());
+      session.endResponse();
+    } catch (IOException e) {
+      session.abortResponse();
+    }
+  }
+
+  /**
+   * Evicts a node a call could not reach. A node refusing a call because it is saturated is healthy,
+   * the call goes to another node with spare capacity then.
+   * 
+   * @return the node to send the call to instead, the given one if the call failed for another reason
+   *         or no other node is left
+   */
+  private MeteredNodeClient failover(MeteredNodeClient node, String uri, Throwable error) {
+    if (NodeOverloadedException.isOverload(error)) {
+      MeteredNodeClient other = nodes.alternative(node);
+      return other != null ? other : node;
+    }
+    if (!(Futures.unwrap(error) instanceof NodeUnavailableException)) {
+      return node;
+    }
+    membership.suspect(node);
+    MeteredNodeClient other = nodes.next(uri);
+    return other != null ? other : node;
+  }
+
+  /**
+   * Admits a request which needs a node or a worker, or answers it right away if as many as the limit
+   * allows are in progress. An admitted request is released once its response has been queued
+   * completely, so a file streamed from a node counts until its last chunk has been read; the latency
+   * the limit adapts to spans the same time.
+   * 
+   * @return <code>true</code> if the request has been admitted
+   */
+  private boolean admit(HTTPSession session) {
+    final AdaptiveConcurrencyLimit admission = this.admission;
+    if (admission == null) {
+      return true;
+    }
+    if (!admission.tryAcquire()) {
+      // queueing it would only make every request wait longer
+      session.sendResponse(serviceUnavailable);
+      return false;
+    }
+    final long admitted = System.nanoTime();
+    session.whenAnswered(new Runnable() {
+      @Override
+      public void run() {
+        admission.release(System.nanoTime() - admitted);
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Answers an admitted request which could not be served because the workers or the nodes are
+   * saturated, and lowers the admission limit accordingly.
+   */
+  private void shed(HTTPSession session) {
+    AdaptiveConcurrencyLimit admission = this.admission;
+    if (admission != null) {
+      admission.overloaded();
+    }
+    session.sendResponse(serviceUnavailable);
+  }
+
+  private static EncodedResponse serviceUnavailable(int retryAfter) {
+    HTTPResponse response = new HTTPResponse();
+    response.setResponseCode(503);
+    response.setResponseReason("Service Unavailable");
+    response.setHeader("Retry-After", String.valueOf(retryAfter));
+    response.setContent("<html><body><h1>Service Unavailable</h1></body></html>".getBytes(Charset.forName("UTF-8")));
+    return new EncodedResponse(response);
+  }
+
+  private static void noClusterNodes(HTTPSession session) {
+    HTTPResponse error = new HTTPResponse();
+    IllegalStateException e = new IllegalStateException("No Cluster Nodes connected");
+    e.printStackTrace();
+    error.setContent(getSevereErrorPage(e));
+    session.sendResponse(error);
+  }
+
+  private static ByteBuffer slice(ByteBuffer content, ByteRange range) {
+    ByteBuffer slice = content.duplicate();
+    slice.position((int) range.getOffset());
+    slice.limit((int) (range.getOffset() + range.getLength()));
+    return slice.slice();
+  }
+
+  private static HTTPResponse rangeNotSatisfiable(long fileLength) {
+    HTTPResponse response = new HTTPResponse();
+    response.setResponseCode(416);
+    response.setResponseReason("Range Not Satisfiable");
+    response.setHeader("Content-Range", "bytes */" + fileLength);
+    // an empty body, announced so the connection can be reused
+    response.setContent(new byte[0]);
+    return response;
+  }
+
+  private static HTTPResponse notModified(String uri, ContentInfo info) {
+    HTTPResponse response = new HTTPResponse();
+    response.setResponseCode(304);
+    response.setResponseReason("Not Modified");
+    setValidators(response, uri, info);
+    return response;
+  }
+
+  /**
+   * Variants of a file are cached side by side, keyed by the content coding the client accepts.
+   */
+  static String cacheKey(String uri, String encoding) {
+    return encoding != null ? uri + ";" + encoding : uri;
+  }
+
+  /**
+   * Maps the requested location onto the URI of the file below the web home. Aliases of a file, e.g.
+   * <code>/./index.html</code> or <code>/x/../index.html</code>, map onto the same URI, so they share
+   * an entry of the cache.
+   */
+  static String resolve(String location) {
+    int query = location.indexOf('?');
+    if (query >= 0) {
+      location = location.substring(0, query);
+    }
+
+    location = normalize(location);
+    if (location.equals("/")) {
+      return location + "html/index.html";
+    }
+    return "/html" + location;
+  }
+
+  /**
+   * Removes empty and dot segments from the given path, <code>..</code> never climbs above the root.
+   * 
+   * @return the path starting with a slash, which is the only one left of the root
+   */
+  static String normalize(String path) {
+    Deque<String> segments = new ArrayDeque<String>();
+    for (String segment : path.split("/")) {
+      if (segment.equals("..")) {
+        segments.pollLast();
+      } else if (segment.length() > 0 && !segment.equals(".")) {
+        segments.addLast(segment);
+      }
+    }
+    if (segments.isEmpty()) {
+      return "/";
+    }
+    StringBuilder normalized = new StringBuilder();
+    for (String segment : segments) {
+      normalized.append('/').append(segment);
+    }
+    return normalized.toString();
+  }
+
+  private void startTransports() throws IOException {
+    Transport rmi = new RMITransport();
+    transports.put(rmi.getName(), rmi);
+    Transport binary = new BinaryTransport(nodeCallTimeout);
+    transports.put(binary.getName(), binary);
+  }
+
   private void startRMIServer() {
     try {
       registry = LocateRegistry.createRegistry(portRMI);
@@ -428,7 +1544,7 @@ public class Server extends UnicastRemoteObject implements IServer {
 
   private void startSocketServer() {
     try {
-      httpServer = new HTTPServer(new InetSocketAddress(portHTTP));
+      httpServer = new HTTPServer(new InetSocketAddress(portHTTP), selectorThreads);
       httpServer.start();
     } catch (IOException e) {
       e.printStackTrace();
@@ -0,0 +1,89 @@
+
+package at.amarktl.cluster;
+
+import java.io.Serializable;
+
+import at.amarktl.bootstrap.ContentInfo;
+
+/**
+ * Describes a file stream opened on a cluster node by {@link IClusterNode#openStream(String, String, int)}.
+ * The first chunk is shipped along with the handle, so files not larger than one chunk are
+ * transferred with a single call. StreamHandle is immutable.
+ */
+public final class StreamHandle implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long id;
+  private final long length;
+  private final int chunkSize;
+  private final byte[] firstChunk;
+  private final ContentInfo info;
+
+  public StreamHandle(long id, long length, int chunkSize, byte[] firstChunk, ContentInfo info) {
+    if (length < 0) {
+      throw new IllegalArgumentException("'length' must not be less than 0");
+    }
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("'chunkSize' must not be less or equal than 0");
+    }
+    if (firstChunk == null) {
+      throw new NullPointerException("'firstChunk' must not be null");
+    }
+    if (info == null) {
+      throw new NullPointerException("'info' must not be null");
+    }
+    this.id = id;
+    this.length = length;
+    this.chunkSize = chunkSize;
+    this.firstChunk = firstChunk;
+    this.info = info;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @return the total number of bytes of the file
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return the chunk size granted by the node, which may differ from the requested one
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public byte[] getFirstChunk() {
+    return firstChunk;
+  }
+
+  /**
+   * @return the metadata of the file, shipped along so the master learns it with every transfer
+   */
+  public ContentInfo getInfo() {
+    return info;
+  }
+
+  /**
+   * @return <code>true</code> if the first chunk already holds the whole file; the node has released
+   *         the stream then and it must not be read or closed any more
+   */
+  public boolean isComplete() {
+    return firstChunk.length == length;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "[stream " + id + ", " + length + " bytes, chunks of " + chunkSize + " bytes]";
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
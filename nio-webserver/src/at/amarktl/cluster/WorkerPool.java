@@ -0,0 +1,281 @@
+
+package at.amarktl.cluster;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking work of the master and the cluster nodes, which mostly waits for remote calls
+ * and file reads. By default the tasks run on a fixed pool of platform threads, one thread per task
+ * running at once. With virtual threads each task gets a virtual thread of its own and a semaphore
+ * bounds how many of them run at once instead, so a waiting task costs a few hundred bytes rather
+ * than a thread stack. Virtual threads are looked up at runtime; on JVMs without them the pool falls
+ * back to platform threads. Either way the concurrency may be changed while tasks are running.
+ * <p>
+ * The tasks waiting for their turn may be bounded, further ones are rejected with a
+ * {@link RejectedExecutionException} then; under overload a caller learns about it right away
+ * instead of its task waiting longer and longer in a queue growing without bound.
+ */
+public final class WorkerPool extends AbstractExecutorService {
+
+  /** Number of tasks the master and the nodes let wait for their turn unless configured otherwise. */
+  public static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+  /** <code>Executors.newVirtualThreadPerTaskExecutor()</code>, <code>null</code> if not available. */
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookupVirtualThreads();
+
+  private final String name;
+  private final ExecutorService delegate;
+  /** Bounds the tasks running at once on virtual threads, <code>null</code> on platform threads. */
+  private final Limit limit;
+  /** Written while holding this. */
+  private volatile int concurrency;
+  private volatile int queueCapacity = Integer.MAX_VALUE;
+  /** Number of tasks running or waiting for their turn. */
+  private final AtomicInteger admitted = new AtomicInteger();
+
+  /**
+   * @param name
+   *          prefix of the names of the platform threads
+   * @param concurrency
+   *          number of tasks running at once at most, further ones wait for their turn
+   * @param virtualThreads
+   *          <code>true</code> to run each task on a virtual thread if the JVM supports them
+   */
+  public WorkerPool(final String name, int concurrency, boolean virtualThreads) {
+    if (name == null) {
+      throw new NullPointerException("'name' must not be null");
+    }
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("'concurrency' must not be less or equal than 0");
+    }
+    this.name = name;
+    this.concurrency = concurrency;
+
+    ExecutorService virtual = null;
+    if (virtualThreads) {
+      virtual = newVirtualThreadPerTaskExecutor();
+      if (virtual == null) {
+        System.out.println("Virtual threads are not supported by this JVM, [" + name + "] runs on " + concurrency + " platform threads");
+      }
+    }
+
+    if (virtual != null) {
+      this.delegate = virtual;
+      this.limit = new Limit(concurrency);
+    } else {
+      final AtomicInteger threads = new AtomicInteger();
+      this.delegate = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            return new Thread(r, name + "-" + threads.incrementAndGet());
+          }
+        });
+      this.limit = null;
+    }
+  }
+
+  private static Method lookupVirtualThreads() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+      return null;
+    }
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // e.g. a preview feature which has not been enabled
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if the JVM supports virtual threads
+   */
+  public static boolean isVirtualThreadsSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * @return <code>true</code> if the tasks run on virtual threads
+   */
+  public boolean isVirtual() {
+    return limit != null;
+  }
+
+  public int getConcurrency() {
+    return concurrency;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  /**
+   * Bounds the number of tasks waiting for their turn, may be changed while tasks are running.
+   *
+   * @param queueCapacity
+   *          number of tasks waiting at most, further ones are rejected; 0 rejects every task which
+   *          can not run right away
+   */
+  public void setQueueCapacity(int queueCapacity) {
+    if (queueCapacity < 0) {
+      throw new IllegalArgumentException("'queueCapacity' must not be less than 0");
+    }
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * @return the number of tasks running or waiting for their turn
+   */
+  public int getAdmitted() {
+    return admitted.get();
+  }
+
+  /**
+   * Changes the number of tasks running at once at most. Tasks beyond a lowered limit finish
+   * undisturbed, further ones wait until the number of running tasks dropped below it.
+   */
+  public synchronized void setConcurrency(int concurrency) {
+    if (concurrency <= 0) {
+      throw new IllegalArgumentException("'concurrency' must not be less or equal than 0");
+    }
+    if (limit != null) {
+      limit.resize(concurrency - this.concurrency);
+    } else {
+      ThreadPoolExecutor pool = (ThreadPoolExecutor) delegate;
+      // the core size must never exceed the maximum
+      if (concurrency > pool.getMaximumPoolSize()) {
+        pool.setMaximumPoolSize(concurrency);
+        pool.setCorePoolSize(concurrency);
+      } else {
+        pool.setCorePoolSize(concurrency);
+        pool.setMaximumPoolSize(concurrency);
+      }
+    }
+    this.concurrency = concurrency;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void execute(final Runnable command) {
+    if (command == null) {
+      throw new NullPointerException("'command' must not be null");
+    }
+    // counted here rather than by a bounded queue, so the bound follows changes of the concurrency
+    if (admitted.incrementAndGet() > (long) concurrency + queueCapacity) {
+      admitted.decrementAndGet();
+      throw new RejectedExecutionException(this + " is saturated");
+    }
+    try {
+      delegate.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (limit == null) {
+              command.run();
+              return;
+            }
+            try {
+              // parks the virtual thread only, not a carrier
+              limit.acquire();
+            } catch (InterruptedException e) {
+              // the pool is shutting down
+              Thread.currentThread().interrupt();
+              return;
+            }
+            try {
+              command.run();
+            } finally {
+              limit.release();
+            }
+          } finally {
+            admitted.decrementAndGet();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      admitted.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public List<Runnable> shutdownNow() {
+    return delegate.shutdownNow();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "[" + name + ", " + getConcurrency() + (isVirtual() ? " tasks on virtual threads]" : " platform threads]");
+  }
+
+  /**
+   * Semaphore whose number of permits may shrink while they are taken.
+   */
+  private static final class Limit extends Semaphore {
+
+    private static final long serialVersionUID = 1L;
+
+    Limit(int permits) {
+      super(permits, true);
+    }
+
+    void resize(int delta) {
+      if (delta > 0) {
+        release(delta);
+      } else if (delta < 0) {
+        // may go negative, permits then have to be released before another one is handed out
+        reducePermits(-delta);
+      }
+    }
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,107 @@
+
+package at.amarktl.cluster.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import at.amarktl.bootstrap.ContentInfo;
+
+/**
+ * Wire format of the binary transport. Every message is a frame of
+ *
+ * <pre>
+ * int32 length | int32 request id | int8 type | payload
+ * </pre>
+ *
+ * where length counts everything after the length field. Requests carry one of the operation
+ * types, responses echo the request id and carry {@link #OK}, {@link #ERROR} or {@link #OVERLOADED}
+ * with an error message. Strings are encoded
+ * as uint16 byte count followed by the UTF-8 bytes, optional strings are empty if absent.
+ */
+final class BinaryProtocol {
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /** Guards against corrupt length fields. */
+  static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+  static final int HEADER_LENGTH = 9;
+
+  static final byte LOAD_FILE = 1;
+  static final byte OPEN_STREAM = 2;
+  static final byte READ_CHUNK = 3;
+  static final byte CLOSE_STREAM = 4;
+  static final byte GET_CONTENT_INFO = 5;
+  static final byte OPEN_RANGE = 6;
+  static final byte PING = 7;
+
+  static final byte OK = 0;
+  static final byte ERROR = -1;
+  /** The node refused the call because it is saturated. */
+  static final byte OVERLOADED = -2;
+
+  private BinaryProtocol() {
+  }
+
+  static ByteBuffer header(int id, byte type, long payloadLength) {
+    if (payloadLength + HEADER_LENGTH - 4 > MAX_FRAME_LENGTH) {
+      throw new IllegalArgumentException("Frame exceeds " + MAX_FRAME_LENGTH + " bytes");
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    header.putInt((int) (payloadLength + HEADER_LENGTH - 4)).putInt(id).put(type);
+    header.flip();
+    return header;
+  }
+
+  static ByteBuffer string(String s) {
+    byte[] b = s.getBytes(UTF8);
+    ByteBuffer buffer = ByteBuffer.allocate(2 + b.length);
+    buffer.putShort((short) b.length).put(b);
+    buffer.flip();
+    return buffer;
+  }
+
+  static String getString(ByteBuffer buffer) {
+    byte[] b = new byte[buffer.getShort() & 0xffff];
+    buffer.get(b);
+    return new String(b, UTF8);
+  }
+
+  static ByteBuffer optionalString(String s) {
+    return string(s != null ? s : "");
+  }
+
+  static String getOptionalString(ByteBuffer buffer) {
+    String s = getString(buffer);
+    return s.length() > 0 ? s : null;
+  }
+
+  /**
+   * Encodes the metadata of a file as int64 length | int64 last modified | etag | optional encoding.
+   */
+  static ByteBuffer info(ContentInfo info) {
+    byte[] etag = info.getEtag().getBytes(UTF8);
+    byte[] encoding = info.getEncoding() != null ? info.getEncoding().getBytes(UTF8) : new byte[0];
+    ByteBuffer buffer = ByteBuffer.allocate(20 + etag.length + encoding.length);
+    buffer.putLong(info.getLength()).putLong(info.getLastModified());
+    buffer.putShort((short) etag.length).put(etag).putShort((short) encoding.length).put(encoding);
+    buffer.flip();
+    return buffer;
+  }
+
+  static ContentInfo getInfo(ByteBuffer buffer) {
+    long length = buffer.getLong();
+    long lastModified = buffer.getLong();
+    String etag = getString(buffer);
+    return new ContentInfo(length, lastModified, etag, getOptionalString(buffer));
+  }
+
+  static byte[] getBytes(ByteBuffer buffer) {
+    byte[] b = new byte[buffer.remaining()];
+    buffer.get(b);
+    return b;
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,307 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.NodeDescriptor;
+import at.amarktl.cluster.StreamHandle;
+
+/**
+ * Talks to the nodes by a compact length-prefixed binary protocol (see {@link BinaryProtocol}). The
+ * master keeps one persistent connection per node which is shared by all concurrent calls; responses
+ * are matched to their calls by request id. A single selector thread serves the connections to all
+ * nodes and completes the futures of the calls, no thread waits for a node to answer. A connection
+ * lost, e.g. by a network failure or a corrupt frame, is established again by the next call, so a
+ * node can be readmitted once its heartbeat answers again.
+ */
+public class BinaryTransport implements Transport {
+
+  private final FrameLoop loop;
+  private final long callTimeout;
+  private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "binary-transport-timeouts");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * @param callTimeout
+   *          milliseconds to wait for the response of a node
+   */
+  public BinaryTransport(long callTimeout) throws IOException {
+    if (callTimeout <= 0) {
+      throw new IllegalArgumentException("'callTimeout' must not be less or equal than 0");
+    }
+    this.callTimeout = callTimeout;
+    this.loop = new FrameLoop("binary-transport");
+    this.loop.start();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String getName() {
+    return NodeDescriptor.TRANSPORT_BINARY;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public NodeClient connect(NodeDescriptor node) throws IOException {
+    if (node == null) {
+      throw new NullPointerException("'node' must not be null");
+    }
+    SocketChannel channel = SocketChannel.open(new InetSocketAddress(node.getHost(), node.getTransportPort()));
+    BinaryNodeClient client = new BinaryNodeClient(node);
+    client.connection = loop.register(channel, client);
+    return client;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void shutdown() {
+    loop.shutdown();
+    timeouts.shutdownNow();
+  }
+
+  private static final Function<ByteBuffer, byte[]> BYTES = new Function<ByteBuffer, byte[]>() {
+    @Override
+    public byte[] apply(ByteBuffer response) {
+      return BinaryProtocol.getBytes(response);
+    }
+  };
+
+  private static final Function<ByteBuffer, StreamHandle> STREAM_HANDLE = new Function<ByteBuffer, StreamHandle>() {
+    @Override
+    public StreamHandle apply(ByteBuffer response) {
+      long id = response.getLong();
+      long length = response.getLong();
+      int chunkSize = response.getInt();
+      ContentInfo info = BinaryProtocol.getInfo(response);
+      return new StreamHandle(id, length, chunkSize, BinaryProtocol.getBytes(response), info);
+    }
+  };
+
+  private class BinaryNodeClient implements NodeClient, FrameConnection.Handler {
+
+    private final NodeDescriptor descriptor;
+    private final Map<Integer, Call> pending = new ConcurrentHashMap<Integer, Call>();
+    private final AtomicInteger ids = new AtomicInteger();
+    /** Replaced once it has been closed, guarded by this. */
+    private volatile FrameConnection connection;
+    /** Set once the client has been closed, its connection is not established again then. */
+    private volatile boolean closed = false;
+
+    public BinaryNodeClient(NodeDescriptor descriptor) {
+      this.descriptor = descriptor;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public NodeDescriptor getDescriptor() {
+      return descriptor;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<byte[]> loadFile(String uri) {
+      return call(BinaryProtocol.LOAD_FILE, BinaryProtocol.string(uri)).thenApply(BYTES);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<ContentInfo> getContentInfo(String uri, String encoding) {
+      return call(BinaryProtocol.GET_CONTENT_INFO, BinaryProtocol.string(uri), BinaryProtocol.optionalString(encoding)).thenApply(new Function<ByteBuffer, ContentInfo>() {
+        @Override
+        public ContentInfo apply(ByteBuffer response) {
+          return BinaryProtocol.getInfo(response);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<StreamHandle> openStream(String uri, String encoding, int chunkSize) {
+      ByteBuffer size = ByteBuffer.allocate(4);
+      size.putInt(chunkSize).flip();
+      return call(BinaryProtocol.OPEN_STREAM, BinaryProtocol.string(uri), BinaryProtocol.optionalString(encoding), size).thenApply(STREAM_HANDLE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<StreamHandle> openRange(String uri, String encoding, long offset, long length, int chunkSize) {
+      ByteBuffer range = ByteBuffer.allocate(20);
+      range.putLong(offset).putLong(length).putInt(chunkSize).flip();
+      return call(BinaryProtocol.OPEN_RANGE, BinaryProtocol.string(uri), BinaryProtocol.optionalString(encoding), range).thenApply(STREAM_HANDLE);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<byte[]> readChunk(long streamId) {
+      return call(BinaryProtocol.READ_CHUNK, streamId(streamId)).thenApply(BYTES);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> closeStream(long streamId) {
+      return call(BinaryProtocol.CLOSE_STREAM, streamId(streamId)).thenApply(new Function<ByteBuffer, Void>() {
+        @Override
+        public Void apply(ByteBuffer response) {
+          return null;
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> ping() {
+      return call(BinaryProtocol.PING).thenApply(new Function<ByteBuffer, Void>() {
+        @Override
+        public Void apply(ByteBuffer response) {
+          return null;
+        }
+      });
+    }
+
+    private ByteBuffer streamId(long streamId) {
+      ByteBuffer buffer = ByteBuffer.allocate(8);
+      buffer.putLong(streamId).flip();
+      return buffer;
+    }
+
+    /**
+     * @return the connection to the node, a new one if the last one has been closed
+     */
+    private FrameConnection connection() throws IOException {
+      FrameConnection current = connection;
+      if (!current.isClosed() || closed) {
+        return current;
+      }
+      synchronized (this) {
+        if (connection.isClosed()) {
+          System.out.println("Reconnecting to [" + descriptor.getIdentifier() + "]");
+          connection = loop.connect(new InetSocketAddress(descriptor.getHost(), descriptor.getTransportPort()), this);
+        }
+        return connection;
+      }
+    }
+
+    private CompletableFuture<ByteBuffer> call(byte type, ByteBuffer... payload) {
+      final int id = ids.incrementAndGet();
+      final Call call;
+      try {
+        call = new Call(connection());
+      } catch (IOException e) {
+        CompletableFuture<ByteBuffer> failed = new CompletableFuture<ByteBuffer>();
+        failed.completeExceptionally(new NodeUnavailableException("Failed to connect to [" + descriptor.getIdentifier() + "]", e));
+        return failed;
+      }
+      pending.put(id, call);
+      try {
+        call.connection.send(id, type, payload);
+      } catch (IOException e) {
+        pending.remove(id);
+        call.completeExceptionally(new NodeUnavailableException("Failed to send to [" + descriptor.getIdentifier() + "]", e));
+        return call;
+      }
+
+      final ScheduledFuture<?> timeout = timeouts.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (pending.remove(id) != null) {
+            call.completeExceptionally(new NodeUnavailableException("No response from [" + descriptor.getIdentifier() + "] within " + callTimeout + " ms"));
+          }
+        }
+      }, callTimeout, TimeUnit.MILLISECONDS);
+      call.whenComplete(new BiConsumer<ByteBuffer, Throwable>() {
+        @Override
+        public void accept(ByteBuffer result, Throwable error) {
+          timeout.cancel(false);
+        }
+      });
+      return call;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onFrame(FrameConnection connection, int id, byte type, ByteBuffer payload) {
+      Call call = pending.remove(id);
+      if (call == null) {
+        // timed out in the meantime
+        return;
+      }
+      if (type == BinaryProtocol.ERROR) {
+        call.completeExceptionally(new IOException("Cluster Node [" + descriptor.getIdentifier() + "] failed: " + BinaryProtocol.getString(payload)));
+        return;
+      }
+      if (type == BinaryProtocol.OVERLOADED) {
+        call.completeExceptionally(new NodeOverloadedException("Cluster Node [" + descriptor.getIdentifier() + "] overloaded: " + BinaryProtocol.getString(payload)));
+        return;
+      }
+      // the payload is only valid during this call
+      ByteBuffer result = ByteBuffer.allocate(payload.remaining());
+      result.put(payload).flip();
+      call.complete(result);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void onClose(FrameConnection connection, IOException cause) {
+      Iterator<Call> i = pending.values().iterator();
+      while (i.hasNext()) {
+        Call call = i.next();
+        // calls sent on a connection established since then are still answered
+        if (call.connection == connection) {
+          i.remove();
+          call.completeExceptionally(new NodeUnavailableException("Connection to [" + descriptor.getIdentifier() + "] lost", cause));
+        }
+      }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+      closed = true;
+      connection.close(new IOException("Connection to [" + descriptor.getIdentifier() + "] closed"));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return descriptor.toString();
+    }
+  }
+
+  /**
+   * A call waiting for its response, along with the connection it has been sent on.
+   */
+  private static final class Call extends CompletableFuture<ByteBuffer> {
+
+    private final FrameConnection connection;
+
+    Call(FrameConnection connection) {
+      this.connection = connection;
+    }
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
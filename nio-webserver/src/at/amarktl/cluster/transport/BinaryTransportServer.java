@@ -0,0 +1,186 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.function.BiConsumer;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.StreamHandle;
+
+/**
+ * Node side of the {@link BinaryTransport}: accepts the connections of the master and answers the
+ * calls on them by invoking the local {@link NodeService}. Each answer is sent as soon as its future
+ * completes, no thread is kept waiting for it.
+ */
+public class BinaryTransportServer implements FrameConnection.Handler {
+
+  private final NodeService node;
+  private final InetSocketAddress address;
+  private final FrameLoop loop;
+  private ServerSocketChannel server;
+
+  public BinaryTransportServer(NodeService node, InetSocketAddress address) throws IOException {
+    if (node == null) {
+      throw new NullPointerException("'node' must not be null");
+    }
+    if (address == null) {
+      throw new NullPointerException("'address' must not be null");
+    }
+    this.node = node;
+    this.address = address;
+    this.loop = new FrameLoop("binary-transport-" + address.getPort());
+  }
+
+  public void start() throws IOException {
+    server = ServerSocketChannel.open();
+    server.socket().bind(address);
+    loop.listen(server, this);
+    loop.start();
+  }
+
+  public void shutdown() {
+    loop.shutdown();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void onFrame(FrameConnection connection, int id, byte type, ByteBuffer payload) {
+    // decode on the loop thread, the payload is not valid afterwards
+    try {
+      switch (type) {
+        case BinaryProtocol.LOAD_FILE:
+          node.loadFile(BinaryProtocol.getString(payload)).whenComplete(new Reply<byte[]>(connection, id) {
+            @Override
+            ByteBuffer[] encode(byte[] content) {
+              return new ByteBuffer[] { ByteBuffer.wrap(content) };
+            }
+          });
+          break;
+        case BinaryProtocol.GET_CONTENT_INFO:
+          node.getContentInfo(BinaryProtocol.getString(payload), BinaryProtocol.getOptionalString(payload)).whenComplete(new Reply<ContentInfo>(connection, id) {
+            @Override
+            ByteBuffer[] encode(ContentInfo info) {
+              return new ByteBuffer[] { BinaryProtocol.info(info) };
+            }
+          });
+          break;
+        case BinaryProtocol.OPEN_STREAM:
+          String uri = BinaryProtocol.getString(payload);
+          String encoding = BinaryProtocol.getOptionalString(payload);
+          node.openStream(uri, encoding, payload.getInt()).whenComplete(new StreamReply(connection, id));
+          break;
+        case BinaryProtocol.OPEN_RANGE:
+          uri = BinaryProtocol.getString(payload);
+          encoding = BinaryProtocol.getOptionalString(payload);
+          node.openRange(uri, encoding, payload.getLong(), payload.getLong(), payload.getInt()).whenComplete(new StreamReply(connection, id));
+          break;
+        case BinaryProtocol.READ_CHUNK:
+          node.readChunk(payload.getLong()).whenComplete(new Reply<byte[]>(connection, id) {
+            @Override
+            ByteBuffer[] encode(byte[] chunk) {
+              return new ByteBuffer[] { ByteBuffer.wrap(chunk) };
+            }
+          });
+          break;
+        case BinaryProtocol.CLOSE_STREAM:
+          node.closeStream(payload.getLong()).whenComplete(new Reply<Void>(connection, id) {
+            @Override
+            ByteBuffer[] encode(Void result) {
+              return new ByteBuffer[0];
+            }
+          });
+          break;
+        case BinaryProtocol.PING:
+          node.ping().whenComplete(new Reply<Void>(connection, id) {
+            @Override
+            ByteBuffer[] encode(Void result) {
+              return new ByteBuffer[0];
+            }
+          });
+          break;
+        default:
+          reply(connection, id, BinaryProtocol.ERROR, BinaryProtocol.string("Unknown operation " + type));
+          break;
+      }
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      reply(connection, id, BinaryProtocol.ERROR, BinaryProtocol.string(String.valueOf(e.getMessage())));
+    }
+  }
+
+  /**
+   * Answers a call once the future of the node operation completed.
+   */
+  private abstract class Reply<T> implements BiConsumer<T, Throwable> {
+
+    private final FrameConnection connection;
+    private final int id;
+
+    public Reply(FrameConnection connection, int id) {
+      this.connection = connection;
+      this.id = id;
+    }
+
+    abstract ByteBuffer[] encode(T result);
+
+    /** {@inheritDoc} */
+    @Override
+    public void accept(T result, Throwable error) {
+      if (error != null) {
+        error = Futures.unwrap(error);
+        if (NodeOverloadedException.isOverload(error)) {
+          // expected under load, the master tries another node or sheds the request
+          reply(connection, id, BinaryProtocol.OVERLOADED, BinaryProtocol.string(String.valueOf(error.getMessage())));
+          return;
+        }
+        error.printStackTrace();
+        reply(connection, id, BinaryProtocol.ERROR, BinaryProtocol.string(String.valueOf(error.getMessage())));
+        return;
+      }
+      reply(connection, id, BinaryProtocol.OK, encode(result));
+    }
+  }
+
+  /**
+   * Answers the opening of a stream with the handle, the info of the file and the first chunk.
+   */
+  private class StreamReply extends Reply<StreamHandle> {
+
+    public StreamReply(FrameConnection connection, int id) {
+      super(connection, id);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    ByteBuffer[] encode(StreamHandle stream) {
+      ByteBuffer handle = ByteBuffer.allocate(20);
+      handle.putLong(stream.getId()).putLong(stream.getLength()).putInt(stream.getChunkSize()).flip();
+      return new ByteBuffer[] { handle, BinaryProtocol.info(stream.getInfo()), ByteBuffer.wrap(stream.getFirstChunk()) };
+    }
+  }
+
+  private void reply(FrameConnection connection, int id, byte type, ByteBuffer... payload) {
+    try {
+      connection.send(id, type, payload);
+    } catch (IllegalArgumentException e) {
+      // e.g. a file too large for a single frame, the master must not wait for the call to time out
+      e.printStackTrace();
+      reply(connection, id, BinaryProtocol.ERROR, BinaryProtocol.string(String.valueOf(e.getMessage())));
+    } catch (IOException e) {
+      // the master went away, nothing left to answer to
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void onClose(FrameConnection connection, IOException cause) {
+    System.out.println("Master connection [" + connection + "] closed: " + cause.getMessage());
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
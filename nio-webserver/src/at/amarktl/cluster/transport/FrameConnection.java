@@ -0,0 +1,176 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One persistent, multiplexed connection of the binary transport. Frames can be sent from any
+ * thread; they are queued and written by the {@link FrameLoop} thread, which also reads incoming
+ * frames and hands them to the {@link Handler}.
+ */
+final class FrameConnection {
+
+  interface Handler {
+
+    /**
+     * Called on the loop thread, the payload is only valid for the duration of the call.
+     */
+    void onFrame(FrameConnection connection, int id, byte type, ByteBuffer payload);
+
+    void onClose(FrameConnection connection, IOException cause);
+
+  }
+
+  private static final int MAX_GATHER = 64;
+
+  private final SocketChannel channel;
+  private final FrameLoop loop;
+  private final Handler handler;
+  private final Deque<ByteBuffer> outbound = new ArrayDeque<ByteBuffer>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private ByteBuffer inbound = ByteBuffer.allocate(64 * 1024);
+  private SelectionKey key;
+  private volatile boolean closed = false;
+
+  FrameConnection(SocketChannel channel, FrameLoop loop, Handler handler) {
+    this.channel = channel;
+    this.loop = loop;
+    this.handler = handler;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public void send(int id, byte type, ByteBuffer... payload) throws IOException {
+    if (closed) {
+      throw new IOException("Connection to [" + channel.socket().getRemoteSocketAddress() + "] is closed");
+    }
+    long length = 0;
+    for (ByteBuffer b : payload) {
+      length += b.remaining();
+    }
+    ByteBuffer header = BinaryProtocol.header(id, type, length);
+    synchronized (outbound) {
+      outbound.add(header);
+      for (ByteBuffer b : payload) {
+        outbound.add(b);
+      }
+    }
+    if (loop.isLoopThread()) {
+      flush();
+    } else if (flushScheduled.compareAndSet(false, true)) {
+      loop.execute(new Runnable() {
+        @Override
+        public void run() {
+          flushScheduled.set(false);
+          flush();
+        }
+      });
+    }
+  }
+
+  /**
+   * Writes as much of the queued frames as the socket takes without blocking.
+   */
+  void flush() {
+    if (key == null || closed) {
+      // not registered yet, the registration flushes
+      return;
+    }
+    try {
+      synchronized (outbound) {
+        while (!outbound.isEmpty()) {
+          ByteBuffer[] buffers = new ByteBuffer[Math.min(outbound.size(), MAX_GATHER)];
+          Iterator<ByteBuffer> i = outbound.iterator();
+          for (int n = 0; n < buffers.length; n++) {
+            buffers[n] = i.next();
+          }
+          long written = channel.write(buffers);
+          while (!outbound.isEmpty() && !outbound.peek().hasRemaining()) {
+            outbound.poll();
+          }
+          if (written == 0) {
+            break;
+          }
+        }
+        key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    } catch (IOException | RuntimeException e) {
+      close(e instanceof IOException ? (IOException) e : new IOException(e));
+    }
+  }
+
+  /**
+   * Reads what is available and dispatches every complete frame.
+   */
+  void read() {
+    try {
+      if (channel.read(inbound) == -1) {
+        throw new IOException("Connection closed by [" + channel.socket().getRemoteSocketAddress() + "]");
+      }
+      inbound.flip();
+      while (inbound.remaining() >= 4) {
+        int length = inbound.getInt(inbound.position());
+        if (length < BinaryProtocol.HEADER_LENGTH - 4 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+          throw new IOException("Corrupt frame length " + length);
+        }
+        if (inbound.remaining() < 4 + length) {
+          if (inbound.capacity() < 4 + length) {
+            // make room for the whole frame
+            ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+            bigger.put(inbound);
+            inbound = bigger;
+            inbound.flip();
+          }
+          break;
+        }
+        int end = inbound.position() + 4 + length;
+        inbound.getInt();
+        int id = inbound.getInt();
+        byte type = inbound.get();
+        ByteBuffer payload = inbound.slice();
+        payload.limit(end - inbound.position());
+        inbound.position(end);
+        handler.onFrame(this, id, type, payload);
+      }
+      inbound.compact();
+    } catch (IOException | RuntimeException e) {
+      close(e instanceof IOException ? (IOException) e : new IOException(e));
+    }
+  }
+
+  public void close(IOException cause) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    handler.onClose(this, cause);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return String.valueOf(channel.socket().getRemoteSocketAddress());
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
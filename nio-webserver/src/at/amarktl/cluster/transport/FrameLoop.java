@@ -0,0 +1,209 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single selector thread serving all {@link FrameConnection}s of one side of the binary transport.
+ */
+final class FrameLoop implements Runnable {
+
+  private final String name;
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private volatile boolean isRunning = true;
+  private volatile Thread thread;
+
+  FrameLoop(String name) throws IOException {
+    this.name = name;
+    this.selector = Selector.open();
+  }
+
+  void start() {
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void shutdown() {
+    isRunning = false;
+    selector.wakeup();
+  }
+
+  boolean isLoopThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Registers a connected channel; frames may be sent on the returned connection right away.
+   */
+  FrameConnection register(final SocketChannel channel, FrameConnection.Handler handler) throws IOException {
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    final FrameConnection connection = new FrameConnection(channel, this, handler);
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+          connection.flush();
+        } catch (IOException e) {
+          connection.close(e);
+        }
+      }
+    });
+    return connection;
+  }
+
+  /**
+   * Connects to the given address without blocking the caller; frames may be sent on the returned
+   * connection right away, they are written once it has been established. If it can not be
+   * established, the connection gets closed.
+   */
+  FrameConnection connect(final InetSocketAddress address, FrameConnection.Handler handler) throws IOException {
+    final SocketChannel channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    final FrameConnection connection = new FrameConnection(channel, this, handler);
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (channel.connect(address)) {
+            connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            connection.flush();
+          } else {
+            channel.register(selector, SelectionKey.OP_CONNECT, connection);
+          }
+        } catch (IOException e) {
+          connection.close(e);
+        }
+      }
+    });
+    return connection;
+  }
+
+  /**
+   * Accepts connections on the given channel and serves each of them with the given handler.
+   */
+  void listen(final ServerSocketChannel server, final FrameConnection.Handler handler) throws IOException {
+    server.configureBlocking(false);
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.register(selector, SelectionKey.OP_ACCEPT, handler);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void run() {
+    try {
+      while (isRunning) {
+        selector.select();
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+
+        Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+        while (i.hasNext()) {
+          SelectionKey key = i.next();
+          i.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              accept(key);
+              continue;
+            }
+            if (key.isConnectable()) {
+              finishConnect(key);
+              continue;
+            }
+            FrameConnection connection = (FrameConnection) key.attachment();
+            if (key.isWritable()) {
+              connection.flush();
+            }
+            if (key.isValid() && key.isReadable()) {
+              connection.read();
+            }
+          } catch (CancelledKeyException e) {
+            // the connection was closed by another thread meanwhile, e.g. as its node registered again
+          }
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof FrameConnection) {
+          ((FrameConnection) key.attachment()).close(new IOException("Transport [" + name + "] shut down"));
+        } else {
+          try {
+            key.channel().close();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void finishConnect(SelectionKey key) {
+    FrameConnection connection = (FrameConnection) key.attachment();
+    try {
+      ((SocketChannel) key.channel()).finishConnect();
+      key.interestOps(SelectionKey.OP_READ);
+      connection.setKey(key);
+      // writes what has been sent in the meantime
+      connection.flush();
+    } catch (IOException e) {
+      connection.close(e);
+    }
+  }
+
+  private void accept(SelectionKey key) {
+    FrameConnection.Handler handler = (FrameConnection.Handler) key.attachment();
+    try {
+      SocketChannel channel;
+      while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        FrameConnection connection = new FrameConnection(channel, this, handler);
+        connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
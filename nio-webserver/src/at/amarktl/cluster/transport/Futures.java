@@ -0,0 +1,69 @@
+
+package at.amarktl.cluster.transport;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Helpers bridging blocking code and {@link CompletableFuture}s.
+ */
+public final class Futures {
+
+  private Futures() {
+  }
+
+  /**
+   * Runs the given task on the given executor.
+   * 
+   * @return a future completed with the outcome of the task
+   */
+  public static <T> CompletableFuture<T> submit(final Callable<T> task, Executor executor) {
+    if (task == null) {
+      throw new NullPointerException("'task' must not be null");
+    }
+    if (executor == null) {
+      throw new NullPointerException("'executor' must not be null");
+    }
+    final CompletableFuture<T> result = new CompletableFuture<T>();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            result.complete(task.call());
+          } catch (Throwable t) {
+            result.completeExceptionally(t);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  public static <T> CompletableFuture<T> failed(Throwable cause) {
+    CompletableFuture<T> result = new CompletableFuture<T>();
+    result.completeExceptionally(cause);
+    return result;
+  }
+
+  /**
+   * @return the exception that actually failed a future, without the {@link CompletionException}
+   *         wrapped around it by dependent stages
+   */
+  public static Throwable unwrap(Throwable t) {
+    while (t instanceof CompletionException && t.getCause() != null) {
+      t = t.getCause();
+    }
+    return t;
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,23 @@
+
+package at.amarktl.cluster.transport;
+
+import at.amarktl.cluster.NodeDescriptor;
+
+/**
+ * The master's view of a connected cluster node, independent of the {@link Transport} used to talk
+ * to it. Calls to methods of NodeClient are thread safe.
+ */
+public interface NodeClient extends NodeService {
+
+  NodeDescriptor getDescriptor();
+
+  /**
+   * Releases the connection to the node.
+   */
+  void close();
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
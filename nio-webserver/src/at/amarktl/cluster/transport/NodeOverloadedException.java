@@ -0,0 +1,41 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fails a call the node refused because it had as many calls waiting as it takes. The node did not
+ * start on the call, so it may be sent to another node; unlike an unavailable node, this one is
+ * healthy and only busy.
+ */
+public class NodeOverloadedException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public NodeOverloadedException(String message) {
+    super(message);
+  }
+
+  public NodeOverloadedException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  /**
+   * @return <code>true</code> if the given failure, or one of its causes, is a node refusing a call
+   *         because it is saturated
+   */
+  public static boolean isOverload(Throwable t) {
+    for (; t != null; t = t.getCause()) {
+      if (t instanceof NodeOverloadedException || t instanceof RejectedExecutionException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
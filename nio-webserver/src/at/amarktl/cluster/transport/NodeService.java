@@ -0,0 +1,45 @@
+
+package at.amarktl.cluster.transport;
+
+import java.util.concurrent.CompletableFuture;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.StreamHandle;
+
+/**
+ * The operations a cluster node offers, as non-blocking calls. The returned futures complete once
+ * the node has answered; the calling thread is never blocked waiting for it.
+ */
+public interface NodeService {
+
+  CompletableFuture<byte[]> loadFile(String uri);
+
+  /**
+   * @see at.amarktl.cluster.IClusterNode#getContentInfo(String, String)
+   */
+  CompletableFuture<ContentInfo> getContentInfo(String uri, String encoding);
+
+  /**
+   * @see at.amarktl.cluster.IClusterNode#openStream(String, String, int)
+   */
+  CompletableFuture<StreamHandle> openStream(String uri, String encoding, int chunkSize);
+
+  /**
+   * @see at.amarktl.cluster.IClusterNode#openRange(String, String, long, long, int)
+   */
+  CompletableFuture<StreamHandle> openRange(String uri, String encoding, long offset, long length, int chunkSize);
+
+  CompletableFuture<byte[]> readChunk(long streamId);
+
+  CompletableFuture<Void> closeStream(long streamId);
+
+  /**
+   * @see at.amarktl.cluster.IClusterNode#ping()
+   */
+  CompletableFuture<Void> ping();
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
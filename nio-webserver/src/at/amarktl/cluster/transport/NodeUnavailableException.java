@@ -0,0 +1,27 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+
+/**
+ * Fails a call the node could not be reached for or did not answer in time, as opposed to a failure
+ * the node reported itself. The node may not even have seen the call, so idempotent calls may be
+ * retried on another node.
+ */
+public class NodeUnavailableException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public NodeUnavailableException(String message) {
+    super(message);
+  }
+
+  public NodeUnavailableException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
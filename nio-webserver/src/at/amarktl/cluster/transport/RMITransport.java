@@ -0,0 +1,194 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.IClusterNode;
+import at.amarktl.cluster.NodeDescriptor;
+import at.amarktl.cluster.StreamHandle;
+
+/**
+ * Talks to the nodes by Java RMI. Every node supports it, so it serves as fallback for all other
+ * transports. RMI calls block, so each call occupies a thread of the transport until the node
+ * answered.
+ */
+public class RMITransport implements Transport {
+
+  public static final String RMI_IDENTIFIER_NODE = "cluster-node";
+
+  private final ExecutorService calls = Executors.newCachedThreadPool();
+
+  /** {@inheritDoc} */
+  @Override
+  public String getName() {
+    return NodeDescriptor.TRANSPORT_RMI;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public NodeClient connect(NodeDescriptor node) throws IOException {
+    if (node == null) {
+      throw new NullPointerException("'node' must not be null");
+    }
+
+    Registry registry = LocateRegistry.getRegistry(node.getHost(), node.getRmiPort());
+    IClusterNode nodeImpl = null;
+    try {
+      nodeImpl = (IClusterNode) registry.lookup(RMI_IDENTIFIER_NODE);
+    } catch (NotBoundException e) {
+      throw new RemoteException(e.getMessage(), e);
+    }
+
+    if (nodeImpl == null) {
+      Exception e = new NullPointerException("Failed to checkout Remote Cluster Node from [" + node.getHost() + ":" + node.getRmiPort() + "]");
+      throw new RemoteException(e.getMessage(), e);
+    }
+    return new RMINodeClient(node, nodeImpl);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void shutdown() {
+    calls.shutdownNow();
+  }
+
+  private class RMINodeClient implements NodeClient {
+
+    private final NodeDescriptor descriptor;
+    private final IClusterNode node;
+
+    public RMINodeClient(NodeDescriptor descriptor, IClusterNode node) {
+      this.descriptor = descriptor;
+      this.node = node;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public NodeDescriptor getDescriptor() {
+      return descriptor;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<byte[]> loadFile(final String uri) {
+      return call(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          return node.loadFile(uri);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<ContentInfo> getContentInfo(final String uri, final String encoding) {
+      return call(new Callable<ContentInfo>() {
+        @Override
+        public ContentInfo call() throws Exception {
+          return node.getContentInfo(uri, encoding);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<StreamHandle> openStream(final String uri, final String encoding, final int chunkSize) {
+      return call(new Callable<StreamHandle>() {
+        @Override
+        public StreamHandle call() throws Exception {
+          return node.openStream(uri, encoding, chunkSize);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<StreamHandle> openRange(final String uri, final String encoding, final long offset, final long length, final int chunkSize) {
+      return call(new Callable<StreamHandle>() {
+        @Override
+        public StreamHandle call() throws Exception {
+          return node.openRange(uri, encoding, offset, length, chunkSize);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<byte[]> readChunk(final long streamId) {
+      return call(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          return node.readChunk(streamId);
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> closeStream(final long streamId) {
+      return call(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          node.closeStream(streamId);
+          return null;
+        }
+      });
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public CompletableFuture<Void> ping() {
+      return call(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          node.ping();
+          return null;
+        }
+      });
+    }
+
+    private <T> CompletableFuture<T> call(final Callable<T> call) {
+      return Futures.submit(new Callable<T>() {
+        @Override
+        public T call() throws Exception {
+          try {
+            return call.call();
+          } catch (ServerException e) {
+            // thrown by the node itself
+            if (NodeOverloadedException.isOverload(e)) {
+              throw new NodeOverloadedException("Cluster Node [" + descriptor.getIdentifier() + "] overloaded", e);
+            }
+            throw e;
+          } catch (RemoteException e) {
+            throw new NodeUnavailableException("Cluster Node [" + descriptor.getIdentifier() + "] unavailable: " + e.getMessage(), e);
+          }
+        }
+      }, calls);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void close() {
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+      return descriptor.toString();
+    }
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,26 @@
+
+package at.amarktl.cluster.transport;
+
+import java.io.IOException;
+
+import at.amarktl.cluster.NodeDescriptor;
+
+/**
+ * Service provider interface for the way the master talks to its cluster nodes.
+ */
+public interface Transport {
+
+  /**
+   * @return the name nodes refer to this transport with in their {@link NodeDescriptor}
+   */
+  String getName();
+
+  NodeClient connect(NodeDescriptor node) throws IOException;
+
+  void shutdown();
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -1,105 +1,151 @@
-
-package at.amarktl.config;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-public class Config implements FileChangeListener {
-
-  private final static String WEB_SERVER_CFG = "web-server";
-  private Element webServerNode;
-
-  public Config(String filePath) throws FileNotFoundException {
-    File file = new File(filePath);
-    parseFile(file);
-    FileMonitor.getInstance().addFileChangeListener(this, file, 2);
-  }
-
-  private void parseFile(File file) {
-    try {
-
-      DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-      Document doc = dBuilder.parse(file);
-      doc.getDocumentElement().normalize();
-
-      NodeList nodes = doc.getElementsByTagName(WEB_SERVER_CFG);
-      if (nodes == null || nodes.getLength() == 0) {
-        throw new ParserConfigurationException("tag \"web-server\" not found!");
-      }
-      for (int i = 0; i < nodes.getLength(); i++) {
-        Node node = nodes.item(i);
-        if (node.getNodeType() == Node.ELEMENT_NODE) {
-          webServerNode = (Element) node;
-          break;
-        }
-      }
-    } catch (ParserConfigurationException | SAXException | IOException e) {
-      e.printStackTrace();
-    }
-  }
-
-  public String getValueForTag(String tag) {
-    Object value = getValue(tag);
-    if (value instanceof String) {
-      return (String) value;
-    }
-    return null;
-  }
-
-  public String getValueForTag(String tag, String defaultValue) {
-    String value = getValue(tag);
-    if (value == null) {
-      return defaultValue;
-    } else {
-      return value;
-    }
-  }
-
-  public int getValueForTag(String tag, int defaultValue) {
-    String value = getValue(tag);
-    if (value == null || value.length() == 0) {
-      return defaultValue;
-    }
-
-    try {
-      return Integer.parseInt(value);
-    } catch (NumberFormatException e) {
-    }
-
-    return defaultValue;
-  }
-
-  private String getValue(String tag) {
-
-    NodeList nodeTag = webServerNode.getElementsByTagName(tag);
-    if (nodeTag == null || nodeTag.getLength() == 0) {
-      return null;
-    }
-    NodeList nodes = nodeTag.item(0).getChildNodes();
-
-    Node node = (Node) nodes.item(0);
-    if (node == null) {
-      return null;
-    }
-
-    return node.getNodeValue();
-  }
-
-  @Override
-  public void fileChanged(File file) {
-    parseFile(file);
-  }
-
-}
+
+package at.amarktl.config;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads the configuration file and reads it again whenever it changes. The file is parsed once into
+ * a {@link ConfigSnapshot}, which replaces the previous one as a whole, so readers on any thread see
+ * either the old or the new values, never a mix. A file which can not be read or which the
+ * {@link ConfigValidator} rejects leaves the values read before in effect.
+ */
+public class Config implements FileChangeListener {
+
+  private final static String WEB_SERVER_CFG = "web-server";
+  private volatile ConfigSnapshot snapshot = ConfigSnapshot.EMPTY;
+  private final List<ConfigListener> listeners = new CopyOnWriteArrayList<ConfigListener>();
+  private volatile ConfigValidator validator = null;
+
+  public Config(String filePath) throws FileNotFoundException {
+    File file = new File(filePath);
+    ConfigSnapshot parsed = parseFile(file);
+    if (parsed != null) {
+      snapshot = parsed;
+    }
+    FileMonitor.getInstance().addFileChangeListener(this, file, 1000);
+  }
+
+  /**
+   * @return the values of the file or <code>null</code> if it could not be read
+   */
+  private ConfigSnapshot parseFile(File file) {
+    try {
+
+      DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+      DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+      Document doc = dBuilder.parse(file);
+      doc.getDocumentElement().normalize();
+
+      NodeList nodes = doc.getElementsByTagName(WEB_SERVER_CFG);
+      if (nodes == null || nodes.getLength() == 0) {
+        throw new ParserConfigurationException("tag \"web-server\" not found!");
+      }
+      Map<String, String> values = new HashMap<String, String>();
+      NodeList tags = nodes.item(0).getChildNodes();
+      for (int i = 0; i < tags.getLength(); i++) {
+        Node node = tags.item(i);
+        if (node.getNodeType() == Node.ELEMENT_NODE) {
+          String value = node.getTextContent().trim();
+          if (value.length() > 0) {
+            values.put(((Element) node).getTagName(), value);
+          }
+        }
+      }
+      return new ConfigSnapshot(values);
+    } catch (ParserConfigurationException | SAXException | IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  /**
+   * @return the values currently in effect; read them all from the same snapshot to get a
+   *         consistent view while the file changes
+   */
+  public ConfigSnapshot getSnapshot() {
+    return snapshot;
+  }
+
+  public void addConfigListener(ConfigListener listener) {
+    if (listener == null) {
+      throw new NullPointerException("'listener' must not be null");
+    }
+    listeners.add(listener);
+  }
+
+  public void removeConfigListener(ConfigListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Sets the validator changed values have to pass before they take effect, <code>null</code> for
+   * none. The values read already are not checked again.
+   */
+  public void setValidator(ConfigValidator validator) {
+    this.validator = validator;
+  }
+
+  public String getValueForTag(String tag) {
+    return snapshot.getValueForTag(tag);
+  }
+
+  public String getValueForTag(String tag, String defaultValue) {
+    return snapshot.getValueForTag(tag, defaultValue);
+  }
+
+  public int getValueForTag(String tag, int defaultValue) {
+    return snapshot.getValueForTag(tag, defaultValue);
+  }
+
+  public long getValueForTag(String tag, long defaultValue) {
+    return snapshot.getValueForTag(tag, defaultValue);
+  }
+
+  @Override
+  public void fileChanged(File file) {
+    ConfigSnapshot current = parseFile(file);
+    if (current == null) {
+      System.out.println("Failed to read the changed configuration [" + file + "], keeping the one read before");
+      return;
+    }
+    ConfigSnapshot previous = snapshot;
+    if (current.equals(previous)) {
+      return;
+    }
+    ConfigValidator validator = this.validator;
+    if (validator != null) {
+      try {
+        validator.validate(current);
+      } catch (IllegalArgumentException e) {
+        System.out.println("Rejected the changed configuration [" + file + "], keeping the one read before: " + e.getMessage());
+        return;
+      }
+    }
+    snapshot = current;
+    for (ConfigListener listener : listeners) {
+      try {
+        listener.configChanged(previous, current);
+      } catch (RuntimeException e) {
+        // the other listeners still have to learn about the change
+        e.printStackTrace();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,26 @@
+
+package at.amarktl.config;
+
+/**
+ * Listener interested in the values of a {@link Config} changing.
+ *
+ * @see Config#addConfigListener(ConfigListener)
+ */
+public interface ConfigListener {
+
+  /**
+   * Invoked once the changed configuration file has been read, on the thread notifying
+   * {@link FileChangeListener}s.
+   *
+   * @param previous
+   *          the values before the change
+   * @param current
+   *          the values now in effect
+   */
+  void configChanged(ConfigSnapshot previous, ConfigSnapshot current);
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,87 @@
+
+package at.amarktl.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The values of a configuration file as they were when it was read, by tag. Tags left empty are
+ * treated as missing, so their defaults apply. ConfigSnapshot is immutable and may be freely
+ * exchanged between Threads.
+ */
+public final class ConfigSnapshot {
+
+  static final ConfigSnapshot EMPTY = new ConfigSnapshot(Collections.<String, String> emptyMap());
+
+  private final Map<String, String> values;
+
+  ConfigSnapshot(Map<String, String> values) {
+    if (values == null) {
+      throw new NullPointerException("'values' must not be null");
+    }
+    this.values = Collections.unmodifiableMap(new HashMap<String, String>(values));
+  }
+
+  /**
+   * @return the value of the given tag or <code>null</code> if it is missing
+   */
+  public String getValueForTag(String tag) {
+    return values.get(tag);
+  }
+
+  public String getValueForTag(String tag, String defaultValue) {
+    String value = values.get(tag);
+    return value == null ? defaultValue : value;
+  }
+
+  public int getValueForTag(String tag, int defaultValue) {
+    String value = values.get(tag);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+    }
+
+    return defaultValue;
+  }
+
+  public long getValueForTag(String tag, long defaultValue) {
+    String value = values.get(tag);
+    if (value == null) {
+      return defaultValue;
+    }
+
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+    }
+
+    return defaultValue;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof ConfigSnapshot && values.equals(((ConfigSnapshot) obj).values);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return values.hashCode();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return values.toString();
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
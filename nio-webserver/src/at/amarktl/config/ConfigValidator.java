@@ -0,0 +1,26 @@
+
+package at.amarktl.config;
+
+/**
+ * Checks the values of a changed {@link Config} before they take effect.
+ *
+ * @see Config#setValidator(ConfigValidator)
+ */
+public interface ConfigValidator {
+
+  /**
+   * Invoked once the changed configuration file has been read, before any {@link ConfigListener}
+   * learns about it.
+   *
+   * @param snapshot
+   *          the values read
+   * @throws IllegalArgumentException
+   *           if the values must not take effect, the values read before stay in effect then
+   */
+  void validate(ConfigSnapshot snapshot);
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -7,7 +7,7 @@ import java.io.File;
  * 
  * @author Pascal Essiembre
  */
-interface FileChangeListener {
+public interface FileChangeListener {
   /**
    * Invoked when a file changes.
    * 
@@ -1,137 +1,427 @@
-package at.amarktl.config;
-
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.net.URL;
-import java.util.Hashtable;
-import java.util.Timer;
-import java.util.TimerTask;
-
-public class FileMonitor {
-
-  private static final FileMonitor instance = new FileMonitor();
-
-  private Timer timer;
-
-  private Hashtable<String, FileMonitorTask> timerEntries;
-
-  /**
-   * Gets the file monitor instance.
-   * 
-   * @return file monitor instance
-   */
-  public static FileMonitor getInstance() {
-    return instance;
-  }
-
-  /**
-   * Constructor.
-   */
-  private FileMonitor() {
-    // Create timer, run timer thread as daemon.
-    timer = new Timer(true);
-    timerEntries = new Hashtable<String, FileMonitorTask>();
-  }
-
-  /**
-   * Adds a monitored file with a {@link FileChangeListener}.
-   * 
-   * @param listener
-   *          listener to notify when the file changed.
-   * @param fileName
-   *          name of the file to monitor.
-   * @param period
-   *          polling period in milliseconds.
-   */
-  public void addFileChangeListener(FileChangeListener listener, String fileName, long period)
-      throws FileNotFoundException {
-    addFileChangeListener(listener, new File(fileName), period);
-  }
-
-  /**
-   * Adds a monitored file with a FileChangeListener.
-   * 
-   * @param listener
-   *          listener to notify when the file changed.
-   * @param fileName
-   *          name of the file to monitor.
-   * @param period
-   *          polling period in milliseconds.
-   */
-  public void addFileChangeListener(FileChangeListener listener, File file, long period)
-      throws FileNotFoundException {
-    removeFileChangeListener(listener, file);
-    FileMonitorTask task = new FileMonitorTask(listener, file);
-    timerEntries.put(file.toString() + listener.hashCode(), task);
-    timer.schedule(task, period, period);
-  }
-
-  /**
-   * Remove the listener from the notification list.
-   * 
-   * @param listener
-   *          the listener to be removed.
-   */
-  public void removeFileChangeListener(FileChangeListener listener, String fileName) {
-    removeFileChangeListener(listener, new File(fileName));
-  }
-
-  /**
-   * Remove the listener from the notification list.
-   * 
-   * @param listener
-   *          the listener to be removed.
-   */
-  public void removeFileChangeListener(FileChangeListener listener, File file) {
-    FileMonitorTask task = timerEntries.remove(file.toString() + listener.hashCode());
-    if (task != null) {
-      task.cancel();
-    }
-  }
-
-  /**
-   * Fires notification that a file changed.
-   * 
-   * @param listener
-   *          file change listener
-   * @param file
-   *          the file that changed
-   */
-  protected void fireFileChangeEvent(FileChangeListener listener, File file) {
-    listener.fileChanged(file);
-  }
-
-  /**
-   * File monitoring task.
-   */
-  class FileMonitorTask extends TimerTask {
-    FileChangeListener listener;
-
-    File monitoredFile;
-
-    long lastModified;
-
-    public FileMonitorTask(FileChangeListener listener, File file) throws FileNotFoundException {
-      this.listener = listener;
-      this.lastModified = 0;
-      monitoredFile = file;
-      if (!monitoredFile.exists()) { // but is it on CLASSPATH?
-        URL fileURL = listener.getClass().getClassLoader().getResource(file.toString());
-        if (fileURL != null) {
-          monitoredFile = new File(fileURL.getFile());
-        } else {
-          throw new FileNotFoundException("File Not Found: " + file);
-        }
-      }
-      this.lastModified = monitoredFile.lastModified();
-    }
-
-    public void run() {
-      long lastModified = monitoredFile.lastModified();
-      if (lastModified != this.lastModified) {
-        this.lastModified = lastModified;
-        fireFileChangeEvent(this.listener, monitoredFile);
-      }
-    }
-  }
-}
+package at.amarktl.config;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifies listeners of monitored files changing. The directories of all monitored files are
+ * watched by one shared {@link WatchService}, each directory registered once no matter how many
+ * files are monitored in there, so monitoring costs nothing while the files stay untouched. Saving a
+ * file usually shows as several events, so listeners are notified once the file has been quiet for
+ * {@link #QUIET_PERIOD} milliseconds, and on a thread of their own, so a slow listener does not hold
+ * up watching. Files that can not be watched are polled instead.
+ */
+public class FileMonitor {
+
+  /** Milliseconds without further events before the listeners of a file are notified. */
+  static final long QUIET_PERIOD = 50;
+  /** Milliseconds listeners are notified after at the latest, even if events keep coming. */
+  static final long MAX_DELAY = 1000;
+
+  private static final FileMonitor instance = new FileMonitor();
+
+  /** <code>null</code> if the default file system can not be watched. */
+  private final WatchService watchService;
+
+  /** Notifies listeners and polls the files that can not be watched. */
+  private final ScheduledThreadPoolExecutor dispatcher;
+
+  /** The monitored files by the file passed in, guarded by this. */
+  private final Map<File, List<FileMonitorTask>> tasks = new HashMap<File, List<FileMonitorTask>>();
+
+  /** The watched directories by their key, guarded by this. */
+  private final Map<WatchKey, WatchedDirectory> keys = new HashMap<WatchKey, WatchedDirectory>();
+
+  /** The watched directories, guarded by this. */
+  private final Map<Path, WatchedDirectory> directories = new HashMap<Path, WatchedDirectory>();
+
+  /**
+   * Gets the file monitor instance.
+   *
+   * @return file monitor instance
+   */
+  public static FileMonitor getInstance() {
+    return instance;
+  }
+
+  /**
+   * Constructor.
+   */
+  private FileMonitor() {
+    dispatcher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "file monitor dispatcher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    dispatcher.setRemoveOnCancelPolicy(true);
+
+    WatchService watchService = null;
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      // all files are polled
+      e.printStackTrace();
+    }
+    this.watchService = watchService;
+
+    if (watchService != null) {
+      Thread watcher = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          watch();
+        }
+      }, "file monitor");
+      watcher.setDaemon(true);
+      watcher.start();
+    }
+  }
+
+  /**
+   * Adds a monitored file with a {@link FileChangeListener}.
+   *
+   * @param listener
+   *          listener to notify when the file changed.
+   * @param fileName
+   *          name of the file to monitor.
+   * @param period
+   *          polling period in milliseconds, should the file not be watchable.
+   */
+  public void addFileChangeListener(FileChangeListener listener, String fileName, long period)
+      throws FileNotFoundException {
+    addFileChangeListener(listener, new File(fileName), period);
+  }
+
+  /**
+   * Adds a monitored file with a FileChangeListener.
+   *
+   * @param listener
+   *          listener to notify when the file changed.
+   * @param fileName
+   *          name of the file to monitor.
+   * @param period
+   *          polling period in milliseconds, should the file not be watchable.
+   */
+  public void addFileChangeListener(FileChangeListener listener, File file, long period)
+      throws FileNotFoundException {
+    if (period <= 0) {
+      throw new IllegalArgumentException("'period' must not be less or equal than 0");
+    }
+    removeFileChangeListener(listener, file);
+    FileMonitorTask task = new FileMonitorTask(listener, file, period);
+    synchronized (this) {
+      List<FileMonitorTask> monitored = tasks.get(file);
+      if (monitored == null) {
+        monitored = new ArrayList<FileMonitorTask>(1);
+        tasks.put(file, monitored);
+      }
+      monitored.add(task);
+      if (!watch(task)) {
+        poll(task);
+      }
+    }
+  }
+
+  /**
+   * Remove the listener from the notification list.
+   *
+   * @param listener
+   *          the listener to be removed.
+   */
+  public void removeFileChangeListener(FileChangeListener listener, String fileName) {
+    removeFileChangeListener(listener, new File(fileName));
+  }
+
+  /**
+   * Remove the listener from the notification list.
+   *
+   * @param listener
+   *          the listener to be removed.
+   */
+  public synchronized void removeFileChangeListener(FileChangeListener listener, File file) {
+    List<FileMonitorTask> monitored = tasks.get(file);
+    if (monitored == null) {
+      return;
+    }
+    for (int i = 0; i < monitored.size(); i++) {
+      FileMonitorTask task = monitored.get(i);
+      if (task.listener == listener) {
+        monitored.remove(i);
+        task.cancel();
+        break;
+      }
+    }
+    if (monitored.isEmpty()) {
+      tasks.remove(file);
+    }
+  }
+
+  /**
+   * Fires notification that a file changed.
+   *
+   * @param listener
+   *          file change listener
+   * @param file
+   *          the file that changed
+   */
+  protected void fireFileChangeEvent(FileChangeListener listener, File file) {
+    listener.fileChanged(file);
+  }
+
+  /**
+   * Watches the directory of the given file, unless it is watched already.
+   *
+   * @return <code>false</code> if the directory can not be watched
+   */
+  private boolean watch(FileMonitorTask task) {
+    if (watchService == null) {
+      return false;
+    }
+    Path directory = task.path.getParent();
+    WatchedDirectory watched = directories.get(directory);
+    if (watched == null) {
+      WatchKey key;
+      try {
+        key = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+      } catch (IOException | UnsupportedOperationException e) {
+        System.out.println("Can not watch [" + directory + "], polling [" + task.monitoredFile + "] instead: " + e);
+        return false;
+      }
+      watched = new WatchedDirectory(directory, key);
+      directories.put(directory, watched);
+      keys.put(key, watched);
+    }
+    watched.add(task);
+    return true;
+  }
+
+  /**
+   * Checks the given file every period instead of watching it.
+   */
+  private void poll(FileMonitorTask task) {
+    task.watched = null;
+    task.polling = dispatcher.scheduleWithFixedDelay(task, task.period, task.period, TimeUnit.MILLISECONDS);
+  }
+
+  private void watch() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+      List<WatchEvent<?>> events = key.pollEvents();
+      boolean valid = key.reset();
+      synchronized (this) {
+        WatchedDirectory watched = keys.get(key);
+        if (watched == null) {
+          // no longer watched
+          continue;
+        }
+        for (WatchEvent<?> event : events) {
+          if (event.kind() == OVERFLOW) {
+            // events have been dropped, any file may have changed
+            for (List<FileMonitorTask> monitored : watched.files.values()) {
+              schedule(monitored);
+            }
+          } else {
+            List<FileMonitorTask> monitored = watched.files.get(event.context());
+            if (monitored != null) {
+              schedule(monitored);
+            }
+          }
+        }
+        if (!valid) {
+          // the directory is gone, poll its files until they are back
+          keys.remove(key);
+          directories.remove(watched.directory);
+          for (List<FileMonitorTask> monitored : watched.files.values()) {
+            for (FileMonitorTask task : monitored) {
+              poll(task);
+              schedule(task);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private void schedule(List<FileMonitorTask> monitored) {
+    for (FileMonitorTask task : monitored) {
+      schedule(task);
+    }
+  }
+
+  /**
+   * Checks the given file once it has been quiet for a moment, guarded by this.
+   */
+  private void schedule(FileMonitorTask task) {
+    long now = System.currentTimeMillis();
+    if (task.pending != null) {
+      if (now - task.burst >= MAX_DELAY - QUIET_PERIOD || !task.pending.cancel(false)) {
+        // checked soon enough or already being checked
+        return;
+      }
+    } else {
+      task.burst = now;
+    }
+    task.pending = dispatcher.schedule(task.afterEvents, QUIET_PERIOD, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A directory watched for the files monitored in there, guarded by the FileMonitor.
+   */
+  private final class WatchedDirectory {
+    final Path directory;
+
+    final WatchKey key;
+
+    /** The monitored files by their name. */
+    final Map<Path, List<FileMonitorTask>> files = new HashMap<Path, List<FileMonitorTask>>();
+
+    WatchedDirectory(Path directory, WatchKey key) {
+      this.directory = directory;
+      this.key = key;
+    }
+
+    void add(FileMonitorTask task) {
+      Path name = task.path.getFileName();
+      List<FileMonitorTask> monitored = files.get(name);
+      if (monitored == null) {
+        monitored = new ArrayList<FileMonitorTask>(1);
+        files.put(name, monitored);
+      }
+      monitored.add(task);
+      task.watched = this;
+    }
+
+    void remove(FileMonitorTask task) {
+      Path name = task.path.getFileName();
+      List<FileMonitorTask> monitored = files.get(name);
+      if (monitored != null && monitored.remove(task) && monitored.isEmpty()) {
+        files.remove(name);
+      }
+      if (files.isEmpty()) {
+        key.cancel();
+        keys.remove(key);
+        directories.remove(directory);
+      }
+    }
+  }
+
+  /**
+   * File monitoring task, checks whether the file changed since it was checked last.
+   */
+  class FileMonitorTask implements Runnable {
+    final FileChangeListener listener;
+
+    final File monitoredFile;
+
+    final Path path;
+
+    final long period;
+
+    /** Only touched by the dispatcher once monitoring started. */
+    long lastModified;
+
+    /** Only touched by the dispatcher once monitoring started. */
+    long length;
+
+    /** The directory watched for the file, or <code>null</code> if polled, guarded by the FileMonitor. */
+    WatchedDirectory watched;
+
+    /** Guarded by the FileMonitor. */
+    ScheduledFuture<?> polling;
+
+    /** The next check of the file after events, guarded by the FileMonitor. */
+    ScheduledFuture<?> pending;
+
+    /** When the first event since the last check arrived, guarded by the FileMonitor. */
+    long burst;
+
+    /** Checks the file once events calmed down. */
+    final Runnable afterEvents = new Runnable() {
+      @Override
+      public void run() {
+        synchronized (FileMonitor.this) {
+          pending = null;
+        }
+        FileMonitorTask.this.run();
+      }
+    };
+
+    public FileMonitorTask(FileChangeListener listener, File file, long period) throws FileNotFoundException {
+      if (listener == null) {
+        throw new NullPointerException("'listener' must not be null");
+      }
+      this.listener = listener;
+      this.period = period;
+      if (file.exists()) {
+        monitoredFile = file;
+      } else { // but is it on CLASSPATH?
+        URL fileURL = listener.getClass().getClassLoader().getResource(file.toString());
+        if (fileURL != null) {
+          monitoredFile = new File(fileURL.getFile());
+        } else {
+          throw new FileNotFoundException("File Not Found: " + file);
+        }
+      }
+      this.path = monitoredFile.toPath().toAbsolutePath().normalize();
+      this.lastModified = monitoredFile.lastModified();
+      this.length = monitoredFile.length();
+    }
+
+    /** Guarded by the FileMonitor. */
+    void cancel() {
+      if (watched != null) {
+        watched.remove(this);
+        watched = null;
+      }
+      if (polling != null) {
+        polling.cancel(false);
+      }
+      if (pending != null) {
+        pending.cancel(false);
+      }
+    }
+
+    public void run() {
+      long lastModified = monitoredFile.lastModified();
+      long length = monitoredFile.length();
+      if (lastModified != this.lastModified || length != this.length) {
+        this.lastModified = lastModified;
+        this.length = length;
+        try {
+          fireFileChangeEvent(this.listener, monitoredFile);
+        } catch (RuntimeException e) {
+          // must not end polling
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+}
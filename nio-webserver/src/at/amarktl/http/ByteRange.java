@@ -0,0 +1,189 @@
+
+package at.amarktl.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes of a file as requested by the Range header, resolved against the length of the
+ * file. ByteRange is immutable and may be freely exchanged between Threads.
+ */
+public final class ByteRange {
+
+  /** Requests asking for more ranges are served in full, as a guard against amplification. */
+  public static final int MAX_RANGES = 16;
+
+  private final long offset;
+  private final long length;
+
+  public ByteRange(long offset, long length) {
+    if (offset < 0) {
+      throw new IllegalArgumentException("'offset' must not be less than 0");
+    }
+    if (length <= 0) {
+      throw new IllegalArgumentException("'length' must not be less or equal than 0");
+    }
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Resolves the value of a Range header like <code>bytes=0-99,200-,-50</code> against the length
+   * of the file. Ranges are sorted and overlapping or adjacent ones are merged.
+   *
+   * @return the satisfiable ranges, an empty list if there is none; <code>null</code> if the header
+   *         is malformed, uses another unit or asks for too many ranges and thus has to be ignored
+   */
+  public static List<ByteRange> parse(String header, long fileLength) {
+    if (header == null) {
+      throw new NullPointerException("'header' must not be null");
+    }
+    if (fileLength < 0) {
+      throw new IllegalArgumentException("'fileLength' must not be less than 0");
+    }
+    String value = header.trim();
+    if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+      return null;
+    }
+    String[] specs = value.substring(6).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+
+    List<ByteRange> ranges = new ArrayList<ByteRange>(specs.length);
+    for (String spec : specs) {
+      spec = spec.trim();
+      int dash = spec.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+      long first;
+      long last;
+      try {
+        if (dash == 0) {
+          // suffix range, the last n bytes
+          long suffix = Long.parseLong(spec.substring(1));
+          if (suffix < 0) {
+            return null;
+          }
+          first = Math.max(0, fileLength - suffix);
+          last = fileLength - 1;
+        } else {
+          first = Long.parseLong(spec.substring(0, dash));
+          if (dash == spec.length() - 1) {
+            last = fileLength - 1;
+          } else {
+            last = Long.parseLong(spec.substring(dash + 1));
+            if (last < first) {
+              return null;
+            }
+            last = Math.min(last, fileLength - 1);
+          }
+          if (first < 0) {
+            return null;
+          }
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      if (first < fileLength && last >= first) {
+        ranges.add(new ByteRange(first, last - first + 1));
+      }
+    }
+    return merge(ranges);
+  }
+
+  /**
+   * Evaluates an If-Range header: ranges are only served if the client still holds the current
+   * version of the file. Entity tags are compared strongly, dates have to match exactly.
+   *
+   * @param ifRange
+   *          the value of the header, <code>null</code> if the request does not carry it
+   */
+  public static boolean isIfRangeSatisfied(String ifRange, String etag, long lastModified) {
+    if (ifRange == null) {
+      return true;
+    }
+    String validator = ifRange.trim();
+    if (validator.startsWith("\"") || validator.startsWith("W/")) {
+      // weak tags never match strongly
+      return validator.equals(etag) && !etag.startsWith("W/");
+    }
+    long date = HTTPDate.parse(validator);
+    return date >= 0 && date / 1000 == lastModified / 1000;
+  }
+
+  private static List<ByteRange> merge(List<ByteRange> ranges) {
+    if (ranges.size() < 2) {
+      return ranges;
+    }
+    Collections.sort(ranges, new Comparator<ByteRange>() {
+      @Override
+      public int compare(ByteRange a, ByteRange b) {
+        return Long.compare(a.offset, b.offset);
+      }
+    });
+    List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+    ByteRange current = ranges.get(0);
+    for (int i = 1; i < ranges.size(); i++) {
+      ByteRange next = ranges.get(i);
+      if (next.offset <= current.getEnd() + 1) {
+        current = new ByteRange(current.offset, Math.max(current.getEnd(), next.getEnd()) - current.offset + 1);
+      } else {
+        merged.add(current);
+        current = next;
+      }
+    }
+    merged.add(current);
+    return merged;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * @return the position of the last byte of the range
+   */
+  public long getEnd() {
+    return offset + length - 1;
+  }
+
+  /**
+   * @return the value of the Content-Range header describing this range of the file
+   */
+  public String toContentRange(long fileLength) {
+    return "bytes " + offset + "-" + getEnd() + "/" + fileLength;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof ByteRange)) {
+      return false;
+    }
+    ByteRange other = (ByteRange) obj;
+    return offset == other.offset && length == other.length;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public int hashCode() {
+    return (int) (offset * 31 + length);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return offset + "-" + getEnd();
+  }
+}
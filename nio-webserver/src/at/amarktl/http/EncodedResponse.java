@@ -0,0 +1,74 @@
+
+package at.amarktl.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A response encoded once up front, which is sent as is to any number of clients, e.g. the answer to
+ * requests shed under overload. Sending it does not cost more than queueing a buffer. Only responses
+ * with a 5xx status can be encoded, they may omit the Date header which would change every second.
+ * EncodedResponse is immutable and may be freely exchanged between Threads.
+ */
+public final class EncodedResponse {
+
+  private final int responseCode;
+  private final boolean close;
+  private final ByteBuffer keepAlive;
+  private final ByteBuffer closing;
+
+  /**
+   * @param response
+   *          the response to encode, its content must not be sent from a file
+   */
+  public EncodedResponse(HTTPResponse response) {
+    if (response == null) {
+      throw new NullPointerException("'response' must not be null");
+    }
+    if (response.getResponseCode() < 500 || response.getResponseCode() > 599) {
+      throw new IllegalArgumentException("'response' must have a 5xx status");
+    }
+    if (response.getFile() != null) {
+      throw new IllegalArgumentException("'response' must not be sent from a file");
+    }
+    this.responseCode = response.getResponseCode();
+    this.close = "close".equalsIgnoreCase(response.getHeader("Connection"));
+    this.keepAlive = encode(response, true);
+    this.closing = encode(response, false);
+  }
+
+  private static ByteBuffer encode(HTTPResponse response, boolean keepAlive) {
+    ByteBuffer headers = ResponseEncoder.encodeWithoutDate(response, keepAlive);
+    ByteBuffer content = response.getContent();
+    ByteBuffer encoded = ByteBuffer.allocateDirect(headers.remaining() + (content != null ? content.remaining() : 0));
+    encoded.put(headers);
+    if (content != null) {
+      encoded.put(content);
+    }
+    encoded.flip();
+    return encoded.asReadOnlyBuffer();
+  }
+
+  public int getResponseCode() {
+    return responseCode;
+  }
+
+  /**
+   * @return <code>true</code> if the connection is closed after the response has been sent
+   */
+  boolean isClose() {
+    return close;
+  }
+
+  /**
+   * @return a view on the encoded response to be written
+   */
+  ByteBuffer get(boolean keepAlive) {
+    return (keepAlive ? this.keepAlive : closing).duplicate();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "[" + responseCode + ", " + keepAlive.remaining() + " bytes]";
+  }
+}
@@ -0,0 +1,39 @@
+
+package at.amarktl.http;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Formats and parses the dates used in HTTP headers (IMF-fixdate, e.g.
+ * <code>Sun, 06 Nov 1994 08:49:37 GMT</code>).
+ */
+public final class HTTPDate {
+
+  private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
+  private HTTPDate() {
+  }
+
+  public static String format(long millis) {
+    return FORMAT.format(Instant.ofEpochMilli(millis));
+  }
+
+  /**
+   * @return the milliseconds since the epoch or -1 if the given value is no valid date
+   */
+  public static long parse(String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Instant.from(DateTimeFormatter.RFC_1123_DATE_TIME.parse(value.trim())).toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return -1;
+    }
+  }
+
+}
@@ -0,0 +1,31 @@
+
+package at.amarktl.http;
+
+import java.io.IOException;
+
+/**
+ * Signals a request the server refuses to process. Carries the status the client is answered with
+ * before the connection gets closed.
+ */
+public class HTTPParseException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int status;
+  private final String reason;
+
+  public HTTPParseException(int status, String reason, String message) {
+    super(message);
+    this.status = status;
+    this.reason = reason;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getReason() {
+    return reason;
+  }
+
+}
@@ -1,59 +1,276 @@
-
 package at.amarktl.http;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.StringTokenizer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
 
+/**
+ * A request as recorded by the {@link HTTPRequestParser}: the raw bytes of request line and header
+ * block plus offsets into them. Strings are only created when a value is asked for. A HTTPRequest is
+ * reused for the next request of its connection once the response has been sent, so it must not be
+ * kept beyond that.
+ */
 public class HTTPRequest {
 
-  private final String raw;
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+  private static final String[] KNOWN_METHODS = { "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "TRACE", "CONNECT" };
+  private static final String[] KNOWN_VERSIONS = { "HTTP/1.1", "HTTP/1.0" };
+
+  private byte[] data = new byte[512];
+  private int length;
+  private int methodStart;
+  private int methodEnd;
+  private int locationStart;
+  private int locationEnd;
+  private int versionStart;
+  private int versionEnd;
+  /** Start and end of name and value of each header. */
+  private int[] headers = new int[64];
+  private int headerCount;
   private String method;
   private String location;
   private String version;
-  private Map<String, String> headers = new HashMap<String, String>();
 
-  public HTTPRequest(String raw) {
-    this.raw = raw;
-    parse();
+  HTTPRequest() {
+  }
+
+  void reset() {
+    length = 0;
+    headerCount = 0;
+    method = null;
+    location = null;
+    version = null;
+  }
+
+  /**
+   * Records the given number of bytes from the buffer.
+   * 
+   * @return the number of bytes recorded so far
+   */
+  int append(ByteBuffer buffer, int count) {
+    if (length + count > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + count));
+    }
+    buffer.get(data, length, count);
+    length += count;
+    return length;
+  }
+
+  byte[] getData() {
+    return data;
+  }
+
+  void setRequestLine(int methodStart, int methodEnd, int locationStart, int locationEnd, int versionStart, int versionEnd) {
+    this.methodStart = methodStart;
+    this.methodEnd = methodEnd;
+    this.locationStart = locationStart;
+    this.locationEnd = locationEnd;
+    this.versionStart = versionStart;
+    this.versionEnd = versionEnd;
   }
 
-  private void parse() {
-    // parse the first line
-    StringTokenizer tokenizer = new StringTokenizer(raw);
-    method = tokenizer.nextToken().toUpperCase();
-    location = tokenizer.nextToken();
-    version = tokenizer.nextToken();
-    // parse the headers
-    String[] lines = raw.split("\r\n");
-    for (int i = 1; i < lines.length; i++) {
-      String[] keyVal = lines[i].split(":", 2);
-      headers.put(keyVal[0], keyVal[1]);
+  void addHeader(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+    int i = headerCount * 4;
+    if (i == headers.length) {
+      headers = Arrays.copyOf(headers, headers.length * 2);
     }
+    headers[i] = nameStart;
+    headers[i + 1] = nameEnd;
+    headers[i + 2] = valueStart;
+    headers[i + 3] = valueEnd;
+    headerCount++;
   }
 
   public String getMethod() {
+    if (method == null) {
+      method = known(KNOWN_METHODS, methodStart, methodEnd);
+      if (method == null) {
+        method = string(methodStart, methodEnd).toUpperCase();
+      }
+    }
     return method;
   }
 
   public String getLocation() {
+    if (location == null) {
+      location = string(locationStart, locationEnd);
+    }
     return location;
   }
 
-  public String getHead(String key) {
-    return headers.get(key);
-  }
-
   /**
    * @return the version
    */
   public String getVersion() {
+    if (version == null) {
+      version = known(KNOWN_VERSIONS, versionStart, versionEnd);
+      if (version == null) {
+        version = string(versionStart, versionEnd);
+      }
+    }
     return version;
   }
 
+  /**
+   * @return the value of the given header, the name is case insensitive; <code>null</code> if the
+   *         request does not carry it
+   */
+  public String getHead(String key) {
+    int i = indexOfHeader(key);
+    if (i < 0) {
+      return null;
+    }
+    return string(headers[i + 2], headers[i + 3]);
+  }
+
+  /**
+   * HTTP/1.1 connections are persistent unless the client asks for <code>Connection: close</code>,
+   * HTTP/1.0 connections only if the client asks for <code>Connection: keep-alive</code>. The
+   * options are looked up in the comma separated lists of all Connection headers, see RFC 7230
+   * section 6.1, e.g. <code>Connection: keep-alive, Upgrade</code>.
+   */
+  public boolean isKeepAlive() {
+    if (equalsIgnoreCase(versionStart, versionEnd, "HTTP/1.1")) {
+      return !hasConnectionOption("close");
+    }
+    return hasConnectionOption("keep-alive") && !hasConnectionOption("close");
+  }
+
+  private boolean hasConnectionOption(String option) {
+    for (int i = 0; i < headerCount * 4; i += 4) {
+      if (!equalsIgnoreCase(headers[i], headers[i + 1], "Connection")) {
+        continue;
+      }
+      int end = headers[i + 3];
+      for (int start = headers[i + 2]; start <= end;) {
+        int comma = start;
+        while (comma < end && data[comma] != ',') {
+          comma++;
+        }
+        int tokenStart = start;
+        int tokenEnd = comma;
+        while (tokenStart < tokenEnd && (data[tokenStart] == ' ' || data[tokenStart] == '\t')) {
+          tokenStart++;
+        }
+        while (tokenEnd > tokenStart && (data[tokenEnd - 1] == ' ' || data[tokenEnd - 1] == '\t')) {
+          tokenEnd--;
+        }
+        if (equalsIgnoreCase(tokenStart, tokenEnd, option)) {
+          return true;
+        }
+        start = comma + 1;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Evaluates Range and If-Range against the current version of the requested file.
+   *
+   * @return the ranges to serve, an empty list if none is satisfiable; <code>null</code> if the
+   *         whole file is to be served
+   * @see ByteRange#parse(String, long)
+   */
+  public List<ByteRange> getRanges(long fileLength, String etag, long lastModified) {
+    String range = getHead("Range");
+    if (range == null || !ByteRange.isIfRangeSatisfied(getHead("If-Range"), etag, lastModified)) {
+      return null;
+    }
+    return ByteRange.parse(range, fileLength);
+  }
+
+  /**
+   * Negotiates a content coding by the Accept-Encoding header. An explicit entry for the coding
+   * takes precedence over <code>*</code>, entries with a quality of 0 refuse the coding.
+   *
+   * @return <code>true</code> if the client accepts the given content coding
+   */
+  public boolean acceptsEncoding(String coding) {
+    String accepted = getHead("Accept-Encoding");
+    if (accepted == null) {
+      return false;
+    }
+    boolean wildcard = false;
+    for (String element : accepted.split(",")) {
+      String[] parameters = element.split(";");
+      String name = parameters[0].trim();
+      boolean acceptable = true;
+      for (int i = 1; i < parameters.length; i++) {
+        String parameter = parameters[i].trim();
+        if (parameter.length() > 2 && toLowerCase(parameter.charAt(0)) == 'q' && parameter.charAt(1) == '=') {
+          acceptable = quality(parameter.substring(2).trim()) > 0;
+        }
+      }
+      if (name.equalsIgnoreCase(coding)) {
+        return acceptable;
+      }
+      if (name.equals("*")) {
+        wildcard = acceptable;
+      }
+    }
+    return wildcard;
+  }
+
+  private static double quality(String value) {
+    try {
+      return Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * @return the offset of the last header with the given name in the header table or -1
+   */
+  private int indexOfHeader(String name) {
+    for (int i = (headerCount - 1) * 4; i >= 0; i -= 4) {
+      if (equalsIgnoreCase(headers[i], headers[i + 1], name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean equalsIgnoreCase(int start, int end, String s) {
+    if (end - start != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      if (toLowerCase(data[start + i]) != toLowerCase(s.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int toLowerCase(int c) {
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  private String known(String[] candidates, int start, int end) {
+    for (String candidate : candidates) {
+      if (end - start != candidate.length()) {
+        continue;
+      }
+      boolean equal = true;
+      for (int i = 0; equal && i < candidate.length(); i++) {
+        equal = data[start + i] == candidate.charAt(i);
+      }
+      if (equal) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private String string(int start, int end) {
+    return new String(data, start, end - start, HEADER_CHARSET);
+  }
+
   /** {@inheritDoc} */
   @Override
   public String toString() {
-    return "[" + raw + "]";
+    return "[" + string(0, length) + "]";
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,16 @@
+
+package at.amarktl.http;
+
+/**
+ * Callback invoked by a {@link Reactor} for every complete request read from a {@link HTTPSession}.
+ * Implementations are called on the selector thread and must not block.
+ */
+public interface HTTPRequestHandler {
+
+  void handle(HTTPSession session, HTTPRequest request);
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,172 @@
+
+package at.amarktl.http;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental parser for the request line and header block of HTTP requests. Bytes are consumed
+ * as they arrive, so a request may be split across any number of reads; the parser resumes where
+ * it stopped. Instead of Strings it only records offsets into the raw bytes, the values are
+ * materialized when asked for by {@link HTTPRequest}. The parser and the request it fills are
+ * reused for all requests of a connection, so parsing does not create garbage. A HTTPRequestParser
+ * must only be used by one thread at a time.
+ */
+public final class HTTPRequestParser {
+
+  public static final int DEFAULT_MAX_REQUEST_LINE_LENGTH = 8 * 1024;
+  public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+
+  private static final int START = 0;
+  private static final int REQUEST_LINE = 1;
+  private static final int HEADERS = 2;
+
+  private final int maxRequestLineLength;
+  private final int maxHeaderSize;
+  private final HTTPRequest request = new HTTPRequest();
+  private int state = START;
+  private int lineStart = 0;
+  private int headerStart = 0;
+
+  public HTTPRequestParser() {
+    this(DEFAULT_MAX_REQUEST_LINE_LENGTH, DEFAULT_MAX_HEADER_SIZE);
+  }
+
+  /**
+   * @param maxRequestLineLength
+   *          number of bytes the request line may have at most
+   * @param maxHeaderSize
+   *          number of bytes all header lines together may have at most
+   */
+  public HTTPRequestParser(int maxRequestLineLength, int maxHeaderSize) {
+    if (maxRequestLineLength <= 0) {
+      throw new IllegalArgumentException("'maxRequestLineLength' must not be less or equal than 0");
+    }
+    if (maxHeaderSize <= 0) {
+      throw new IllegalArgumentException("'maxHeaderSize' must not be less or equal than 0");
+    }
+    this.maxRequestLineLength = maxRequestLineLength;
+    this.maxHeaderSize = maxHeaderSize;
+  }
+
+  /**
+   * Consumes bytes from the given buffer until a request is complete or the buffer is exhausted.
+   * Bytes following a complete request are left in the buffer for the next call.
+   * 
+   * @return the completed request or <code>null</code> if more bytes are needed; the request is
+   *         only valid until the next call of this method
+   * @throws HTTPParseException
+   *           if the request is malformed or exceeds the limits; the parser must not be used
+   *           afterwards
+   */
+  public HTTPRequest parse(ByteBuffer buffer) throws HTTPParseException {
+    while (buffer.hasRemaining()) {
+      if (state == START) {
+        // ignore empty lines in front of a request line
+        byte b = buffer.get(buffer.position());
+        if (b == '\r' || b == '\n') {
+          buffer.get();
+          continue;
+        }
+        request.reset();
+        lineStart = 0;
+        state = REQUEST_LINE;
+      }
+
+      // copy up to the end of the current line at once
+      int lf = indexOf(buffer, '\n');
+      int length = request.append(buffer, (lf < 0 ? buffer.limit() : lf + 1) - buffer.position());
+      if (state == REQUEST_LINE) {
+        if (length - lineStart > maxRequestLineLength) {
+          throw new HTTPParseException(414, "URI Too Long", "Request line exceeds " + maxRequestLineLength + " bytes");
+        }
+      } else if (length - headerStart > maxHeaderSize) {
+        throw new HTTPParseException(431, "Request Header Fields Too Large", "Header exceeds " + maxHeaderSize + " bytes");
+      }
+      if (lf < 0) {
+        return null;
+      }
+
+      byte[] data = request.getData();
+      int end = length - 1;
+      if (end > lineStart && data[end - 1] == '\r') {
+        end--;
+      }
+      if (state == REQUEST_LINE) {
+        requestLine(data, lineStart, end);
+        state = HEADERS;
+        headerStart = length;
+      } else if (end == lineStart) {
+        state = START;
+        return request;
+      } else {
+        header(data, lineStart, end);
+      }
+      lineStart = length;
+    }
+    return null;
+  }
+
+  private static int indexOf(ByteBuffer buffer, char c) {
+    for (int i = buffer.position(); i < buffer.limit(); i++) {
+      if (buffer.get(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void requestLine(byte[] data, int start, int end) throws HTTPParseException {
+    int methodEnd = indexOf(data, start, end, ' ');
+    int uriEnd = indexOf(data, methodEnd + 1, end, ' ');
+    if (methodEnd <= start || uriEnd <= methodEnd + 1 || uriEnd + 1 >= end) {
+      throw new HTTPParseException(400, "Bad Request", "Malformed request line");
+    }
+    request.setRequestLine(start, methodEnd, methodEnd + 1, uriEnd, uriEnd + 1, end);
+  }
+
+  private void header(byte[] data, int start, int end) throws HTTPParseException {
+    if (data[start] == ' ' || data[start] == '\t') {
+      throw new HTTPParseException(400, "Bad Request", "Folded header lines are not supported");
+    }
+    int colon = indexOf(data, start, end, ':');
+    if (colon < 0) {
+      // skip malformed lines
+      return;
+    }
+    int nameEnd = colon;
+    while (nameEnd > start && isWhitespace(data[nameEnd - 1])) {
+      nameEnd--;
+    }
+    int valueStart = colon + 1;
+    while (valueStart < end && isWhitespace(data[valueStart])) {
+      valueStart++;
+    }
+    int valueEnd = end;
+    while (valueEnd > valueStart && isWhitespace(data[valueEnd - 1])) {
+      valueEnd--;
+    }
+    request.addHeader(start, nameEnd, valueStart, valueEnd);
+  }
+
+  private static int indexOf(byte[] data, int start, int end, char c) {
+    for (int i = start; i < end; i++) {
+      if (data[i] == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+  public int getMaxRequestLineLength() {
+    return maxRequestLineLength;
+  }
+
+  public int getMaxHeaderSize() {
+    return maxHeaderSize;
+  }
+
+}
@@ -1,7 +1,10 @@
 
 package at.amarktl.http;
 
-import java.util.Date;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,15 +14,13 @@ public class HTTPResponse {
   private String version = "HTTP/1.1";
   private int responseCode = 200;
   private String responseReason = "OK";
-  private Map<String, String> headers = new LinkedHashMap<String, String>();
-  private byte[] content;
-
-  void addDefaultHeaders() {
-    getHeaders().put("Date", new Date().toString());
-    getHeaders().put("Server", "Java NIO Webserver");
-    getHeaders().put("Connection", "close");
-    getHeaders().put("Content-Length", Integer.toString(content.length));
-  }
+  /** Headers set by the application, Date, Server, Connection and Content-Length are added when sent. */
+  private Map<String, String> headers = null;
+  private ByteBuffer content;
+  private FileChannel file;
+  private long filePosition;
+  private long fileLength;
+  private long contentLength = -1;
 
   public int getResponseCode() {
     return responseCode;
@@ -33,8 +34,45 @@ public class HTTPResponse {
     return getHeaders().get(header);
   }
 
-  public byte[] getContent() {
-    return content;
+  /**
+   * @return a view on the content, <code>null</code> if there is none or it is sent from a file
+   */
+  public ByteBuffer getContent() {
+    if (content == null) {
+      return null;
+    }
+    return content.duplicate();
+  }
+
+  public FileChannel getFile() {
+    return file;
+  }
+
+  public long getFilePosition() {
+    return filePosition;
+  }
+
+  public long getContentLength() {
+    if (file != null) {
+      return fileLength;
+    }
+    if (content != null) {
+      return content.remaining();
+    }
+    return contentLength;
+  }
+
+  /**
+   * Announces the length of content which is sent separately via
+   * {@link HTTPSession#sendContent(java.nio.ByteBuffer)}.
+   */
+  public void setContentLength(long contentLength) {
+    if (contentLength < 0) {
+      throw new IllegalArgumentException("'contentLength' must not be less than 0");
+    }
+    this.contentLength = contentLength;
+    this.content = null;
+    this.file = null;
   }
 
   public void setResponseCode(int responseCode) {
@@ -46,11 +84,44 @@ public class HTTPResponse {
   }
 
   public void setContent(byte[] content) {
+    setContent(ByteBuffer.wrap(content));
+  }
+
+  /**
+   * Sends the remaining bytes of the given buffer as content. The buffer is not copied, so it must
+   * not be modified until the response has been sent.
+   */
+  public void setContent(ByteBuffer content) {
+    if (content == null) {
+      throw new NullPointerException("'content' must not be null");
+    }
     this.content = content;
+    this.file = null;
+  }
+
+  /**
+   * Sends the given region of the file as content. The bytes are transferred from the file system
+   * cache to the socket without being copied into the heap. The channel is closed once the response
+   * has been sent.
+   */
+  public void setContent(FileChannel file, long position, long length) throws IOException {
+    if (file == null) {
+      throw new NullPointerException("'file' must not be null");
+    }
+    if (position < 0 || length < 0 || position + length > file.size()) {
+      throw new IllegalArgumentException("'position' and 'length' must denote a region within the file");
+    }
+    this.file = file;
+    this.filePosition = position;
+    this.fileLength = length;
+    this.content = null;
   }
 
   public void setHeader(String key, String value) {
-    getHeaders().put(key, value);
+    if (headers == null) {
+      headers = new LinkedHashMap<String, String>();
+    }
+    headers.put(key, value);
   }
 
   public String getVersion() {
@@ -58,14 +129,18 @@ public class HTTPResponse {
   }
 
   public Map<String, String> getHeaders() {
-    return headers;
+    if (headers == null) {
+      return Collections.emptyMap();
+    }
+    return Collections.unmodifiableMap(headers);
   }
 
   /** {@inheritDoc} */
   @Override
   public String toString() {
     StringBuilder s = new StringBuilder();
-    for (Entry<String, String> header : headers.entrySet()) {
+    s.append(version + " " + responseCode + " " + responseReason + "\n");
+    for (Entry<String, String> header : getHeaders().entrySet()) {
       s.append(header.getKey() + "\t = " + header.getValue()+"\n");
     }
     return s.toString();
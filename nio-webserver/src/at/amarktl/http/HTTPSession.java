@@ -3,84 +3,498 @@ package at.amarktl.http;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
 
 public final class HTTPSession {
 
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+  /** Number of queued bytes above which producers are asked to wait, see {@link #whenWritable(Runnable)}. */
+  public static final int WRITE_BUFFER_LIMIT = 128 * 1024;
+  private static final int HEADER_BUFFER_SIZE = 1024;
+  /** Bytes of a request read at once; the request line and header of a request must fit in there. */
+  public static final int DEFAULT_BUFFER_SIZE = 2048;
+  /** Marks the end of a response in the output queue. */
+  private static final Object END_OF_RESPONSE = new Object();
+
   private final SocketChannel channel;
-  private final ByteBuffer buffer = ByteBuffer.allocate(2048);
-  private final StringBuilder readLines = new StringBuilder();
-  private int mark = 0;
+  private final Reactor reactor;
+  private final ByteBuffer buffer;
+  private final HTTPRequestParser parser;
+  private SelectionKey key;
+  private volatile boolean keepAlive = false;
+  private volatile boolean busy = false;
+  private int requestCount = 0;
+  private long lastActivity = System.currentTimeMillis();
+  /** Holds ByteBuffers, FileRegions and END_OF_RESPONSE markers in the order they are written. */
+  private final Queue<Object> output = new ArrayDeque<Object>();
+  private final ByteBuffer[] gather = new ByteBuffer[16];
+  private ByteBuffer headerBuffer;
+  private final List<Runnable> writableWaiters = new ArrayList<Runnable>();
+  private long pendingBytes = 0;
+  private boolean closed = false;
+  /** Runs once the response to the current request has begun, guarded by output. */
+  private Runnable answered;
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flushOrClose();
+    }
+  };
 
-  public HTTPSession(SocketChannel channel) {
-    this.channel = channel;
+  public HTTPSession(SocketChannel channel, Reactor reactor, HTTPRequestParser parser) {
+    this(channel, reactor, parser, DEFAULT_BUFFER_SIZE);
   }
 
-  public String readLine() throws IOException {
-    StringBuilder sb = new StringBuilder();
-    int l = -1;
-    while (buffer.hasRemaining()) {
-      char c = (char) buffer.get();
-      sb.append(c);
-      if (c == '\n' && l == '\r') {
-        // mark our position
-        mark = buffer.position();
-        // append to the total
-        readLines.append(sb);
-        // return with no line separators
-        return sb.substring(0, sb.length() - 2);
-      }
-      l = c;
+  /**
+   * @param bufferSize
+   *          bytes of a request read at once, see {@link #DEFAULT_BUFFER_SIZE}
+   */
+  public HTTPSession(SocketChannel channel, Reactor reactor, HTTPRequestParser parser, int bufferSize) {
+    if (channel == null) {
+      throw new NullPointerException("'channel' must not be null");
     }
-    return null;
+    if (reactor == null) {
+      throw new NullPointerException("'reactor' must not be null");
+    }
+    if (parser == null) {
+      throw new NullPointerException("'parser' must not be null");
+    }
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("'bufferSize' must not be less or equal than 0");
+    }
+    this.channel = channel;
+    this.reactor = reactor;
+    this.parser = parser;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+    // the buffer is kept in read mode, there is nothing to read yet
+    buffer.flip();
+  }
+
+  /**
+   * Returns the next complete request from the read buffer, or <code>null</code> if the header block
+   * of the next request has not been received completely yet. Pipelined requests are returned one
+   * after the other; a returned request is only valid until its response has been sent.
+   */
+  public HTTPRequest readRequest() throws HTTPParseException {
+    return parser.parse(buffer);
   }
 
   public void readData() throws IOException {
-    buffer.limit(buffer.capacity());
+    buffer.compact();
+    if (!buffer.hasRemaining()) {
+      buffer.flip();
+      throw new IOException("Request line or header exceeds " + buffer.capacity() + " bytes");
+    }
     int read = channel.read(buffer);
+    buffer.flip();
     if (read == -1) {
       throw new IOException("End of stream");
     }
-    buffer.flip();
-    buffer.position(mark);
+    lastActivity = System.currentTimeMillis();
   }
 
-  private void writeLine(String line) throws IOException {
-    channel.write(ByteBuffer.wrap((line + "\r\n").getBytes(Charset.forName("UTF-8"))));
+  /**
+   * Queues the given response. It is written by the selector thread as fast as the client takes it,
+   * so this method never blocks. May be called from any thread.
+   */
+  public void sendResponse(HTTPResponse response) {
+    ByteBuffer headers = encodeHeaders(response);
+    boolean queued;
+    synchronized (output) {
+      queued = !closed;
+      if (queued) {
+        enqueue(headers);
+        if (response.getFile() != null) {
+          enqueue(new FileRegion(response.getFile(), response.getFilePosition(), response.getContentLength()));
+        } else if (response.getContent() != null) {
+          enqueue(response.getContent());
+        }
+        output.add(END_OF_RESPONSE);
+      } else if (response.getFile() != null) {
+        close(response.getFile());
+      }
+    }
+    answered();
+    if (queued) {
+      requestFlush();
+    }
   }
 
-  public void sendResponse(HTTPResponse response) {
-    response.addDefaultHeaders();
+  /**
+   * Queues the given response encoded beforehand, e.g. to shed load quickly. May be called from any
+   * thread.
+   */
+  public void sendResponse(EncodedResponse response) {
+    if (response.isClose()) {
+      keepAlive = false;
+    }
+    ByteBuffer encoded = response.get(keepAlive);
+    boolean queued;
+    synchronized (output) {
+      queued = !closed;
+      if (queued) {
+        enqueue(encoded);
+        output.add(END_OF_RESPONSE);
+      }
+    }
+    answered();
+    if (queued) {
+      requestFlush();
+    }
+  }
+
+  /**
+   * Runs the given task once the response to the current request has been queued completely, i.e.
+   * with {@link #sendResponse(HTTPResponse)} or the {@link #endResponse()} of a response sent in
+   * pieces, or has been given up; on the thread doing so. Lets whoever handles the request learn when
+   * it is done with it, no matter which way the request is answered. Writing the queued bytes to the
+   * client is not waited for.
+   */
+  public void whenAnswered(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException("'task' must not be null");
+    }
+    synchronized (output) {
+      answered = task;
+    }
+  }
+
+  private void answered() {
+    Runnable task;
+    synchronized (output) {
+      task = answered;
+      answered = null;
+    }
+    if (task != null) {
+      task.run();
+    }
+  }
+
+  /**
+   * Queues status line and headers of a response whose content follows in pieces via
+   * {@link #sendContent(ByteBuffer)}. The response must announce its content length and has to be
+   * finished with either {@link #endResponse()} or {@link #abortResponse()}.
+   */
+  public void beginResponse(HTTPResponse response) throws IOException {
+    if (response.getContentLength() < 0) {
+      throw new IllegalArgumentException("'response' must announce its content length");
+    }
+    send(encodeHeaders(response));
+  }
+
+  /**
+   * Queues the given content. Producers should not queue more before {@link #whenWritable(Runnable)}
+   * signaled that the client caught up.
+   * 
+   * @throws IOException
+   *           if the connection has been closed in the meantime
+   */
+  public void sendContent(ByteBuffer content) throws IOException {
+    send(content);
+  }
+
+  private void send(ByteBuffer buffer) throws IOException {
+    synchronized (output) {
+      if (closed) {
+        throw new IOException("Connection closed");
+      }
+      enqueue(buffer);
+    }
+    requestFlush();
+  }
+
+  public void endResponse() {
+    answered();
+    synchronized (output) {
+      if (closed) {
+        return;
+      }
+      output.add(END_OF_RESPONSE);
+    }
+    requestFlush();
+  }
+
+  /**
+   * Finishes a response which could not be sent completely. The client only learns about it by the
+   * connection being closed before all announced bytes arrived.
+   */
+  public void abortResponse() {
+    keepAlive = false;
+    endResponse();
+  }
+
+  /**
+   * Runs the given task once less than {@link #WRITE_BUFFER_LIMIT} bytes wait to be written, right
+   * away if that is the case already. The task also runs if the connection gets closed, so a producer
+   * learns about it with its next {@link #sendContent(ByteBuffer)}.
+   */
+  public void whenWritable(Runnable task) {
+    synchronized (output) {
+      if (!closed && pendingBytes >= WRITE_BUFFER_LIMIT) {
+        writableWaiters.add(task);
+        return;
+      }
+    }
+    task.run();
+  }
+
+  /**
+   * Encodes the header block into the reusable header buffer of this session. There is only one
+   * response in progress per session, so the buffer has been written before it gets reused.
+   */
+  private ByteBuffer encodeHeaders(HTTPResponse response) {
+    if ("close".equalsIgnoreCase(response.getHeader("Connection"))) {
+      keepAlive = false;
+    }
+    if (headerBuffer == null) {
+      headerBuffer = ByteBuffer.allocateDirect(HEADER_BUFFER_SIZE);
+    }
+    return ResponseEncoder.encode(response, keepAlive, headerBuffer);
+  }
+
+  private void enqueue(ByteBuffer buffer) {
+    output.add(buffer);
+    pendingBytes += buffer.remaining();
+  }
+
+  private void enqueue(FileRegion region) {
+    output.add(region);
+    pendingBytes += region.end - region.position;
+  }
+
+  private void requestFlush() {
+    if (reactor.isReactorThread()) {
+      flushOrClose();
+    } else {
+      reactor.execute(flushTask);
+    }
+  }
+
+  private void flushOrClose() {
     try {
-      writeLine(response.getVersion() + " " + response.getResponseCode() + " " + response.getResponseReason());
-      for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
-        writeLine(header.getKey() + ": " + header.getValue());
+      flush();
+    } catch (IOException e) {
+      // the client went away, only this connection is affected
+      keepAlive = false;
+      close();
+    }
+  }
+
+  /**
+   * Writes as much of the queued output as the socket takes without blocking. Consecutive buffers are
+   * written with a single gathering write, files are transferred by the kernel. Must only be called
+   * on the selector thread.
+   */
+  void flush() throws IOException {
+    boolean completed = false;
+    List<Runnable> writable = null;
+    synchronized (output) {
+      long written = 0;
+      boolean blocked = false;
+      while (!blocked && !output.isEmpty()) {
+        Object head = output.peek();
+        if (head == END_OF_RESPONSE) {
+          output.poll();
+          completed = true;
+          break;
+        }
+
+        if (head instanceof FileRegion) {
+          FileRegion region = (FileRegion) head;
+          // sendfile(2) where the platform supports it
+          long n = region.file.transferTo(region.position, region.end - region.position, channel);
+          region.position += n;
+          written += n;
+          if (region.position < region.end) {
+            blocked = true;
+          } else {
+            output.poll();
+            close(region.file);
+          }
+          continue;
+        }
+
+        int count = 0;
+        for (Object o : output) {
+          if (!(o instanceof ByteBuffer) || count == gather.length) {
+            break;
+          }
+          gather[count++] = (ByteBuffer) o;
+        }
+        written += channel.write(gather, 0, count);
+        blocked = gather[count - 1].hasRemaining();
+        Arrays.fill(gather, 0, count, null);
+        while (output.peek() instanceof ByteBuffer && !((ByteBuffer) output.peek()).hasRemaining()) {
+          output.poll();
+        }
+      }
+
+      if (written > 0) {
+        pendingBytes -= written;
+        lastActivity = System.currentTimeMillis();
       }
-      writeLine("");
+      if (pendingBytes < WRITE_BUFFER_LIMIT && !writableWaiters.isEmpty()) {
+        writable = new ArrayList<Runnable>(writableWaiters);
+        writableWaiters.clear();
+      }
+    }
+
+    updateInterest();
+    if (writable != null) {
+      run(writable);
+    }
+    if (completed) {
+      reactor.completed(this);
+    }
+  }
+
+  /**
+   * Reads while no request is in progress, writes while output is pending.
+   */
+  void updateInterest() {
+    if (key == null || !key.isValid()) {
+      return;
+    }
+    int ops = busy ? 0 : SelectionKey.OP_READ;
+    synchronized (output) {
+      if (pendingBytes > 0) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+    }
+    key.interestOps(ops);
+  }
 
-      ByteBuffer buffer = ByteBuffer.wrap(response.getContent());
-      while (buffer.remaining() > 0) {
-        channel.write(buffer);
+  private static void run(List<Runnable> tasks) {
+    for (Runnable task : tasks) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
       }
+    }
+  }
 
-      System.out.println("Send HTTP response [" + response + "]");
-    } catch (IOException ex) {
-      // slow silently
+  private static void close(FileChannel file) {
+    try {
+      file.close();
+    } catch (IOException e) {
+      e.printStackTrace();
     }
   }
 
   public void close() {
+    List<Runnable> writable;
+    synchronized (output) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (Object o : output) {
+        if (o instanceof FileRegion) {
+          close(((FileRegion) o).file);
+        }
+      }
+      output.clear();
+      pendingBytes = 0;
+      writable = new ArrayList<Runnable>(writableWaiters);
+      writableWaiters.clear();
+    }
     try {
       channel.close();
     } catch (IOException e) {
       e.printStackTrace();
     }
+    run(writable);
+  }
+
+  /**
+   * Runs the given task on the selector thread serving this session. Responses completed by other
+   * threads are handed back with it, so they are written by the thread owning the connection.
+   */
+  public void execute(Runnable task) {
+    reactor.execute(task);
+  }
+
+  /**
+   * Marks the start of the given request. Until the response has been sent, no further pipelined
+   * request is read from this session, so responses are always written in request order.
+   */
+  void begin(HTTPRequest request, int maxRequests) {
+    requestCount++;
+    keepAlive = request.isKeepAlive() && requestCount < maxRequests;
+    busy = true;
+  }
+
+  /**
+   * Answers a request which could not be parsed and closes the connection afterwards.
+   */
+  void reject(HTTPParseException e) {
+    keepAlive = false;
+    busy = true;
+    HTTPResponse response = new HTTPResponse();
+    response.setResponseCode(e.getStatus());
+    response.setResponseReason(e.getReason());
+    response.setHeader("Connection", "close");
+    response.setContent(e.getMessage().getBytes(HEADER_CHARSET));
+    sendResponse(response);
+  }
+
+  void end() {
+    busy = false;
+    lastActivity = System.currentTimeMillis();
+  }
+
+  boolean isBusy() {
+    return busy;
+  }
+
+  boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * @return <code>true</code> if the session neither received a request nor got rid of any pending
+   *         output for longer than the given timeout
+   */
+  boolean isIdle(long now, long idleTimeout) {
+    if (now - lastActivity <= idleTimeout) {
+      return false;
+    }
+    synchronized (output) {
+      return !busy || pendingBytes > 0;
+    }
   }
 
-  public String getContent() {
-    return readLines.toString();
+  SelectionKey getKey() {
+    return key;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  /**
+   * A part of a file still to be transferred to the client.
+   */
+  private static final class FileRegion {
+
+    final FileChannel file;
+    long position;
+    final long end;
+
+    FileRegion(FileChannel file, long position, long length) {
+      this.file = file;
+      this.position = position;
+      this.end = position + length;
+    }
   }
 
 }
@@ -0,0 +1,79 @@
+
+package at.amarktl.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Frames several ranges of a file as <code>multipart/byteranges</code> body. The delimiters are
+ * computed up front, so the length of the whole body is known before any content has been read and
+ * the parts can be streamed one after the other.
+ */
+public class MultipartByteRanges {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private final List<ByteRange> ranges;
+  private final String boundary;
+  private final byte[][] partHeaders;
+  private final byte[] closingDelimiter;
+  private final long contentLength;
+
+  public MultipartByteRanges(List<ByteRange> ranges, long fileLength) {
+    if (ranges == null) {
+      throw new NullPointerException("'ranges' must not be null");
+    }
+    if (ranges.size() < 2) {
+      throw new IllegalArgumentException("'ranges' must hold more than one range");
+    }
+    this.ranges = new ArrayList<ByteRange>(ranges);
+    this.boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+
+    long length = 0;
+    partHeaders = new byte[ranges.size()][];
+    for (int i = 0; i < partHeaders.length; i++) {
+      ByteRange range = ranges.get(i);
+      // the CRLF ending the previous part belongs to the delimiter
+      String header = (i > 0 ? "\r\n" : "") + "--" + boundary + "\r\nContent-Range: " + range.toContentRange(fileLength) + "\r\n\r\n";
+      partHeaders[i] = header.getBytes(ASCII);
+      length += partHeaders[i].length + range.getLength();
+    }
+    closingDelimiter = ("\r\n--" + boundary + "--\r\n").getBytes(ASCII);
+    contentLength = length + closingDelimiter.length;
+  }
+
+  public List<ByteRange> getRanges() {
+    return ranges;
+  }
+
+  /**
+   * @return the value of the Content-Type header of the response
+   */
+  public String getContentType() {
+    return "multipart/byteranges; boundary=" + boundary;
+  }
+
+  /**
+   * @return the number of bytes of the whole body including all delimiters
+   */
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  /**
+   * @return the delimiter and the headers preceding the content of the given part
+   */
+  public ByteBuffer getPartHeader(int part) {
+    return ByteBuffer.wrap(partHeaders[part]);
+  }
+
+  /**
+   * @return the delimiter following the content of the last part
+   */
+  public ByteBuffer getClosingDelimiter() {
+    return ByteBuffer.wrap(closingDelimiter);
+  }
+}
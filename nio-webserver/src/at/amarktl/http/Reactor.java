@@ -0,0 +1,309 @@
+
+package at.amarktl.http;
+
+import java.io.IOException;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector loop serving the I/O of a subset of the accepted connections. The loop blocks in
+ * {@link Selector#select()} and is woken up whenever another thread hands over work via
+ * {@link #execute(Runnable)}, so an idle reactor does not consume any CPU. Responses are written
+ * from the output queue of each session as the socket becomes writable.
+ */
+public final class Reactor implements Runnable {
+
+  private final String name;
+  private final Selector selector;
+  private final HTTPRequestHandler handler;
+  private volatile int maxRequestsPerConnection;
+  private volatile long idleTimeout;
+  private volatile int maxRequestLineLength = HTTPRequestParser.DEFAULT_MAX_REQUEST_LINE_LENGTH;
+  private volatile int maxHeaderSize = HTTPRequestParser.DEFAULT_MAX_HEADER_SIZE;
+  private volatile int sessionBufferSize = HTTPSession.DEFAULT_BUFFER_SIZE;
+  private long lastIdleCheck = System.currentTimeMillis();
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+  private volatile boolean isRunning = true;
+  private volatile Thread thread;
+
+  /**
+   * @param maxRequestsPerConnection
+   *          number of requests served on a persistent connection before it gets closed
+   * @param idleTimeout
+   *          milliseconds a persistent connection may stay idle before it gets closed
+   */
+  public Reactor(String name, HTTPRequestHandler handler, int maxRequestsPerConnection, long idleTimeout) throws IOException {
+    if (name == null) {
+      throw new NullPointerException("'name' must not be null");
+    }
+    if (name.trim().length() == 0) {
+      throw new IllegalArgumentException("'name' must not be empty");
+    }
+    if (handler == null) {
+      throw new NullPointerException("'handler' must not be null");
+    }
+    if (maxRequestsPerConnection <= 0) {
+      throw new IllegalArgumentException("'maxRequestsPerConnection' must not be less or equal than 0");
+    }
+    if (idleTimeout <= 0) {
+      throw new IllegalArgumentException("'idleTimeout' must not be less or equal than 0");
+    }
+    this.name = name;
+    this.handler = handler;
+    this.maxRequestsPerConnection = maxRequestsPerConnection;
+    this.idleTimeout = idleTimeout;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Limits persistent connections. May be called while the reactor is running, connections see the
+   * new limits with their next request.
+   */
+  public void setKeepAlive(int maxRequestsPerConnection, long idleTimeout) {
+    if (maxRequestsPerConnection <= 0) {
+      throw new IllegalArgumentException("'maxRequestsPerConnection' must not be less or equal than 0");
+    }
+    if (idleTimeout <= 0) {
+      throw new IllegalArgumentException("'idleTimeout' must not be less or equal than 0");
+    }
+    this.maxRequestsPerConnection = maxRequestsPerConnection;
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Limits the size of the requests accepted. Larger requests are answered with 414 or 431 and the
+   * connection gets closed. May be called while the reactor is running, the limits apply to
+   * connections accepted afterwards.
+   */
+  public void setRequestLimits(int maxRequestLineLength, int maxHeaderSize) {
+    if (maxRequestLineLength <= 0) {
+      throw new IllegalArgumentException("'maxRequestLineLength' must not be less or equal than 0");
+    }
+    if (maxHeaderSize <= 0) {
+      throw new IllegalArgumentException("'maxHeaderSize' must not be less or equal than 0");
+    }
+    this.maxRequestLineLength = maxRequestLineLength;
+    this.maxHeaderSize = maxHeaderSize;
+  }
+
+  /**
+   * Sets the size of the buffer each connection reads requests into, see
+   * {@link HTTPSession#DEFAULT_BUFFER_SIZE}. May be called while the reactor is running, the size
+   * applies to connections accepted afterwards.
+   */
+  public void setSessionBufferSize(int sessionBufferSize) {
+    if (sessionBufferSize <= 0) {
+      throw new IllegalArgumentException("'sessionBufferSize' must not be less or equal than 0");
+    }
+    this.sessionBufferSize = sessionBufferSize;
+  }
+
+  public void start() {
+    if (thread != null) {
+      throw new IllegalStateException("Reactor [" + name + "] already started");
+    }
+    thread = new Thread(this, name);
+    thread.start();
+  }
+
+  /**
+   * Hands a freshly accepted connection over to this reactor. May be called from any thread.
+   */
+  public void register(final SocketChannel client) {
+    if (client == null) {
+      throw new NullPointerException("'client' must not be null");
+    }
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          client.configureBlocking(false);
+          HTTPSession session = new HTTPSession(client, Reactor.this, new HTTPRequestParser(maxRequestLineLength, maxHeaderSize),
+            sessionBufferSize);
+          session.setKey(client.register(selector, SelectionKey.OP_READ, session));
+        } catch (IOException e) {
+          e.printStackTrace();
+          close(client);
+        }
+      }
+    });
+  }
+
+  /**
+   * Runs the given task on the selector thread of this reactor. May be called from any thread.
+   */
+  public void execute(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException("'task' must not be null");
+    }
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Called once the response to the current request of the given session has been sent. May be
+   * called from any thread.
+   */
+  void completed(final HTTPSession session) {
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        if (!session.isKeepAlive()) {
+          session.close();
+          return;
+        }
+        session.end();
+        SelectionKey key = session.getKey();
+        try {
+          // serve requests the client pipelined in the meantime
+          process(key);
+        } catch (IOException | RuntimeException e) {
+          key.cancel();
+          session.close();
+        }
+      }
+    });
+  }
+
+  public boolean isReactorThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  public void shutdown() {
+    isRunning = false;
+    selector.wakeup();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void run() {
+    try {
+      while (isRunning) {
+        selector.select(Math.min(idleTimeout, 1000));
+        runTasks();
+
+        Iterator<SelectionKey> i = selector.selectedKeys().iterator();
+        while (i.hasNext()) {
+          SelectionKey key = i.next();
+          i.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isWritable()) {
+            write(key);
+          }
+          if (key.isValid() && key.isReadable()) {
+            read(key);
+          }
+        }
+
+        closeIdleSessions();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      closeAll();
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void read(SelectionKey key) {
+    HTTPSession session = (HTTPSession) key.attachment();
+    try {
+      // get more data
+      session.readData();
+      // decode the message
+      process(key);
+    } catch (IOException | RuntimeException e) {
+      // the client went away or sent garbage, only this connection is affected
+      key.cancel();
+      session.close();
+    }
+  }
+
+  private void write(SelectionKey key) {
+    HTTPSession session = (HTTPSession) key.attachment();
+    try {
+      session.flush();
+    } catch (IOException | RuntimeException e) {
+      // the client went away, only this connection is affected
+      key.cancel();
+      session.close();
+    }
+  }
+
+  private void process(SelectionKey key) throws IOException {
+    HTTPSession session = (HTTPSession) key.attachment();
+    HTTPRequest request;
+    try {
+      while (!session.isBusy() && (request = session.readRequest()) != null) {
+        session.begin(request, maxRequestsPerConnection);
+        handler.handle(session, request);
+      }
+    } catch (HTTPParseException e) {
+      System.out.println("Rejected HTTP request: " + e.getMessage());
+      session.reject(e);
+    }
+    // stop reading while a request is in progress, pipelined requests wait in the socket buffer
+    session.updateInterest();
+  }
+
+  private void closeIdleSessions() {
+    long now = System.currentTimeMillis();
+    if (now - lastIdleCheck < Math.min(idleTimeout, 1000)) {
+      return;
+    }
+    lastIdleCheck = now;
+    for (SelectionKey key : selector.keys()) {
+      HTTPSession session = (HTTPSession) key.attachment();
+      if (session != null && session.isIdle(now, idleTimeout)) {
+        key.cancel();
+        session.close();
+      }
+    }
+  }
+
+  private void closeAll() {
+    for (SelectionKey key : selector.keys()) {
+      close(key.channel());
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private static void close(Channel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return name;
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
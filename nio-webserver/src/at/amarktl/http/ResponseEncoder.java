@@ -0,0 +1,201 @@
+
+package at.amarktl.http;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Encodes status line and headers of responses. Everything that does not change from response to
+ * response is encoded once up front, the Date header at most once per second, so writing the header
+ * block mostly amounts to copying a few byte arrays. Calls to methods of ResponseEncoder are thread
+ * safe.
+ */
+final class ResponseEncoder {
+
+  private static final byte[] CRLF = { '\r', '\n' };
+  private static final byte[] SERVER = ascii("Server: Java NIO Webserver\r\n");
+  private static final byte[] CONNECTION_KEEP_ALIVE = ascii("Connection: keep-alive\r\n");
+  private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+  private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+  private static final byte[] HEADER_SEPARATOR = ascii(": ");
+
+  /** Status lines of HTTP/1.1 responses with their default reason, indexed by status code. */
+  private static final byte[][] STATUS_LINES = new byte[600][];
+
+  static {
+    status(200, "OK");
+    status(204, "No Content");
+    status(206, "Partial Content");
+    status(301, "Moved Permanently");
+    status(302, "Found");
+    status(304, "Not Modified");
+    status(400, "Bad Request");
+    status(403, "Forbidden");
+    status(404, "Not Found");
+    status(405, "Method Not Allowed");
+    status(412, "Precondition Failed");
+    status(414, "URI Too Long");
+    status(416, "Range Not Satisfiable");
+    status(431, "Request Header Fields Too Large");
+    status(500, "Internal Server Error");
+    status(501, "Not Implemented");
+    status(503, "Service Unavailable");
+  }
+
+  private static volatile DateHeader date = new DateHeader(System.currentTimeMillis() / 1000);
+
+  private ResponseEncoder() {
+  }
+
+  private static void status(int code, String reason) {
+    STATUS_LINES[code] = ascii("HTTP/1.1 " + code + " " + reason + "\r\n");
+  }
+
+  private static byte[] ascii(String s) {
+    byte[] bytes = new byte[s.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) s.charAt(i);
+    }
+    return bytes;
+  }
+
+  /**
+   * Encodes the header block of the given response into the given buffer, or into a new one if it
+   * does not fit.
+   * 
+   * @return the buffer holding the header block, ready to be written
+   */
+  static ByteBuffer encode(HTTPResponse response, boolean keepAlive, ByteBuffer buffer) {
+    while (true) {
+      buffer.clear();
+      try {
+        encodeInto(response, keepAlive, true, buffer);
+        buffer.flip();
+        return buffer;
+      } catch (BufferOverflowException e) {
+        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+      }
+    }
+  }
+
+  /**
+   * Encodes the header block of the given response without a Date header, which responses with a
+   * 5xx status may omit, so the block stays valid.
+   * 
+   * @return a new buffer holding the header block, ready to be written
+   */
+  static ByteBuffer encodeWithoutDate(HTTPResponse response, boolean keepAlive) {
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    while (true) {
+      buffer.clear();
+      try {
+        encodeInto(response, keepAlive, false, buffer);
+        buffer.flip();
+        return buffer;
+      } catch (BufferOverflowException e) {
+        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+      }
+    }
+  }
+
+  private static void encodeInto(HTTPResponse response, boolean keepAlive, boolean date, ByteBuffer buffer) {
+    int code = response.getResponseCode();
+    byte[] statusLine = code >= 0 && code < STATUS_LINES.length ? STATUS_LINES[code] : null;
+    if (statusLine != null && "HTTP/1.1".equals(response.getVersion()) && isDefaultReason(statusLine, response.getResponseReason())) {
+      buffer.put(statusLine);
+    } else {
+      putString(buffer, response.getVersion());
+      buffer.put((byte) ' ');
+      putDecimal(buffer, code);
+      buffer.put((byte) ' ');
+      putString(buffer, response.getResponseReason());
+      buffer.put(CRLF);
+    }
+
+    if (date) {
+      buffer.put(currentDate());
+    }
+    buffer.put(SERVER);
+    buffer.put(keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+    if (response.getContentLength() >= 0) {
+      // responses without content like 304 do not announce a length
+      buffer.put(CONTENT_LENGTH);
+      putDecimal(buffer, response.getContentLength());
+      buffer.put(CRLF);
+    }
+
+    for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+      String name = header.getKey();
+      if ("Connection".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name)) {
+        // always sent by ourselves
+        continue;
+      }
+      putString(buffer, name);
+      buffer.put(HEADER_SEPARATOR);
+      putString(buffer, header.getValue());
+      buffer.put(CRLF);
+    }
+    buffer.put(CRLF);
+  }
+
+  /**
+   * @return the encoded Date header, recomputed once the second changed
+   */
+  static byte[] currentDate() {
+    long second = System.currentTimeMillis() / 1000;
+    DateHeader current = date;
+    if (current.second != second) {
+      // racing threads compute the same value, whichever wins does not matter
+      current = new DateHeader(second);
+      date = current;
+    }
+    return current.bytes;
+  }
+
+  private static boolean isDefaultReason(byte[] statusLine, String reason) {
+    // "HTTP/1.1 xxx " precedes the reason, CRLF follows it
+    if (statusLine.length - 15 != reason.length()) {
+      return false;
+    }
+    for (int i = 0; i < reason.length(); i++) {
+      if (statusLine[13 + i] != reason.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void putString(ByteBuffer buffer, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      buffer.put(c < 256 ? (byte) c : (byte) '?');
+    }
+  }
+
+  private static void putDecimal(ByteBuffer buffer, long value) {
+    if (value < 0) {
+      buffer.put((byte) '-');
+      value = -value;
+    }
+    long divisor = 1;
+    while (value / divisor >= 10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      buffer.put((byte) ('0' + (value / divisor) % 10));
+    }
+  }
+
+  private static final class DateHeader {
+
+    final long second;
+    final byte[] bytes;
+
+    DateHeader(long second) {
+      this.second = second;
+      this.bytes = ascii("Date: " + HTTPDate.format(second * 1000) + "\r\n");
+    }
+  }
+
+}
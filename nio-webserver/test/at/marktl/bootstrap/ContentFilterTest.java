@@ -0,0 +1,52 @@
+
+package at.marktl.bootstrap;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+import at.amarktl.bootstrap.ContentFilter;
+
+public class ContentFilterTest {
+
+  @Test
+  public void servesEverythingByDefault() {
+    assertTrue(ContentFilter.ALL.accepts(Paths.get("lib/junit.jar")));
+    assertTrue(ContentFilter.ALL.mayContain(Paths.get(".git")));
+  }
+
+  @Test
+  public void servesOnlyIncludedFiles() {
+    ContentFilter filter = new ContentFilter("html/**, *.txt", "");
+
+    assertTrue(filter.accepts(Paths.get("html/index.html")));
+    assertTrue(filter.accepts(Paths.get("html/bootstrap/css/bootstrap.css")));
+    assertTrue(filter.accepts(Paths.get("readme.txt")));
+    assertFalse(filter.accepts(Paths.get("src/at/amarktl/Main.java")));
+  }
+
+  @Test
+  public void skipsExcludedFilesAndDirectories() {
+    ContentFilter filter = new ContentFilter("", ".*, **/.*, lib");
+
+    assertFalse(filter.accepts(Paths.get(".git/HEAD")));
+    assertFalse(filter.accepts(Paths.get("html/.htaccess")));
+    assertFalse(filter.accepts(Paths.get("lib/junit.jar")));
+    assertTrue(filter.accepts(Paths.get("html/index.html")));
+    assertFalse(filter.mayContain(Paths.get(".git")));
+    assertFalse(filter.mayContain(Paths.get("lib")));
+  }
+
+  @Test
+  public void searchesOnlyDirectoriesIncludesMayMatchIn() {
+    ContentFilter filter = new ContentFilter("html/css/**", "");
+
+    assertTrue(filter.mayContain(Paths.get("")));
+    assertTrue(filter.mayContain(Paths.get("html")));
+    assertTrue(filter.mayContain(Paths.get("html/css/fonts")));
+    assertFalse(filter.mayContain(Paths.get("html/js")));
+    assertFalse(filter.mayContain(Paths.get("src")));
+  }
+}
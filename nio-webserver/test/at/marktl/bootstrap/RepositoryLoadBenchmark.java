@@ -0,0 +1,138 @@
+
+package at.marktl.bootstrap;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import at.amarktl.bootstrap.Repository;
+
+/**
+ * Compares {@link Repository#read(Path)} with the former loading of Repository, which read files
+ * line by line through a FileReader and copied the re-encoded String into a direct buffer for the
+ * store: throughput and heap bytes allocated per file, measured on the <code>html/</code> tree. Also
+ * counts the files the former loading changed. Run as plain Java application from the project
+ * directory, e.g. with <code>-Xmx64m</code>.
+ */
+public class RepositoryLoadBenchmark {
+
+  private static final int WARMUP = 50;
+  private static final int ITERATIONS = 200;
+
+  private static volatile Object sink;
+
+  private interface Loader {
+    ByteBuffer load(Path file) throws IOException;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final List<Path> files = new ArrayList<Path>();
+    Files.walkFileTree(Paths.get(args.length > 0 ? args[0] : "html"), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()) {
+          files.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    long bytes = 0;
+    for (Path file : files) {
+      bytes += Files.size(file);
+    }
+    System.out.printf("%d files, %d bytes%n", files.size(), bytes);
+
+    Loader current = new Loader() {
+      @Override
+      public ByteBuffer load(Path file) throws IOException {
+        return Repository.read(file);
+      }
+    };
+
+    Loader legacy = new Loader() {
+      @Override
+      public ByteBuffer load(Path file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file.toFile()));
+        try {
+          StringBuilder response = new StringBuilder();
+          String line = null;
+          while ((line = reader.readLine()) != null) {
+            response.append(line);
+          }
+          byte[] b = response.toString().getBytes(Charset.forName("UTF-8"));
+          ByteBuffer stored = ByteBuffer.allocateDirect(b.length);
+          stored.put(b);
+          stored.flip();
+          return stored;
+        } finally {
+          reader.close();
+        }
+      }
+    };
+
+    System.out.printf("legacy changed %d of %d files, channel changed %d%n", changed(legacy, files), files.size(), changed(current, files));
+    for (int round = 0; round < 3; round++) {
+      measure("legacy", legacy, files, bytes);
+      measure("channel", current, files, bytes);
+    }
+  }
+
+  private static int changed(Loader loader, List<Path> files) throws IOException {
+    int changed = 0;
+    for (Path file : files) {
+      ByteBuffer loaded = loader.load(file);
+      byte[] content = new byte[loaded.remaining()];
+      loaded.get(content);
+      if (!Arrays.equals(content, Files.readAllBytes(file))) {
+        changed++;
+      }
+    }
+    return changed;
+  }
+
+  private static void measure(String name, Loader loader, List<Path> files, long bytes) throws IOException {
+    List<ByteBuffer> loaded = new ArrayList<ByteBuffer>(files.size());
+    for (int i = 0; i < WARMUP; i++) {
+      for (Path file : files) {
+        sink = loader.load(file);
+      }
+    }
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      loaded.clear();
+      for (Path file : files) {
+        loaded.add(loader.load(file));
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    allocated = allocatedBytes() - allocated;
+    sink = loaded;
+    System.out.printf("%-8s %8.1f MB/s %10.1f heap bytes/file%n", name, (double) bytes * ITERATIONS / nanos * 1000, (double) allocated / ITERATIONS / files.size());
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
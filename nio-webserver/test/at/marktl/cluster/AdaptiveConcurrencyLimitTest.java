@@ -0,0 +1,85 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import at.amarktl.cluster.AdaptiveConcurrencyLimit;
+
+public class AdaptiveConcurrencyLimitTest {
+
+  private static final long MS = 1000000;
+
+  /**
+   * Keeps the limit busy and releases each request after the given latency.
+   */
+  private static void load(AdaptiveConcurrencyLimit limit, int requests, long latency) {
+    for (int i = 0; i < requests; i++) {
+      while (limit.tryAcquire()) {
+      }
+      limit.release(latency);
+    }
+  }
+
+  @Test
+  public void admitsUpToTheLimit() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(5, 100);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(limit.tryAcquire());
+    }
+    assertFalse(limit.tryAcquire());
+    assertEquals(5, limit.getInFlight());
+
+    limit.release(10 * MS);
+    assertTrue(limit.tryAcquire());
+  }
+
+  @Test
+  public void growsWhileTheLatencyHolds() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(5, 100);
+    load(limit, 1000, 10 * MS);
+    assertEquals(100, limit.getLimit());
+  }
+
+  @Test
+  public void shrinksOnceTheLatencyRises() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(5, 100);
+    load(limit, 1000, 10 * MS);
+
+    load(limit, 20, 100 * MS);
+
+    assertTrue(limit.getLimit() < 50);
+    assertTrue(limit.getLimit() >= 5);
+  }
+
+  @Test
+  public void doesNotGrowWhileMostlyIdle() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 100);
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(limit.tryAcquire());
+      limit.release(10 * MS);
+    }
+    assertEquals(10, limit.getLimit());
+  }
+
+  @Test
+  public void backsOffIfANodeIsOverloaded() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(5, 100);
+    load(limit, 1000, 10 * MS);
+
+    limit.overloaded();
+
+    assertEquals(90, limit.getLimit());
+  }
+
+  @Test
+  public void keepsTheLimitWithinNewBounds() {
+    AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(5, 100);
+    load(limit, 1000, 10 * MS);
+
+    limit.setLimits(5, 40);
+
+    assertEquals(40, limit.getLimit());
+  }
+}
@@ -0,0 +1,177 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.BalancingStrategies;
+import at.amarktl.cluster.BalancingStrategy;
+import at.amarktl.cluster.MeteredNodeClient;
+import at.amarktl.cluster.NodeDescriptor;
+import at.amarktl.cluster.StreamHandle;
+import at.amarktl.cluster.transport.NodeClient;
+
+public class BalancingStrategiesTest {
+
+  /** Never answers, so every call stays outstanding. */
+  private static final class SilentClient implements NodeClient {
+
+    private final NodeDescriptor descriptor;
+
+    SilentClient(String identifier, int capacity) {
+      this.descriptor = new NodeDescriptor(identifier, "127.0.0.1", 2099, NodeDescriptor.TRANSPORT_RMI, 0, capacity);
+    }
+
+    @Override
+    public NodeDescriptor getDescriptor() {
+      return descriptor;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> loadFile(String uri) {
+      return new CompletableFuture<byte[]>();
+    }
+
+    @Override
+    public CompletableFuture<ContentInfo> getContentInfo(String uri, String encoding) {
+      return new CompletableFuture<ContentInfo>();
+    }
+
+    @Override
+    public CompletableFuture<StreamHandle> openStream(String uri, String encoding, int chunkSize) {
+      return new CompletableFuture<StreamHandle>();
+    }
+
+    @Override
+    public CompletableFuture<StreamHandle> openRange(String uri, String encoding, long offset, long length, int chunkSize) {
+      return new CompletableFuture<StreamHandle>();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readChunk(long streamId) {
+      return new CompletableFuture<byte[]>();
+    }
+
+    @Override
+    public CompletableFuture<Void> closeStream(long streamId) {
+      return new CompletableFuture<Void>();
+    }
+
+    @Override
+    public CompletableFuture<Void> ping() {
+      return new CompletableFuture<Void>();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static MeteredNodeClient node(String identifier, int capacity, int outstanding) {
+    MeteredNodeClient node = new MeteredNodeClient(new SilentClient(identifier, capacity));
+    for (int i = 0; i < outstanding; i++) {
+      node.loadFile("/");
+    }
+    return node;
+  }
+
+  @Test
+  public void roundRobinStartsAtTheFirstNode() {
+    MeteredNodeClient[] nodes = { node("N1", 1, 0), node("N2", 1, 0), node("N3", 1, 0) };
+    BalancingStrategy strategy = BalancingStrategies.forName(BalancingStrategies.ROUND_ROBIN);
+
+    for (int i = 0; i < 6; i++) {
+      assertSame(nodes[i % 3], strategy.select(nodes, "/index.html"));
+    }
+  }
+
+  @Test
+  public void leastOutstandingWeighsLoadByCapacity() {
+    MeteredNodeClient busy = node("N1", 10, 3);
+    MeteredNodeClient small = node("N2", 5, 2);
+    MeteredNodeClient large = node("N3", 10, 2);
+    MeteredNodeClient[] nodes = { busy, small, large };
+    BalancingStrategy strategy = BalancingStrategies.forName(BalancingStrategies.LEAST_OUTSTANDING);
+
+    for (int i = 0; i < 20; i++) {
+      assertSame(large, strategy.select(nodes, "/index.html"));
+    }
+  }
+
+  @Test
+  public void powerOfTwoChoicesAvoidsTheBusyNode() {
+    MeteredNodeClient busy = node("N1", 1, 5);
+    MeteredNodeClient idle = node("N2", 1, 0);
+    MeteredNodeClient[] nodes = { busy, idle };
+    BalancingStrategy strategy = BalancingStrategies.forName(BalancingStrategies.POWER_OF_TWO_CHOICES);
+
+    for (int i = 0; i < 20; i++) {
+      assertSame(idle, strategy.select(nodes, "/index.html"));
+    }
+    assertEquals(5, busy.getOutstanding());
+  }
+
+  @Test
+  public void weightedRoundRobinInterleavesByCapacity() {
+    MeteredNodeClient[] nodes = { node("N1", 10, 0), node("N2", 10, 0), node("N3", 5, 0) };
+    BalancingStrategy strategy = BalancingStrategies.forName(BalancingStrategies.WEIGHTED_ROUND_ROBIN);
+
+    Map<MeteredNodeClient, Integer> counts = new HashMap<MeteredNodeClient, Integer>();
+    MeteredNodeClient last = null;
+    for (int i = 0; i < 50; i++) {
+      MeteredNodeClient node = strategy.select(nodes, "/index.html");
+      assertNotSame(last, node);
+      last = node;
+      counts.put(node, counts.containsKey(node) ? counts.get(node) + 1 : 1);
+    }
+    assertEquals(Integer.valueOf(20), counts.get(nodes[0]));
+    assertEquals(Integer.valueOf(20), counts.get(nodes[1]));
+    assertEquals(Integer.valueOf(10), counts.get(nodes[2]));
+  }
+
+  @Test
+  public void consistentHashingMovesOnlyTheFilesOfALeavingNode() {
+    MeteredNodeClient[] four = { node("N1", 10, 0), node("N2", 10, 0), node("N3", 10, 0), node("N4", 5, 0) };
+    MeteredNodeClient[] three = { four[0], four[1], four[2] };
+    BalancingStrategy strategy = BalancingStrategies.forName(BalancingStrategies.CONSISTENT_HASHING);
+
+    Map<MeteredNodeClient, Integer> counts = new HashMap<MeteredNodeClient, Integer>();
+    for (int i = 0; i < 1000; i++) {
+      String uri = "/html/page" + i + ".html";
+      MeteredNodeClient owner = strategy.select(four, uri);
+      assertSame(owner, strategy.select(four, uri));
+      counts.put(owner, counts.containsKey(owner) ? counts.get(owner) + 1 : 1);
+      if (owner != four[3]) {
+        assertSame(owner, strategy.select(three, uri));
+      }
+    }
+    for (MeteredNodeClient node : four) {
+      // roughly a quarter each
+      assertTrue(counts.get(node) > 150 && counts.get(node) < 350);
+    }
+  }
+
+  @Test
+  public void consistentHashingBoundsTheLoadOfAnOwner() {
+    MeteredNodeClient[] nodes = { node("N1", 1, 0), node("N2", 1, 0), node("N3", 1, 0) };
+    BalancingStrategy strategy = BalancingStrategies.forName(BalancingStrategies.CONSISTENT_HASHING);
+
+    MeteredNodeClient owner = strategy.select(nodes, "/hot.html");
+    for (int i = 0; i < 4; i++) {
+      owner.loadFile("/hot.html");
+    }
+    // 4 calls in flight against a bound of ceil(1.25 * 5 / 3) = 3
+    assertNotSame(owner, strategy.select(nodes, "/hot.html"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsUnknownStrategies() {
+    BalancingStrategies.forName("random");
+  }
+}
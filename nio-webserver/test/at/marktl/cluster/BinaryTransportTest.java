@@ -0,0 +1,307 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.NodeDescriptor;
+import at.amarktl.cluster.StreamHandle;
+import at.amarktl.cluster.transport.BinaryTransport;
+import at.amarktl.cluster.transport.BinaryTransportServer;
+import at.amarktl.cluster.transport.NodeClient;
+import at.amarktl.cluster.transport.NodeOverloadedException;
+import at.amarktl.cluster.transport.NodeService;
+import at.amarktl.cluster.transport.NodeUnavailableException;
+
+/**
+ * Round trips of the binary transport over loopback, from the master's client to a node's server.
+ */
+public class BinaryTransportTest {
+
+  /**
+   * Answers a file name of digits with as many bytes, "fail" and "overloaded" with the failures of the
+   * same name. Calls of "held" files are answered once {@link #release()} is called, the last first.
+   */
+  private static class FakeNode implements NodeService {
+
+    final List<CompletableFuture<byte[]>> held = new ArrayList<CompletableFuture<byte[]>>();
+
+    static byte[] content(int size) {
+      byte[] b = new byte[size];
+      for (int i = 0; i < size; i++) {
+        b[i] = (byte) (i * 31 + size);
+      }
+      return b;
+    }
+
+    synchronized void release() {
+      for (int i = held.size() - 1; i >= 0; i--) {
+        held.get(i).complete(content(i + 1));
+      }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> loadFile(String uri) {
+      CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+      if (uri.equals("fail")) {
+        result.completeExceptionally(new IOException("broken"));
+      } else if (uri.equals("overloaded")) {
+        result.completeExceptionally(new NodeOverloadedException("busy"));
+      } else if (uri.equals("held")) {
+        synchronized (this) {
+          held.add(result);
+        }
+      } else {
+        result.complete(content(Integer.parseInt(uri)));
+      }
+      return result;
+    }
+
+    @Override
+    public CompletableFuture<ContentInfo> getContentInfo(String uri, String encoding) {
+      return CompletableFuture.completedFuture(new ContentInfo(uri.length(), 42, "\"" + uri + "\"", encoding));
+    }
+
+    @Override
+    public CompletableFuture<StreamHandle> openStream(String uri, String encoding, int chunkSize) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<StreamHandle> openRange(String uri, String encoding, long offset, long length, int chunkSize) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readChunk(long streamId) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> closeStream(long streamId) {
+      return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> ping() {
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static BinaryTransportServer start(NodeService node, int port) throws Exception {
+    // the port of a server shut down before may take a moment to be released
+    for (int attempt = 0;; attempt++) {
+      BinaryTransportServer server = new BinaryTransportServer(node, new InetSocketAddress("127.0.0.1", port));
+      try {
+        server.start();
+        return server;
+      } catch (BindException e) {
+        if (attempt == 50) {
+          throw e;
+        }
+        Thread.sleep(100);
+      }
+    }
+  }
+
+  private static NodeDescriptor descriptor(int port) {
+    return new NodeDescriptor("N", "127.0.0.1", 1, NodeDescriptor.TRANSPORT_BINARY, port);
+  }
+
+  /**
+   * @return the header of a frame, written in one go so the peer does not close while it is written
+   */
+  private static byte[] header(int length, int id, int type) {
+    return ByteBuffer.allocate(9).putInt(length).putInt(id).put((byte) type).array();
+  }
+
+  /**
+   * Reads the header of a frame without payload.
+   *
+   * @return the request id
+   */
+  private static int readCall(Socket socket) throws IOException {
+    DataInputStream in = new DataInputStream(socket.getInputStream());
+    assertEquals(9 - 4, in.readInt());
+    int id = in.readInt();
+    in.readByte();
+    return id;
+  }
+
+  private static Throwable failure(CompletableFuture<?> call) throws Exception {
+    try {
+      call.get(5, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+    fail();
+    return null;
+  }
+
+  @Test
+  public void transfersFramesLargerThanTheSocketBuffers() throws Exception {
+    int port = freePort();
+    BinaryTransportServer server = start(new FakeNode(), port);
+    BinaryTransport transport = new BinaryTransport(5000);
+    try {
+      NodeClient client = transport.connect(descriptor(port));
+      // written and read in many partial writes and reads
+      int size = 8 * 1024 * 1024 + 3;
+      assertTrue(Arrays.equals(FakeNode.content(size), client.loadFile(String.valueOf(size)).get(10, TimeUnit.SECONDS)));
+      assertTrue(Arrays.equals(FakeNode.content(0), client.loadFile("0").get(5, TimeUnit.SECONDS)));
+
+      ContentInfo info = client.getContentInfo("/html/index.html", ContentInfo.ENCODING_GZIP).get(5, TimeUnit.SECONDS);
+      assertEquals(16, info.getLength());
+      assertEquals("\"/html/index.html\"", info.getEtag());
+      assertEquals(ContentInfo.ENCODING_GZIP, info.getEncoding());
+    } finally {
+      transport.shutdown();
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void matchesRepliesOutOfOrderToTheirCalls() throws Exception {
+    int port = freePort();
+    FakeNode node = new FakeNode();
+    BinaryTransportServer server = start(node, port);
+    BinaryTransport transport = new BinaryTransport(5000);
+    try {
+      final NodeClient client = transport.connect(descriptor(port));
+      List<CompletableFuture<byte[]>> calls = new ArrayList<CompletableFuture<byte[]>>();
+      for (int i = 0; i < 50; i++) {
+        calls.add(client.loadFile("held"));
+      }
+      // answered in between, before any of the held calls
+      assertTrue(Arrays.equals(FakeNode.content(100), client.loadFile("100").get(5, TimeUnit.SECONDS)));
+      for (int i = 0; i < 100 && node.held.size() < calls.size(); i++) {
+        Thread.sleep(20);
+      }
+
+      node.release();
+
+      for (int i = 0; i < calls.size(); i++) {
+        assertTrue(Arrays.equals(FakeNode.content(i + 1), calls.get(i).get(5, TimeUnit.SECONDS)));
+      }
+    } finally {
+      transport.shutdown();
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void failsCallsTheNodeFailedOrRefused() throws Exception {
+    int port = freePort();
+    BinaryTransportServer server = start(new FakeNode(), port);
+    BinaryTransport transport = new BinaryTransport(5000);
+    try {
+      NodeClient client = transport.connect(descriptor(port));
+
+      Throwable error = failure(client.loadFile("fail"));
+      assertFalse(error instanceof NodeOverloadedException);
+      assertTrue(error.getMessage().contains("broken"));
+      assertTrue(failure(client.loadFile("overloaded")) instanceof NodeOverloadedException);
+
+      // the connection is still usable
+      client.ping().get(5, TimeUnit.SECONDS);
+    } finally {
+      transport.shutdown();
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void closesConnectionsAnnouncingOversizedFrames() throws Exception {
+    int port = freePort();
+    BinaryTransportServer server = start(new FakeNode(), port);
+    try (Socket socket = new Socket("127.0.0.1", port)) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write(header(Integer.MAX_VALUE, 1, 7));
+
+      assertEquals(-1, socket.getInputStream().read());
+    } finally {
+      server.shutdown();
+    }
+  }
+
+  @Test
+  public void failsCallsOnAnOversizedReplyAndConnectsAgain() throws Exception {
+    final ServerSocket fake = new ServerSocket(0);
+    BinaryTransport transport = new BinaryTransport(5000);
+    try {
+      NodeClient client = transport.connect(descriptor(fake.getLocalPort()));
+      Socket first = fake.accept();
+      CompletableFuture<Void> ping = client.ping();
+      first.getOutputStream().write(header(Integer.MAX_VALUE, readCall(first), 0));
+
+      assertTrue(failure(ping) instanceof NodeUnavailableException);
+
+      // the next call establishes a new connection
+      CompletableFuture<Void> again = client.ping();
+      fake.setSoTimeout(5000);
+      Socket second = fake.accept();
+      second.getOutputStream().write(header(9 - 4, readCall(second), 0));
+      again.get(5, TimeUnit.SECONDS);
+      first.close();
+      second.close();
+    } finally {
+      transport.shutdown();
+      fake.close();
+    }
+  }
+
+  @Test
+  public void connectsAgainAfterTheNodeRestarted() throws Exception {
+    int port = freePort();
+    BinaryTransportServer server = start(new FakeNode(), port);
+    BinaryTransport transport = new BinaryTransport(5000);
+    try {
+      NodeClient client = transport.connect(descriptor(port));
+      client.ping().get(5, TimeUnit.SECONDS);
+
+      server.shutdown();
+      for (int i = 0; i < 50; i++) {
+        // until the loss of the connection has been noticed
+        try {
+          client.ping().get(5, TimeUnit.SECONDS);
+          Thread.sleep(20);
+        } catch (ExecutionException e) {
+          break;
+        }
+      }
+      server = start(new FakeNode(), port);
+
+      client.ping().get(5, TimeUnit.SECONDS);
+      assertTrue(Arrays.equals(FakeNode.content(10), client.loadFile("10").get(5, TimeUnit.SECONDS)));
+    } finally {
+      transport.shutdown();
+      server.shutdown();
+    }
+  }
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,151 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import at.amarktl.bootstrap.ContentInfo;
+import at.amarktl.cluster.ContentCache;
+
+public class ContentCacheTest {
+
+  private static final ContentInfo INFO = new ContentInfo(0, 0, "\"0\"");
+
+  private static ByteBuffer content(int size) {
+    return ByteBuffer.wrap(new byte[size]);
+  }
+
+  @Test
+  public void servesHitsAndCountsMisses() {
+    ContentCache cache = new ContentCache(16 * 1024, 60000);
+
+    assertNull(cache.get("/html/index.html"));
+    assertTrue(cache.put("/html/index.html", content(100), INFO));
+    assertEquals(100, cache.get("/html/index.html").getContent().remaining());
+
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(100, cache.getUsedBytes());
+  }
+
+  @Test
+  public void keepsFrequentEntriesAgainstAScan() {
+    ContentCache cache = new ContentCache(16 * 1024, 60000);
+    for (int i = 0; i < 16; i++) {
+      String hot = "/hot" + i;
+      for (int j = 0; j < 5; j++) {
+        cache.get(hot);
+      }
+      assertTrue(cache.put(hot, content(1024), INFO));
+    }
+
+    // requested once each, they must not displace the hot entries
+    for (int i = 0; i < 100; i++) {
+      String cold = "/cold" + i;
+      assertNull(cache.get(cold));
+      assertFalse(cache.put(cold, content(1024), INFO));
+    }
+
+    for (int i = 0; i < 16; i++) {
+      assertNotNull(cache.get("/hot" + i));
+    }
+    assertEquals(0, cache.getEvictions());
+  }
+
+  @Test
+  public void admitsEntriesMoreFrequentThanTheVictim() {
+    ContentCache cache = new ContentCache(16 * 1024, 60000);
+    for (int i = 0; i < 16; i++) {
+      cache.get("/old" + i);
+      assertTrue(cache.put("/old" + i, content(1024), INFO));
+    }
+    for (int j = 0; j < 5; j++) {
+      cache.get("/new");
+    }
+
+    assertTrue(cache.put("/new", content(1024), INFO));
+    assertEquals(1, cache.getEvictions());
+    assertEquals(16 * 1024, cache.getUsedBytes());
+  }
+
+  @Test
+  public void dropsInvalidatedAndExpiredEntries() throws Exception {
+    ContentCache cache = new ContentCache(16 * 1024, 50);
+    cache.put("/a", content(10), INFO);
+    cache.put("/b", content(10), INFO);
+
+    assertTrue(cache.invalidate("/a"));
+    assertNull(cache.get("/a"));
+
+    Thread.sleep(100);
+    assertNull(cache.get("/b"));
+    assertEquals(0, cache.getUsedBytes());
+  }
+
+  @Test
+  public void rejectsContentFetchedBeforeAnInvalidation() {
+    ContentCache cache = new ContentCache(16 * 1024, 60000);
+    long generation = cache.getGeneration("/a");
+
+    cache.invalidate("/a");
+    assertFalse(cache.put("/a", content(10), INFO, generation));
+    assertNull(cache.get("/a"));
+
+    assertTrue(cache.put("/a", content(10), INFO, cache.getGeneration("/a")));
+    assertNotNull(cache.get("/a"));
+  }
+
+  @Test
+  public void admitsContentFetchedBeforeAnInvalidationOfAnotherKey() {
+    ContentCache cache = new ContentCache(16 * 1024, 60000);
+    long generation = cache.getGeneration("/a");
+
+    cache.invalidate("/b");
+    assertTrue(cache.put("/a", content(10), INFO, generation));
+
+    cache.invalidateAll();
+    assertFalse(cache.put("/a", content(10), INFO, generation));
+  }
+
+  @Test
+  public void evictsSampledVictimsFromALargeCache() {
+    ContentCache cache = new ContentCache(64 * 1024, 60000);
+    for (int i = 0; i < 1024; i++) {
+      cache.get("/old" + i);
+      assertTrue(cache.put("/old" + i, content(64), INFO));
+    }
+    for (int j = 0; j < 5; j++) {
+      cache.get("/new");
+    }
+
+    assertTrue(cache.put("/new", content(640), INFO));
+    assertEquals(10, cache.getEvictions());
+    assertEquals(1024 - 10 + 1, cache.size());
+    assertEquals(64 * 1024, cache.getUsedBytes());
+  }
+
+  @Test
+  public void shrinkingEvictsTheLeastFrequentlyUsedEntries() {
+    ContentCache cache = new ContentCache(16 * 1024, 60000);
+    cache.put("/hot", content(1000), INFO);
+    cache.put("/cold", content(1000), INFO);
+    for (int i = 0; i < 5; i++) {
+      cache.get("/hot");
+    }
+
+    cache.resize(1500, 60000);
+
+    assertNotNull(cache.get("/hot"));
+    assertNull(cache.get("/cold"));
+    assertEquals(1000, cache.getUsedBytes());
+    assertEquals(1500, cache.getMaxBytes());
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
@@ -0,0 +1,41 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import at.amarktl.cluster.HedgeBudget;
+
+public class HedgeBudgetTest {
+
+  @Test
+  public void allowsNoDuplicateUpFront() {
+    assertFalse(new HedgeBudget(0.05, 10).tryAcquire());
+  }
+
+  @Test
+  public void allowsTheShareOfTheRequests() {
+    HedgeBudget budget = new HedgeBudget(0.05, 10);
+    int duplicates = 0;
+    for (int i = 0; i < 1000; i++) {
+      budget.request();
+      if (budget.tryAcquire()) {
+        duplicates++;
+      }
+    }
+    assertEquals(50, duplicates);
+  }
+
+  @Test
+  public void capsTheBurst() {
+    HedgeBudget budget = new HedgeBudget(0.05, 10);
+    for (int i = 0; i < 1000; i++) {
+      budget.request();
+    }
+    for (int i = 0; i < 10; i++) {
+      assertTrue(budget.tryAcquire());
+    }
+    assertFalse(budget.tryAcquire());
+  }
+}
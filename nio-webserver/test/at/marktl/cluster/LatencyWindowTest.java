@@ -0,0 +1,46 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import at.amarktl.cluster.LatencyWindow;
+
+public class LatencyWindowTest {
+
+  @Test
+  public void knowsNothingBeforeEnoughSamples() {
+    LatencyWindow window = new LatencyWindow(100);
+    for (int i = 1; i < LatencyWindow.MIN_SAMPLES; i++) {
+      window.record(i);
+    }
+    assertEquals(-1, window.percentile(95));
+
+    window.record(LatencyWindow.MIN_SAMPLES);
+    assertEquals(19, window.percentile(95));
+  }
+
+  @Test
+  public void findsTheTail() {
+    LatencyWindow window = new LatencyWindow(100);
+    for (int i = 100; i > 0; i--) {
+      window.record(i);
+    }
+    assertEquals(50, window.percentile(50));
+    assertEquals(95, window.percentile(95));
+    assertEquals(100, window.percentile(100));
+  }
+
+  @Test
+  public void forgetsOldSamples() {
+    LatencyWindow window = new LatencyWindow(32);
+    for (int i = 0; i < 32; i++) {
+      window.record(1000);
+    }
+    for (int i = 0; i < 32; i++) {
+      window.record(10);
+    }
+    assertEquals(10, window.percentile(95));
+  }
+}
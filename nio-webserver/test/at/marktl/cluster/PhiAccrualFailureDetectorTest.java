@@ -0,0 +1,42 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import at.amarktl.cluster.PhiAccrualFailureDetector;
+
+public class PhiAccrualFailureDetectorTest {
+
+  private static PhiAccrualFailureDetector detector(long... heartbeats) {
+    PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(1000, 100, 0);
+    for (long heartbeat : heartbeats) {
+      detector.heartbeat(heartbeat);
+    }
+    return detector;
+  }
+
+  @Test
+  public void suspectsNothingBeforeTheFirstHeartbeat() {
+    assertEquals(0, detector().phi(60000), 0);
+  }
+
+  @Test
+  public void growsWithTheTimeSinceTheLastHeartbeat() {
+    PhiAccrualFailureDetector detector = detector(0, 1000, 2000, 3000, 4000);
+
+    assertTrue(detector.phi(4500) < 1);
+    assertTrue(detector.phi(5000) < detector.phi(5500));
+    assertTrue(detector.phi(5500) < detector.phi(6000));
+    assertTrue(detector.phi(8000) > 8);
+  }
+
+  @Test
+  public void givesIrregularNodesMoreSlack() {
+    PhiAccrualFailureDetector regular = detector(0, 1000, 2000, 3000, 4000, 5000, 6000);
+    PhiAccrualFailureDetector irregular = detector(0, 400, 2000, 2600, 4000, 4300, 6000);
+
+    assertTrue(irregular.phi(7500) < regular.phi(7500));
+  }
+}
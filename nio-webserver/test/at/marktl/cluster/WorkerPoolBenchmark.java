@@ -0,0 +1,93 @@
+
+package at.marktl.cluster;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import at.amarktl.cluster.WorkerPool;
+
+/**
+ * Compares the fixed pools of platform threads with virtual threads behind a concurrency limit under
+ * high concurrency: many tasks which block like a remote call of a cluster node, all submitted at
+ * once. Reports throughput, the peak number of platform threads and the peak heap in use. The stacks
+ * of platform threads are not on the heap, those of virtual threads are; compare the native memory
+ * with <code>-XX:NativeMemoryTracking=summary</code> and <code>jcmd &lt;pid&gt; VM.native_memory</code>.
+ * Virtual threads are skipped on JVMs older than Java 21, so run it on Java 21 or later. Run as plain
+ * Java application, optionally with the number of tasks, the limit and the blocking time in ms as
+ * arguments.
+ */
+public class WorkerPoolBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int limit = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    long blocking = args.length > 2 ? Long.parseLong(args[2]) : 20;
+    System.out.printf("%d tasks blocking %d ms, limit %d, virtual threads %s%n", tasks, blocking, limit,
+      WorkerPool.isVirtualThreadsSupported() ? "supported" : "not supported");
+
+    for (int round = 0; round < 2; round++) {
+      measure("fixed 10", new WorkerPool("fixed", 10, false), tasks / 10, blocking);
+      measure("fixed " + limit, new WorkerPool("fixed", limit, false), tasks, blocking);
+      if (WorkerPool.isVirtualThreadsSupported()) {
+        measure("virtual " + limit, new WorkerPool("virtual", limit, true), tasks, blocking);
+      }
+    }
+  }
+
+  private static void measure(String name, WorkerPool pool, int tasks, final long blocking) throws InterruptedException {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    threads.resetPeakThreadCount();
+    long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+    final CountDownLatch done = new CountDownLatch(tasks);
+    final long[] peakHeap = new long[1];
+    Thread sampler = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (done.getCount() > 0) {
+          peakHeap[0] = Math.max(peakHeap[0], memory.getHeapMemoryUsage().getUsed());
+          try {
+            Thread.sleep(5);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    }, "sampler");
+    sampler.start();
+
+    long start = System.nanoTime();
+    for (int i = 0; i < tasks; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(blocking);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    done.await();
+    long nanos = System.nanoTime() - start;
+    sampler.join();
+    pool.shutdown();
+    pool.awaitTermination(10, TimeUnit.SECONDS);
+
+    System.out.printf("%-14s %6d tasks %10.0f tasks/s %6d peak threads %8.1f MB peak heap growth%n", name, tasks,
+      tasks * 1e9 / nanos, threads.getPeakThreadCount(), (peakHeap[0] - heapBefore) / 1024.0 / 1024.0);
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
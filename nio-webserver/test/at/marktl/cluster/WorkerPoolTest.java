@@ -0,0 +1,154 @@
+
+package at.marktl.cluster;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import at.amarktl.cluster.WorkerPool;
+
+public class WorkerPoolTest {
+
+  private static int maxRunning(WorkerPool pool, int tasks) throws InterruptedException {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger max = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(tasks);
+    for (int i = 0; i < tasks; i++) {
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          int now = running.incrementAndGet();
+          while (max.get() < now && !max.compareAndSet(max.get(), now)) {
+          }
+          try {
+            Thread.sleep(10);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            running.decrementAndGet();
+            done.countDown();
+          }
+        }
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    return max.get();
+  }
+
+  @Test
+  public void boundsTheTasksRunningAtOnce() throws Exception {
+    for (boolean virtualThreads : new boolean[] { false, true }) {
+      WorkerPool pool = new WorkerPool("test", 3, virtualThreads);
+      try {
+        assertEquals(3, maxRunning(pool, 30));
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void raisingTheConcurrencyStartsWaitingTasks() throws Exception {
+    for (boolean virtualThreads : new boolean[] { false, true }) {
+      WorkerPool pool = new WorkerPool("test", 1, virtualThreads);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch started = new CountDownLatch(3);
+      try {
+        for (int i = 0; i < 3; i++) {
+          pool.execute(new Runnable() {
+            @Override
+            public void run() {
+              started.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+          });
+        }
+        assertFalse(started.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, started.getCount());
+
+        pool.setConcurrency(3);
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+      } finally {
+        release.countDown();
+        pool.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void loweringTheConcurrencyBoundsFurtherTasks() throws Exception {
+    for (boolean virtualThreads : new boolean[] { false, true }) {
+      WorkerPool pool = new WorkerPool("test", 4, virtualThreads);
+      try {
+        pool.setConcurrency(2);
+        assertEquals(2, pool.getConcurrency());
+        assertEquals(2, maxRunning(pool, 20));
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void rejectsTasksBeyondTheQueueCapacity() throws Exception {
+    for (boolean virtualThreads : new boolean[] { false, true }) {
+      WorkerPool pool = new WorkerPool("test", 2, virtualThreads);
+      pool.setQueueCapacity(3);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(5);
+      Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            done.countDown();
+          }
+        }
+      };
+      try {
+        for (int i = 0; i < 5; i++) {
+          pool.execute(task);
+        }
+        try {
+          pool.execute(task);
+          fail();
+        } catch (RejectedExecutionException e) {
+          // expected
+        }
+        assertEquals(5, pool.getAdmitted());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.getAdmitted());
+      } finally {
+        release.countDown();
+        pool.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void runsOnVirtualThreadsOnlyIfSupported() {
+    WorkerPool pool = new WorkerPool("test", 1, true);
+    assertEquals(WorkerPool.isVirtualThreadsSupported(), pool.isVirtual());
+    pool.shutdown();
+    pool = new WorkerPool("test", 1, false);
+    assertFalse(pool.isVirtual());
+    pool.shutdown();
+  }
+}
@@ -0,0 +1,110 @@
+
+package at.marktl.config;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import at.amarktl.config.Config;
+import at.amarktl.config.ConfigListener;
+import at.amarktl.config.ConfigSnapshot;
+import at.amarktl.config.ConfigValidator;
+
+public class ConfigTest {
+
+  private static File write(File file, String tags) throws Exception {
+    String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<web-server>\n" + tags + "\n</web-server>\n";
+    Files.write(file.toPath(), xml.getBytes(Charset.forName("UTF-8")));
+    return file;
+  }
+
+  @Test
+  public void readsTypedValuesWithDefaults() throws Exception {
+    File file = write(Files.createTempFile("config", ".xml").toFile(),
+      "<worker-threads> 20 </worker-threads><selector-threads></selector-threads><content-cache-ttl>soon</content-cache-ttl><serving-mode>cluster</serving-mode>");
+    ConfigSnapshot c = new Config(file.getPath()).getSnapshot();
+
+    assertEquals(20, c.getValueForTag("worker-threads", 10));
+    assertEquals(4, c.getValueForTag("selector-threads", 4));
+    assertEquals(60000L, c.getValueForTag("content-cache-ttl", 60000L));
+    assertEquals("cluster", c.getValueForTag("serving-mode", "colocated"));
+    assertNull(c.getValueForTag("missing"));
+  }
+
+  @Test
+  public void publishesChangedValuesAsANewSnapshot() throws Exception {
+    File file = write(Files.createTempFile("config", ".xml").toFile(), "<worker-threads>10</worker-threads>");
+    Config config = new Config(file.getPath());
+    ConfigSnapshot before = config.getSnapshot();
+    final AtomicReference<ConfigSnapshot> previous = new AtomicReference<ConfigSnapshot>();
+    final CountDownLatch changed = new CountDownLatch(1);
+    config.addConfigListener(new ConfigListener() {
+      @Override
+      public void configChanged(ConfigSnapshot p, ConfigSnapshot current) {
+        previous.set(p);
+        changed.countDown();
+      }
+    });
+
+    write(file, "<worker-threads>20</worker-threads><stream-chunk-size>32768</stream-chunk-size>");
+
+    assertTrue(changed.await(5, TimeUnit.SECONDS));
+    assertSame(before, previous.get());
+    assertEquals(10, before.getValueForTag("worker-threads", 0));
+    assertEquals(20, config.getValueForTag("worker-threads", 0));
+    assertEquals(32768, config.getSnapshot().getValueForTag("stream-chunk-size", 0));
+  }
+
+  @Test
+  public void keepsTheValuesOfAFileWhichCanNotBeRead() throws Exception {
+    File file = write(Files.createTempFile("config", ".xml").toFile(), "<worker-threads>10</worker-threads>");
+    Config config = new Config(file.getPath());
+    ConfigSnapshot before = config.getSnapshot();
+
+    Files.write(file.toPath(), "<web-server><worker-threads>".getBytes(Charset.forName("UTF-8")));
+    config.fileChanged(file);
+
+    assertSame(before, config.getSnapshot());
+  }
+
+  @Test
+  public void keepsTheValuesIfTheValidatorRejectsTheChangedOnes() throws Exception {
+    File file = write(Files.createTempFile("config", ".xml").toFile(), "<worker-threads>10</worker-threads>");
+    Config config = new Config(file.getPath());
+    ConfigSnapshot before = config.getSnapshot();
+    config.setValidator(new ConfigValidator() {
+      @Override
+      public void validate(ConfigSnapshot snapshot) {
+        if (snapshot.getValueForTag("worker-threads", 0) <= 0) {
+          throw new IllegalArgumentException("'worker-threads' must not be less or equal than 0");
+        }
+      }
+    });
+    final AtomicReference<ConfigSnapshot> notified = new AtomicReference<ConfigSnapshot>();
+    config.addConfigListener(new ConfigListener() {
+      @Override
+      public void configChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+        notified.set(current);
+      }
+    });
+
+    write(file, "<worker-threads>0</worker-threads><stream-chunk-size>32768</stream-chunk-size>");
+    config.fileChanged(file);
+
+    assertSame(before, config.getSnapshot());
+    assertNull(notified.get());
+
+    write(file, "<worker-threads>20</worker-threads>");
+    config.fileChanged(file);
+
+    assertEquals(20, config.getValueForTag("worker-threads", 0));
+    assertSame(config.getSnapshot(), notified.get());
+  }
+}
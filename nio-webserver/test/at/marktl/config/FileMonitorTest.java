@@ -0,0 +1,85 @@
+
+package at.marktl.config;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import at.amarktl.config.FileChangeListener;
+import at.amarktl.config.FileMonitor;
+
+public class FileMonitorTest {
+
+  private static class CountingListener implements FileChangeListener {
+    final AtomicInteger changes = new AtomicInteger();
+    final CountDownLatch changed = new CountDownLatch(1);
+
+    @Override
+    public void fileChanged(File file) {
+      changes.incrementAndGet();
+      changed.countDown();
+    }
+  }
+
+  private static File file(Path directory, String name) throws Exception {
+    return Files.write(directory.resolve(name), new byte[1]).toFile();
+  }
+
+  @Test
+  public void notifiesOnceOfABurstOfChanges() throws Exception {
+    File file = file(Files.createTempDirectory("monitor"), "config.xml");
+    CountingListener listener = new CountingListener();
+    FileMonitor.getInstance().addFileChangeListener(listener, file, 60000);
+    try {
+      for (int i = 2; i < 10; i++) {
+        Files.write(file.toPath(), new byte[i]);
+      }
+
+      assertTrue(listener.changed.await(5, TimeUnit.SECONDS));
+      Thread.sleep(500);
+      assertEquals(1, listener.changes.get());
+    } finally {
+      FileMonitor.getInstance().removeFileChangeListener(listener, file);
+    }
+  }
+
+  @Test
+  public void notifiesOnlyListenersOfTheChangedFile() throws Exception {
+    Path directory = Files.createTempDirectory("monitor");
+    File changed = file(directory, "changed.xml");
+    File untouched = file(directory, "untouched.xml");
+    CountingListener changedListener = new CountingListener();
+    CountingListener untouchedListener = new CountingListener();
+    FileMonitor.getInstance().addFileChangeListener(changedListener, changed, 60000);
+    FileMonitor.getInstance().addFileChangeListener(untouchedListener, untouched, 60000);
+    try {
+      Files.write(changed.toPath(), new byte[2]);
+
+      assertTrue(changedListener.changed.await(5, TimeUnit.SECONDS));
+      Thread.sleep(500);
+      assertEquals(0, untouchedListener.changes.get());
+    } finally {
+      FileMonitor.getInstance().removeFileChangeListener(changedListener, changed);
+      FileMonitor.getInstance().removeFileChangeListener(untouchedListener, untouched);
+    }
+  }
+
+  @Test
+  public void stopsNotifyingRemovedListeners() throws Exception {
+    File file = file(Files.createTempDirectory("monitor"), "config.xml");
+    CountingListener listener = new CountingListener();
+    FileMonitor.getInstance().addFileChangeListener(listener, file, 60000);
+    FileMonitor.getInstance().removeFileChangeListener(listener, file);
+
+    Files.write(file.toPath(), new byte[2]);
+
+    assertFalse(listener.changed.await(500, TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,141 @@
+
+package at.marktl.http;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import at.amarktl.http.HTTPRequest;
+import at.amarktl.http.HTTPRequestParser;
+
+/**
+ * Compares the byte-level {@link HTTPRequestParser} with the former String based parsing of
+ * HTTPSession and HTTPRequest: throughput and bytes allocated per request, measured on a typical
+ * browser request. Run as plain Java application, e.g. with <code>-Xmx64m</code>.
+ */
+public class HTTPRequestParserBenchmark {
+
+  private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+  private static final String REQUEST = "GET /html/index.html HTTP/1.1\r\n" + "Host: localhost:8080\r\n"
+    + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n"
+    + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+    + "Accept-Language: en-US,en;q=0.5\r\n" + "Accept-Encoding: gzip, deflate, br\r\n" + "Connection: keep-alive\r\n"
+    + "Upgrade-Insecure-Requests: 1\r\n" + "\r\n";
+
+  private static final int WARMUP = 200000;
+  private static final int ITERATIONS = 2000000;
+
+  private static volatile Object sink;
+
+  public static void main(String[] args) throws Exception {
+    final ByteBuffer buffer = ByteBuffer.wrap(REQUEST.getBytes(CHARSET));
+
+    final HTTPRequestParser parser = new HTTPRequestParser();
+    Runnable current = new Runnable() {
+      @Override
+      public void run() {
+        buffer.clear();
+        try {
+          HTTPRequest request = parser.parse(buffer);
+          sink = request.isKeepAlive() ? request.getLocation() : null;
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+
+    Runnable legacy = new Runnable() {
+      @Override
+      public void run() {
+        buffer.clear();
+        LegacyRequest request = LegacyRequest.read(buffer);
+        sink = "close".equalsIgnoreCase(request.getHead("Connection")) ? null : request.location;
+      }
+    };
+
+    for (int round = 0; round < 3; round++) {
+      measure("legacy", legacy);
+      measure("byte-level", current);
+    }
+  }
+
+  private static void measure(String name, Runnable parse) {
+    for (int i = 0; i < WARMUP; i++) {
+      parse.run();
+    }
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      parse.run();
+    }
+    long nanos = System.nanoTime() - start;
+    allocated = allocatedBytes() - allocated;
+    System.out.printf("%-10s %8.1f ns/request %10.1f bytes/request%n", name, (double) nanos / ITERATIONS, (double) allocated / ITERATIONS);
+  }
+
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  /**
+   * The parsing as it was done before: line by line into a StringBuilder, then tokenized and split.
+   */
+  private static class LegacyRequest {
+
+    String method;
+    String location;
+    String version;
+    Map<String, String> headers = new HashMap<String, String>();
+
+    static LegacyRequest read(ByteBuffer buffer) {
+      StringBuilder readLines = new StringBuilder();
+      int start = buffer.position();
+      int l = -1;
+      while (buffer.hasRemaining()) {
+        int c = buffer.get();
+        if (c == '\n' && l == '\r') {
+          String line = new String(buffer.array(), start, buffer.position() - start - 2, CHARSET);
+          readLines.append(line).append("\r\n");
+          if (line.isEmpty()) {
+            break;
+          }
+          start = buffer.position();
+        }
+        l = c;
+      }
+
+      LegacyRequest request = new LegacyRequest();
+      String raw = readLines.toString();
+      StringTokenizer tokenizer = new StringTokenizer(raw);
+      request.method = tokenizer.nextToken().toUpperCase();
+      request.location = tokenizer.nextToken();
+      request.version = tokenizer.nextToken();
+      String[] lines = raw.split("\r\n");
+      for (int i = 1; i < lines.length; i++) {
+        String[] keyVal = lines[i].split(":", 2);
+        if (keyVal.length < 2) {
+          continue;
+        }
+        request.headers.put(keyVal[0].trim().toLowerCase(Locale.ENGLISH), keyVal[1].trim());
+      }
+      return request;
+    }
+
+    String getHead(String key) {
+      return headers.get(key.toLowerCase(Locale.ENGLISH));
+    }
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//
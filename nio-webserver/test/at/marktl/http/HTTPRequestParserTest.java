@@ -0,0 +1,144 @@
+
+package at.marktl.http;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import at.amarktl.http.ByteRange;
+import at.amarktl.http.HTTPParseException;
+import at.amarktl.http.HTTPRequest;
+import at.amarktl.http.HTTPRequestParser;
+
+public class HTTPRequestParserTest {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private static ByteBuffer bytes(String s) {
+    return ByteBuffer.wrap(s.getBytes(ASCII));
+  }
+
+  @Test
+  public void parsesRequestLineAndHeaders() throws Exception {
+    HTTPRequest request = new HTTPRequestParser().parse(bytes("GET /index.html?x=1 HTTP/1.1\r\nHost: localhost\r\nX-Test:  a b \r\n\r\n"));
+
+    assertNotNull(request);
+    assertEquals("GET", request.getMethod());
+    assertEquals("/index.html?x=1", request.getLocation());
+    assertEquals("HTTP/1.1", request.getVersion());
+    assertEquals("localhost", request.getHead("host"));
+    assertEquals("a b", request.getHead("X-TEST"));
+    assertNull(request.getHead("Connection"));
+    assertTrue(request.isKeepAlive());
+  }
+
+  @Test
+  public void resumesAcrossReads() throws Exception {
+    HTTPRequestParser parser = new HTTPRequestParser();
+    String raw = "\r\nGET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n";
+    HTTPRequest request = null;
+    for (int i = 0; i < raw.length(); i++) {
+      ByteBuffer buffer = bytes(raw.substring(i, i + 1));
+      request = parser.parse(buffer);
+      assertEquals(i == raw.length() - 1, request != null);
+    }
+    assertEquals("/", request.getLocation());
+    assertTrue(request.isKeepAlive());
+  }
+
+  @Test
+  public void looksUpConnectionOptionsPerToken() throws Exception {
+    assertFalse(new HTTPRequestParser().parse(bytes("GET / HTTP/1.1\r\nConnection: Upgrade, CLOSE\r\n\r\n")).isKeepAlive());
+    assertFalse(new HTTPRequestParser().parse(bytes("GET / HTTP/1.1\r\nConnection: TE,\tclose \r\n\r\n")).isKeepAlive());
+    assertFalse(new HTTPRequestParser().parse(bytes("GET / HTTP/1.1\r\nConnection: Upgrade\r\nConnection: close\r\n\r\n")).isKeepAlive());
+    assertTrue(new HTTPRequestParser().parse(bytes("GET / HTTP/1.1\r\nConnection: closed, x-close\r\n\r\n")).isKeepAlive());
+    assertTrue(new HTTPRequestParser().parse(bytes("GET / HTTP/1.0\r\nConnection: Keep-Alive, Upgrade\r\n\r\n")).isKeepAlive());
+    assertFalse(new HTTPRequestParser().parse(bytes("GET / HTTP/1.0\r\nConnection: keep-alive-x\r\n\r\n")).isKeepAlive());
+    assertFalse(new HTTPRequestParser().parse(bytes("GET / HTTP/1.0\r\nConnection: keep-alive, close\r\n\r\n")).isKeepAlive());
+  }
+
+  @Test
+  public void leavesPipelinedRequestsInTheBuffer() throws Exception {
+    HTTPRequestParser parser = new HTTPRequestParser();
+    ByteBuffer buffer = bytes("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\nConnection: close\r\n\r\n");
+
+    assertEquals("/a", parser.parse(buffer).getLocation());
+    assertTrue(buffer.hasRemaining());
+    HTTPRequest second = parser.parse(buffer);
+    assertEquals("/b", second.getLocation());
+    assertFalse(second.isKeepAlive());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void negotiatesContentCoding() throws Exception {
+    HTTPRequestParser parser = new HTTPRequestParser();
+
+    assertTrue(parser.parse(bytes("GET / HTTP/1.1\r\nAccept-Encoding: deflate, GZIP;q=0.5\r\n\r\n")).acceptsEncoding("gzip"));
+    assertFalse(parser.parse(bytes("GET / HTTP/1.1\r\nAccept-Encoding: gzip;q=0, *\r\n\r\n")).acceptsEncoding("gzip"));
+    assertTrue(parser.parse(bytes("GET / HTTP/1.1\r\nAccept-Encoding: br, *;q=0.1\r\n\r\n")).acceptsEncoding("gzip"));
+    assertFalse(parser.parse(bytes("GET / HTTP/1.1\r\nAccept-Encoding: identity\r\n\r\n")).acceptsEncoding("gzip"));
+    assertFalse(parser.parse(bytes("GET / HTTP/1.1\r\n\r\n")).acceptsEncoding("gzip"));
+  }
+
+  @Test
+  public void resolvesRanges() throws Exception {
+    HTTPRequestParser parser = new HTTPRequestParser();
+
+    List<ByteRange> ranges = parser.parse(bytes("GET / HTTP/1.1\r\nRange: bytes=500-599, -100, 0-9, 5-19\r\n\r\n")).getRanges(1000, "\"a\"", 0);
+    assertEquals(Arrays.asList(new ByteRange(0, 20), new ByteRange(500, 100), new ByteRange(900, 100)), ranges);
+    assertEquals("bytes 900-999/1000", ranges.get(2).toContentRange(1000));
+
+    assertEquals(Arrays.asList(new ByteRange(990, 10)), parser.parse(bytes("GET / HTTP/1.1\r\nRange: bytes=990-2000\r\n\r\n")).getRanges(1000, "\"a\"", 0));
+    assertTrue(parser.parse(bytes("GET / HTTP/1.1\r\nRange: bytes=1000-\r\n\r\n")).getRanges(1000, "\"a\"", 0).isEmpty());
+    assertNull(parser.parse(bytes("GET / HTTP/1.1\r\nRange: bytes=9-5\r\n\r\n")).getRanges(1000, "\"a\"", 0));
+    assertNull(parser.parse(bytes("GET / HTTP/1.1\r\nRange: items=0-5\r\n\r\n")).getRanges(1000, "\"a\"", 0));
+    assertNull(parser.parse(bytes("GET / HTTP/1.1\r\n\r\n")).getRanges(1000, "\"a\"", 0));
+
+    HTTPRequest conditional = parser.parse(bytes("GET / HTTP/1.1\r\nRange: bytes=0-5\r\nIf-Range: \"a\"\r\n\r\n"));
+    assertNotNull(conditional.getRanges(1000, "\"a\"", 0));
+    assertNull(conditional.getRanges(1000, "\"b\"", 0));
+  }
+
+  @Test
+  public void rejectsLongRequestLine() throws Exception {
+    HTTPRequestParser parser = new HTTPRequestParser(32, 1024);
+    try {
+      parser.parse(bytes("GET /" + new String(new char[64]).replace('\0', 'a') + " HTTP/1.1\r\n\r\n"));
+      fail();
+    } catch (HTTPParseException e) {
+      assertEquals(414, e.getStatus());
+    }
+  }
+
+  @Test
+  public void rejectsLargeHeader() throws Exception {
+    HTTPRequestParser parser = new HTTPRequestParser(1024, 32);
+    try {
+      parser.parse(bytes("GET / HTTP/1.1\r\nX-Large: " + new String(new char[64]).replace('\0', 'a') + "\r\n\r\n"));
+      fail();
+    } catch (HTTPParseException e) {
+      assertEquals(431, e.getStatus());
+    }
+  }
+
+  @Test
+  public void rejectsMalformedRequestLine() throws Exception {
+    try {
+      new HTTPRequestParser().parse(bytes("GET/HTTP/1.1\r\n\r\n"));
+      fail();
+    } catch (HTTPParseException e) {
+      assertEquals(400, e.getStatus());
+    }
+  }
+
+}
+
+//---------------------------- Revision History ----------------------------
+//$Log$
+//